@@ -63,6 +63,15 @@ public class ComponentTreeIterator implements Iterator<BComponent>
         return comp;
     }
 
+    /**
+      * Do not iterate the children of the BComponent
+      * that was returned by the last call to next().
+      */
+    public void skipChildren()
+    {
+        stack.pop();
+    }
+
     /**
       * @throws UnsupportedOperationException
       */
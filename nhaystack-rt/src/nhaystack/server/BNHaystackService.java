@@ -896,6 +896,15 @@ public class BNHaystackService extends BAbstractService implements BINHaystackWo
   public void serviceStopped()
   {
     LOG.info("NHaystack Service stopped");
+
+    if (server != null)
+    {
+      server.getCache().stop();
+      server.getSubscriptions().stop();
+      server.getLeaseTimer().stop();
+      server.getHisReadPool().stop();
+      server.getHisCache().stop();
+    }
   }
 
   @Override
@@ -1038,9 +1047,21 @@ public class BNHaystackService extends BAbstractService implements BINHaystackWo
 
     LOG.info("Begin initializing NHaystack");
 
-    getHaystackServer().getCache().rebuild(getStats());
-    getServlet().enableWithMessage(true);
-    setInitialized(true);
+    // If the cache that was saved at shutdown is still valid, serve
+    // requests from it while the cache is rebuilt.
+    Cache cache = getHaystackServer().getCache();
+    if (cache.load(getStats()))
+    {
+      getServlet().enableWithMessage(true);
+      setInitialized(true);
+      cache.rebuild(getStats());
+    }
+    else
+    {
+      cache.rebuild(getStats());
+      getServlet().enableWithMessage(true);
+      setInitialized(true);
+    }
 
     LOG.info("End initializing NHaystack");
   }
@@ -1211,6 +1232,11 @@ public class BNHaystackService extends BAbstractService implements BINHaystackWo
 
     final Cache cache = getHaystackServer().getCache();
     cache.spy(out);
+    getHaystackServer().getTagManager().spy(out);
+    getHaystackServer().getSubscriptions().spy(out);
+    getHaystackServer().getLeaseTimer().spy(out);
+    getHaystackServer().getHisReadPool().spy(out);
+    getHaystackServer().getHisCache().spy(out);
   }
 
 ////////////////////////////////////////////////////////////////
@@ -49,6 +49,42 @@ import javax.baja.sys.Type;
   defaultValue = "BAbsTime.DEFAULT",
   flags = Flags.READONLY
 )
+@NiagaraProperty(
+  name = "lastCacheComponentDuration",
+  type = "BRelTime",
+  defaultValue = "BRelTime.DEFAULT",
+  flags = Flags.READONLY
+)
+@NiagaraProperty(
+  name = "lastCacheSepRefDuration",
+  type = "BRelTime",
+  defaultValue = "BRelTime.DEFAULT",
+  flags = Flags.READONLY
+)
+@NiagaraProperty(
+  name = "lastCacheHistoryDuration",
+  type = "BRelTime",
+  defaultValue = "BRelTime.DEFAULT",
+  flags = Flags.READONLY
+)
+@NiagaraProperty(
+  name = "lastCacheTagIndexDuration",
+  type = "BRelTime",
+  defaultValue = "BRelTime.DEFAULT",
+  flags = Flags.READONLY
+)
+@NiagaraProperty(
+  name = "hisCacheHits",
+  type = "long",
+  defaultValue = "0L",
+  flags = Flags.READONLY | Flags.TRANSIENT
+)
+@NiagaraProperty(
+  name = "hisCacheMisses",
+  type = "long",
+  defaultValue = "0L",
+  flags = Flags.READONLY | Flags.TRANSIENT
+)
 public class BNHaystackStats extends BStruct
 {
 /*+ ------------ BEGIN BAJA AUTO GENERATED CODE ------------ +*/
@@ -170,6 +206,144 @@ public class BNHaystackStats extends BStruct
    */
   public void setLastCacheRebuildTime(BAbsTime v) { set(lastCacheRebuildTime, v, null); }
 
+////////////////////////////////////////////////////////////////
+// Property "lastCacheComponentDuration"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code lastCacheComponentDuration} property.
+   * @see #getLastCacheComponentDuration
+   * @see #setLastCacheComponentDuration
+   */
+  public static final Property lastCacheComponentDuration = newProperty(Flags.READONLY, BRelTime.DEFAULT, null);
+  
+  /**
+   * Get the {@code lastCacheComponentDuration} property.
+   * @see #lastCacheComponentDuration
+   */
+  public BRelTime getLastCacheComponentDuration() { return (BRelTime)get(lastCacheComponentDuration); }
+  
+  /**
+   * Set the {@code lastCacheComponentDuration} property.
+   * @see #lastCacheComponentDuration
+   */
+  public void setLastCacheComponentDuration(BRelTime v) { set(lastCacheComponentDuration, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "lastCacheSepRefDuration"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code lastCacheSepRefDuration} property.
+   * @see #getLastCacheSepRefDuration
+   * @see #setLastCacheSepRefDuration
+   */
+  public static final Property lastCacheSepRefDuration = newProperty(Flags.READONLY, BRelTime.DEFAULT, null);
+  
+  /**
+   * Get the {@code lastCacheSepRefDuration} property.
+   * @see #lastCacheSepRefDuration
+   */
+  public BRelTime getLastCacheSepRefDuration() { return (BRelTime)get(lastCacheSepRefDuration); }
+  
+  /**
+   * Set the {@code lastCacheSepRefDuration} property.
+   * @see #lastCacheSepRefDuration
+   */
+  public void setLastCacheSepRefDuration(BRelTime v) { set(lastCacheSepRefDuration, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "lastCacheHistoryDuration"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code lastCacheHistoryDuration} property.
+   * @see #getLastCacheHistoryDuration
+   * @see #setLastCacheHistoryDuration
+   */
+  public static final Property lastCacheHistoryDuration = newProperty(Flags.READONLY, BRelTime.DEFAULT, null);
+  
+  /**
+   * Get the {@code lastCacheHistoryDuration} property.
+   * @see #lastCacheHistoryDuration
+   */
+  public BRelTime getLastCacheHistoryDuration() { return (BRelTime)get(lastCacheHistoryDuration); }
+  
+  /**
+   * Set the {@code lastCacheHistoryDuration} property.
+   * @see #lastCacheHistoryDuration
+   */
+  public void setLastCacheHistoryDuration(BRelTime v) { set(lastCacheHistoryDuration, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "lastCacheTagIndexDuration"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code lastCacheTagIndexDuration} property.
+   * @see #getLastCacheTagIndexDuration
+   * @see #setLastCacheTagIndexDuration
+   */
+  public static final Property lastCacheTagIndexDuration = newProperty(Flags.READONLY, BRelTime.DEFAULT, null);
+  
+  /**
+   * Get the {@code lastCacheTagIndexDuration} property.
+   * @see #lastCacheTagIndexDuration
+   */
+  public BRelTime getLastCacheTagIndexDuration() { return (BRelTime)get(lastCacheTagIndexDuration); }
+  
+  /**
+   * Set the {@code lastCacheTagIndexDuration} property.
+   * @see #lastCacheTagIndexDuration
+   */
+  public void setLastCacheTagIndexDuration(BRelTime v) { set(lastCacheTagIndexDuration, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "hisCacheHits"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code hisCacheHits} property.
+   * @see #getHisCacheHits
+   * @see #setHisCacheHits
+   */
+  public static final Property hisCacheHits = newProperty(Flags.READONLY | Flags.TRANSIENT, 0L, null);
+  
+  /**
+   * Get the {@code hisCacheHits} property.
+   * @see #hisCacheHits
+   */
+  public long getHisCacheHits() { return getLong(hisCacheHits); }
+  
+  /**
+   * Set the {@code hisCacheHits} property.
+   * @see #hisCacheHits
+   */
+  public void setHisCacheHits(long v) { setLong(hisCacheHits, v, null); }
+
+////////////////////////////////////////////////////////////////
+// Property "hisCacheMisses"
+////////////////////////////////////////////////////////////////
+  
+  /**
+   * Slot for the {@code hisCacheMisses} property.
+   * @see #getHisCacheMisses
+   * @see #setHisCacheMisses
+   */
+  public static final Property hisCacheMisses = newProperty(Flags.READONLY | Flags.TRANSIENT, 0L, null);
+  
+  /**
+   * Get the {@code hisCacheMisses} property.
+   * @see #hisCacheMisses
+   */
+  public long getHisCacheMisses() { return getLong(hisCacheMisses); }
+  
+  /**
+   * Set the {@code hisCacheMisses} property.
+   * @see #hisCacheMisses
+   */
+  public void setHisCacheMisses(long v) { setLong(hisCacheMisses, v, null); }
+
 ////////////////////////////////////////////////////////////////
 // Type
 ////////////////////////////////////////////////////////////////
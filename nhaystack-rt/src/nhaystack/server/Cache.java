@@ -1,642 +1,1669 @@
-//
-// Copyright (c) 2012, J2 Innovations
-// Licensed under the Academic Free License version 3.0
-//
-// History:
-//   29 Mar 2013  Mike Jarmy       Creation
-//   09 May 2018  Eric Anderson    Added use of generics
-//   26 Sep 2018  Andrew Saunders  Added shared constants for siteRef and equipRef tag names
-//   21 Dec 2018  Andrew Saunders  Allowing plain components to be used as sites and equips
-//   13 Mar 2019  Andrew Saunders  Added spy
-//
-package nhaystack.server;
-
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Optional;
-import java.util.Stack;
-import java.util.TreeMap;
-import java.util.logging.Logger;
-import javax.baja.control.BControlPoint;
-import javax.baja.history.BHistoryConfig;
-import javax.baja.history.BHistoryId;
-import javax.baja.history.BIHistory;
-import javax.baja.naming.BOrd;
-import javax.baja.schedule.BWeeklySchedule;
-import javax.baja.spy.SpyWriter;
-import javax.baja.sys.BAbsTime;
-import javax.baja.sys.BComponent;
-import javax.baja.sys.BRelTime;
-import javax.baja.sys.BajaRuntimeException;
-import javax.baja.sys.Clock;
-import javax.baja.sys.Context;
-import javax.baja.sys.Property;
-import javax.baja.sys.SlotCursor;
-import javax.baja.sys.Sys;
-import javax.baja.tag.Relation;
-import javax.baja.tag.Relations;
-
-import nhaystack.BHDict;
-import nhaystack.NHRef;
-import nhaystack.collection.ComponentTreeIterator;
-import nhaystack.collection.HistoryDbIterator;
-import nhaystack.site.BHEquip;
-import nhaystack.site.BHSite;
-import nhaystack.site.BHTagged;
-import nhaystack.util.NHaystackConst;
-import org.projecthaystack.HDict;
-import org.projecthaystack.HRef;
-
-/**
-  * Cache stores various data structures that make it faster to look things up.
-  */
-class Cache implements NHaystackConst
-{
-    Cache(NHServer server, ScheduleManager schedMgr)
-    {
-        this.server = server;
-        this.schedMgr = schedMgr;
-    }
-
-    /**
-      * Rebuild the cache.
-      */
-    synchronized void rebuild(BNHaystackStats stats)
-    {
-        Thread thread = Thread.currentThread();
-        Context cx = ThreadContext.getContext(thread);
-
-        // rebuildCache runs 'permission-less', so lets remove the
-        // current context and then put it back in when we are done
-        if (cx != null) ThreadContext.removeContext(thread);
-
-        try
-        {
-            long t0 = Clock.ticks();
-            LOG.info("Begin cache rebuild.");
-
-            LOG.fine("Rebuild cache: step 1 of 5...");
-            rebuildComponentCache_firstPass();
-
-            LOG.fine("Rebuild cache: step 2 of 5...");
-            rebuildComponentCache_secondPass();
-
-            LOG.fine("Rebuild cache: step 3 of 5...");
-            rebuildHistoryCache_firstPass();
-
-            LOG.fine("Rebuild cache: step 4 of 5...");
-            rebuildHistoryCache_secondPass();
-            initialized = true;
-
-            LOG.fine("Rebuild cache: step 5 of 5...");
-            schedMgr.makePointEvents(scheduledPoints.toArray(EMPTY_COMPONENT_ARRAY));
-
-            lastRebuildTime = BAbsTime.now();
-            long t1 = Clock.ticks();
-            LOG.fine("End cache rebuild " + (t1-t0) + "ms.");
-            lastRebuildDuration = BRelTime.make(t1-t0);
-
-            stats.setNumSites(sites.size());
-            stats.setNumEquips(equips.size());
-            stats.setNumPoints(numPoints);
-            stats.setLastCacheRebuildDuration(lastRebuildDuration);
-            stats.setLastCacheRebuildTime(lastRebuildTime);
-        }
-        finally
-        {
-            if (cx != null) ThreadContext.putContext(thread, cx);
-        }
-    }
-
-    /**
-      * Get the history config that goes with the remote point, or return null.
-      */
-    synchronized BHistoryConfig getHistoryConfig(RemotePoint remotePoint)
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-        return remoteToConfig.get(remotePoint);
-    }
-
-    /**
-      * Get the control point that goes with the remote point, or return null.
-      */
-    synchronized BControlPoint getControlPoint(RemotePoint remotePoint)
-    {
-        // skip this check, since this method gets called during
-        // rebuildHistoryCache_secondPass()
-        //
-        //if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-
-        return remoteToPoint.get(remotePoint);
-    }
-
-    /**
-      * Return the implicit 'equip' for the point, or null.
-      */
-    synchronized BComponent getImplicitEquip(BComponent point)
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-        return implicitEquips.get(point);
-    }
-
-    synchronized BComponent[] getAllSites()
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-        return sites.toArray(EMPTY_COMPONENT_ARRAY);
-    }
-
-    synchronized BComponent[] getAllEquips()
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-        return equips.toArray(EMPTY_COMPONENT_ARRAY);
-    }
-
-    /**
-      * Get all the equips associated with the given site navId.
-      */
-    synchronized BComponent[] getNavSiteEquips(String siteNav)
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-
-        Collection<BComponent> arr = siteEquips.get(siteNavs.get(siteNav));
-        return arr == null ? EMPTY_COMPONENT_ARRAY : arr.toArray(EMPTY_COMPONENT_ARRAY);
-    }
-
-    /**
-      * Get all the points associated with the given equip navId.
-      */
-    synchronized BComponent[] getNavEquipPoints(String equipNav)
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-        return getEquipPoints(equipNavs.get(equipNav));
-    }
-
-    /**
-      * Get all the points associated with the given equip.
-      */
-    synchronized BComponent[] getEquipPoints(BComponent equip)
-    {
-        Collection<BComponent> arr = equipPoints.get(equip);
-        return arr == null ? EMPTY_COMPONENT_ARRAY : arr.toArray(EMPTY_COMPONENT_ARRAY);
-    }
-
-    /**
-      * Get the stationNames for nav histories
-      */
-    synchronized String[] getNavHistoryStationNames()
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-        return navHistories.keySet().toArray(EMPTY_STRING_ARRAY);
-    }
-
-    /**
-      * Get the nav histories for the given stationName
-      */
-    synchronized BHistoryConfig[] getNavHistories(String stationName)
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-
-        Collection<BHistoryConfig> arr = navHistories.get(stationName);
-
-        if (arr == null) 
-            throw new BajaRuntimeException(
-                "No nav histories found for '" + stationName + '\'');
-
-        return arr.toArray(EMPTY_HISTORY_CONFIG_ARRAY);
-    }
-
-    /**
-      * Return the BComponent that is associate with the SepRef id, or null.
-      */
-    synchronized BComponent lookupComponentBySepRef(NHRef id)
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-        return sepRefToComp.get(id);
-    }
-
-    /**
-      * Return the SepRef id that is associate with the component, or null.
-      */
-    synchronized NHRef lookupSepRefByComponent(BComponent comp)
-    {
-        if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
-        return compToSepRef.get(comp);
-    }
-
-////////////////////////////////////////////////////////////////
-// private -- component space
-////////////////////////////////////////////////////////////////
-
-    /**
-      * rebuildComponentCache_firstPass
-      */
-    private void rebuildComponentCache_firstPass()
-    {
-        remoteToPoint  = new HashMap<>();
-        implicitEquips = new HashMap<>();
-        siteNavs  = new HashMap<>();
-        equipNavs = new HashMap<>();
-        siteEquips  = new HashMap<>();
-        equipPoints = new HashMap<>();
-        sepRefToComp = new HashMap<>();
-        compToSepRef = new HashMap<>();
-        scheduledPoints = new ArrayList<>();
-
-        sites = new ArrayList<>();
-        equips = new ArrayList<>();
-        Stack<ImplicitEquip> implicitEquipStack = new Stack<>();
-        numPoints = 0;
-
-        ComponentTreeIterator iterator = new ComponentTreeIterator(
-            (BComponent) BOrd.make("slot:/").resolve(server.getService(), null).get());
-
-        while (iterator.hasNext())
-        {
-            BComponent comp = iterator.next();
-
-            // push implicit equip 
-            SlotCursor<Property> cursor = comp.getProperties();
-            if (cursor.next(BHEquip.class))
-            {
-                implicitEquipStack.push(
-                    new ImplicitEquip(
-                        (BHEquip) cursor.get(),
-                        iterator.getStackDepth()));
-            }
-            // pop implicit equip once it goes out of scope
-            else
-            {
-                if (!implicitEquipStack.isEmpty())
-                {
-                    ImplicitEquip ie = implicitEquipStack.peek();
-                    if (iterator.getStackDepth() <= ie.depth)
-                        implicitEquipStack.pop();
-                }
-            }
-
-            // get cur implicit
-            BHEquip curImplicitEquip = implicitEquipStack.isEmpty() ?
-                null : implicitEquipStack.peek().equip;
-
-            processComponent(comp, curImplicitEquip);
-        }
-    }
-
-    /**
-      * ImplicitEquip
-      */
-    static class ImplicitEquip
-    {
-        ImplicitEquip(BHEquip equip, int depth) 
-        {
-            this.equip = equip;
-            this.depth = depth;
-        }
-
-        final BHEquip equip;
-        final int depth;
-    }
-
-    /**
-      * processComponent
-      */
-    private void processComponent(BComponent comp, BComponent curImplicitEquip)
-    {
-        HDict tags = BHDict.findTagAnnotation(comp);
-        if (tags == null) tags = HDict.EMPTY;
-
-        if (comp instanceof BControlPoint)
-        {
-            // point
-            BControlPoint point = (BControlPoint) comp;
-            numPoints++;
-
-            if (tags.has("weeklySchedule") && tags.has("schedulable"))
-                scheduledPoints.add(point);
-
-            // save remote point 
-            RemotePoint remote = RemotePoint.fromControlPoint(point);
-            if (remote != null) remoteToPoint.put(remote, point);
-
-            handleEquip(point, tags, curImplicitEquip);
-        }
-        else if (comp instanceof BWeeklySchedule)
-        {
-            // schedule
-            BWeeklySchedule sched = (BWeeklySchedule) comp;
-            numPoints++;
-
-            handleEquip(sched, tags, curImplicitEquip);
-        }
-        else if (comp instanceof BHTagged)
-        {
-            // auto-tagged site and equip
-            if (comp instanceof BHSite)
-            {
-                sites.add(comp);
-                siteNavs.put(
-                    Nav.makeSiteNavId(Nav.makeNavName(comp, tags)),
-                    comp);
-            }
-            else if (comp instanceof BHEquip)
-            {
-                equips.add(comp);
-                processEquip(comp);
-            }
-        }
-        else if(comp.tags().contains(ID_SITE))
-        {
-            sites.add(comp);
-            siteNavs.put(Nav.makeSiteNavId(Nav.makeNavName(comp, tags)), comp);
-        }
-        else if (comp.tags().contains(ID_EQUIP))
-        {
-            equips.add(comp);
-            processEquip(comp);
-        }
-    }
-
-    private void handleEquip(BComponent component, HDict tags, BComponent curImplicitEquip)
-    {
-        // explicit equip
-        Optional<Relation> optRelation = component.relations().get(ID_EQUIP_REF, Relations.OUT);
-        if (tags.has(EQUIP_REF))
-        {
-            HRef ref = tags.getRef(EQUIP_REF);
-            BComponent equip = server.getTagManager().lookupComponent(ref);
-            addPointToEquip(equip, component);
-        }
-        else if (optRelation.isPresent())
-        {
-            BComponent equip = (BComponent)optRelation.get().getEndpoint();
-            addPointToEquip(equip, component);
-        }
-        else
-        {
-            // implicit equip
-            if (curImplicitEquip != null)
-            {
-                addPointToEquip(curImplicitEquip, component);
-                implicitEquips.put(component, curImplicitEquip);
-            }
-        }
-    }
-
-    /**
-      * addPointToEquip
-      */
-    private void addPointToEquip(BComponent equip, BComponent point)
-    {
-        equipPoints.computeIfAbsent(equip, k -> new ArrayList<>()).add(point);
-    }
-
-    /**
-      * addEquipToSite
-      */
-    private void addEquipToSite(BComponent site, BComponent equip)
-    {
-        siteEquips.computeIfAbsent(site, k -> new ArrayList<>()).add(equip);
-    }
-
-    /**
-      * processEquip
-      */
-    private void processEquip(BComponent equip)
-    {
-        HDict equipTags = BHDict.findTagAnnotation(equip);
-        if (equipTags == null)
-        {
-            equipTags = HDict.EMPTY;
-        }
-
-        BComponent site = null;
-        if (equipTags.has(SITE_REF))
-        {
-            HRef ref = equipTags.getRef(SITE_REF);
-            site = server.getTagManager().lookupComponent(ref);
-        }
-        else  //check for niagara "hs:siteRef" relation to initialize site.
-        {
-            Optional<Relation> optRelation = equip.relations().get(ID_SITE_REF);
-            if (optRelation.isPresent())
-            {
-                site = (BComponent)optRelation.get().getEndpoint();
-            }
-        }
-
-        if (site != null)
-        {
-            addEquipToSite(site, equip);
-
-            // save the equip nav
-            HDict siteTags = BHDict.findTagAnnotation(site);
-            if (siteTags == null)
-            {
-                siteTags = HDict.EMPTY;
-            }
-
-            equipNavs.put(
-                Nav.makeEquipNavId(
-                    Nav.makeNavName(site, siteTags),
-                    Nav.makeNavName(equip, equipTags)),
-                equip);
-        }
-    }
-
-    /**
-      * rebuildComponentCache_secondPass
-      */
-    private void rebuildComponentCache_secondPass()
-    {
-        for (BComponent site : sites)
-        {
-            // make ref for site
-            HDict siteTags = site instanceof BHSite ? ((BHSite)site).getHaystack().getDict() : HDict.EMPTY;
-            String siteNav = Nav.makeNavName(site, siteTags);
-            NHRef siteRef = TagManager.makeSepRef(new String[] { siteNav });
-
-            // save bi-directional lookup for site
-            sepRefToComp.put(siteRef, site);
-            compToSepRef.put(site, siteRef);
-
-            // iterate through equips for site
-            for (BComponent equip : siteEquips.getOrDefault(site, Collections.emptyList()))
-            {
-                // make ref for equip
-                HDict equipTags = equip instanceof BHEquip ? ((BHEquip)equip).getHaystack().getDict() : HDict.EMPTY;
-                String equipNav = Nav.makeNavName(equip, equipTags);
-                NHRef equipRef = TagManager.makeSepRef(new String[] { siteNav, equipNav });
-
-                // save bi-directional lookup for equip
-                sepRefToComp.put(equipRef, equip);
-                compToSepRef.put(equip, equipRef);
-
-                // iterate through points for equip
-                for (BComponent point : equipPoints.getOrDefault(equip, Collections.emptyList()))
-                {
-                    // make ref for point
-                    HDict pointTags = BHDict.findTagAnnotation(point);
-                    if (pointTags == null) pointTags = HDict.EMPTY;
-                    String pointNav = Nav.makeNavName(point, pointTags);
-                    NHRef pointRef = TagManager.makeSepRef(new String[] { siteNav, equipNav, pointNav });
-
-                    // save bi-directional lookup for point
-                    sepRefToComp.put(pointRef, point);
-                    compToSepRef.put(point, pointRef);
-                }
-            }
-        }
-    }
-
-////////////////////////////////////////////////////////////////
-// private -- history space
-////////////////////////////////////////////////////////////////
-
-    /**
-      * rebuildHistoryCache_firstPass
-      */
-    private void rebuildHistoryCache_firstPass()
-    {
-        remoteToConfig = new HashMap<>();
-        navHistories = new TreeMap<>();
-
-        BIHistory[] histories = server.getService().getHistoryDb().getHistories();
-        for (BIHistory h : histories)
-        {
-            BHistoryId hid = h.getId();
-
-            // ignore local histories
-            if (hid.getDeviceName().equals(Sys.getStation().getStationName()))
-                continue;
-
-            BHistoryConfig cfg = h.getConfig();
-            RemotePoint remotePoint = RemotePoint.fromHistoryConfig(cfg);
-            if (remotePoint != null)
-                remoteToConfig.put(remotePoint, cfg);
-        }
-    }
-
-    /**
-      * rebuildHistoryCache_secondPass
-      */
-    private void rebuildHistoryCache_secondPass()
-    {
-        Iterator<BHistoryConfig> itr = new HistoryDbIterator(server.getService().getHistoryDb());
-        while (itr.hasNext())
-        {
-            BHistoryConfig cfg = itr.next();
-
-            if (server.getSpaceManager().isVisibleHistory(cfg))
-            {
-                String stationName = cfg.getId().getDeviceName();
-                navHistories.computeIfAbsent(stationName, k -> new ArrayList<>()).add(cfg);
-            }
-        }
-    }
-
-////////////////////////////////////////////////////////////////
-// spy
-////////////////////////////////////////////////////////////////
-
-    public void spy(SpyWriter out) throws Exception {
-        out.startProps();
-        out.trTitle("Cache SiteNavs", 2);
-        for (Map.Entry<String, BComponent> siteNav : siteNavs.entrySet())
-        {
-            out.prop(siteNav.getKey(), siteNav.getValue().getSlotPath());
-        }
-        out.endProps();
-
-        out.startProps();
-        out.trTitle("Cache EquipNavs", 2);
-        for (Map.Entry<String, BComponent> nav : equipNavs.entrySet())
-        {
-            out.prop(nav.getKey(), nav.getValue().getSlotPath());
-        }
-        out.endProps();
-
-        out.startProps();
-        out.trTitle("Cache ImplicitEquips", 2);
-        for (Map.Entry<BComponent, BComponent> nav : implicitEquips.entrySet())
-        {
-            out.prop(nav.getKey().getSlotPath(), nav.getValue().getSlotPath());
-        }
-        out.endProps();
-
-        out.startProps();
-        out.trTitle("Cache SiteEquips", 2);
-        for (Map.Entry<BComponent, Collection<BComponent>> nav : siteEquips.entrySet())
-        {
-            String site = nav.getKey().getSlotPath().toString();
-            for (BComponent component : nav.getValue())
-            {
-                out.prop(site, component.getSlotPath());
-                site = "";
-            }
-        }
-        out.endProps();
-
-        out.startProps();
-        out.trTitle("Cache EquipPoints", 2);
-        for (Map.Entry<BComponent, Collection<BComponent>> nav : equipPoints.entrySet())
-        {
-            String equip = nav.getKey().getSlotPath().toString();
-            for (BComponent component : nav.getValue())
-            {
-                out.prop(equip, component.getSlotPath());
-                equip = "";
-            }
-        }
-        out.endProps();
-    }
-
-
-////////////////////////////////////////////////////////////////
-// access
-////////////////////////////////////////////////////////////////
-
-    boolean initialized() { return initialized; }
-
-////////////////////////////////////////////////////////////////
-// attribs
-////////////////////////////////////////////////////////////////
-
-    static final String NOT_INITIALIZED = 
-        "NHAYSTACK CACHE NOT INITIALIZED";
-
-    private static final BComponent[] EMPTY_COMPONENT_ARRAY = new BComponent[0];
-    private static final String[] EMPTY_STRING_ARRAY = new String[0];
-    private static final BHistoryConfig[] EMPTY_HISTORY_CONFIG_ARRAY = new BHistoryConfig[0];
-
-    private static final Logger LOG = Logger.getLogger("nhaystack");
-
-    private final NHServer server;
-    private final ScheduleManager schedMgr;
-    private boolean initialized;
-
-    private Map<RemotePoint, BHistoryConfig> remoteToConfig;
-    private Map<RemotePoint, BControlPoint> remoteToPoint;
-    private Map<String, Collection<BHistoryConfig>> navHistories;
-
-    private Collection<BComponent> sites = Collections.emptyList();
-    private Collection<BComponent> equips = Collections.emptyList();
-
-    private Map<BComponent, BComponent> implicitEquips;
-    private Map<String, BComponent> siteNavs;
-    private Map<String, BComponent> equipNavs;
-    private Map<BComponent, Collection<BComponent>> siteEquips;
-    private Map<BComponent, Collection<BComponent>> equipPoints;
-
-    private Map<NHRef, BComponent> sepRefToComp;
-    private Map<BComponent, NHRef> compToSepRef;
-
-    private Collection<BComponent> scheduledPoints;
-
-    private int numPoints;
-    private BRelTime lastRebuildDuration = BRelTime.DEFAULT;
-    private BAbsTime lastRebuildTime = BAbsTime.DEFAULT;
-}
+//
+// Copyright (c) 2012, J2 Innovations
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   29 Mar 2013  Mike Jarmy       Creation
+//   09 May 2018  Eric Anderson    Added use of generics
+//   26 Sep 2018  Andrew Saunders  Added shared constants for siteRef and equipRef tag names
+//   21 Dec 2018  Andrew Saunders  Allowing plain components to be used as sites and equips
+//   13 Mar 2019  Andrew Saunders  Added spy
+//
+package nhaystack.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.control.BControlPoint;
+import javax.baja.file.FilePath;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BIHistory;
+import javax.baja.history.HistorySpaceConnection;
+import javax.baja.naming.BOrd;
+import javax.baja.schedule.BWeeklySchedule;
+import javax.baja.spy.SpyWriter;
+import javax.baja.sys.BAbsTime;
+import javax.baja.sys.BComponent;
+import javax.baja.sys.BRelTime;
+import javax.baja.sys.BajaRuntimeException;
+import javax.baja.sys.Clock;
+import javax.baja.sys.Context;
+import javax.baja.sys.Property;
+import javax.baja.sys.SlotCursor;
+import javax.baja.sys.Sys;
+import javax.baja.tag.Relation;
+import javax.baja.tag.Relations;
+
+import nhaystack.BHDict;
+import nhaystack.NHRef;
+import nhaystack.collection.ComponentTreeIterator;
+import nhaystack.collection.HistoryDbIterator;
+import nhaystack.site.BHEquip;
+import nhaystack.site.BHSite;
+import nhaystack.site.BHTagged;
+import nhaystack.util.NHaystackConst;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HRef;
+
+/**
+  * Cache stores various data structures that make it faster to look things up.
+  * <p>
+  * The data structures are kept in an immutable Snapshot.  Readers never
+  * lock: they use whichever snapshot was most recently published.
+  */
+class Cache implements NHaystackConst
+{
+    Cache(NHServer server, ScheduleManager schedMgr)
+    {
+        this.server = server;
+        this.schedMgr = schedMgr;
+        this.updater = new CacheUpdater(this);
+    }
+
+    /**
+      * Rebuild the cache.  The new snapshot is built off to the side,
+      * so readers keep using the previous one until it is published.
+      */
+    void rebuild(BNHaystackStats stats)
+    {
+        synchronized (writeLock)
+        {
+            Thread thread = Thread.currentThread();
+            Context cx = ThreadContext.getContext(thread);
+
+            // rebuildCache runs 'permission-less', so lets remove the
+            // current context and then put it back in when we are done
+            if (cx != null) ThreadContext.removeContext(thread);
+
+            try
+            {
+                this.stats = stats;
+
+                long t0 = Clock.ticks();
+                LOG.info("Begin cache rebuild.");
+
+                work = new Snapshot();
+                writer = thread;
+
+                // The history passes run alongside the component passes, and
+                // fill in a snapshot of their own.  The second history pass
+                // hides linked histories, so it needs remoteToPoint from the
+                // first component pass.
+                Snapshot his = new Snapshot();
+
+                LOG.fine("Rebuild cache: steps 1 and 3 of 6...");
+                ForkJoinTask<Long> hisPass = pool.submit(() -> timed(() -> rebuildHistoryCache_firstPass(his)));
+                long componentTicks = timed(this::rebuildComponentCache_firstPass);
+                long hisTicks = hisPass.join();
+
+                LOG.fine("Rebuild cache: steps 2 and 4 of 6...");
+                hisPass = pool.submit(() -> timed(() -> rebuildHistoryCache_secondPass(his)));
+                long sepRefTicks = timed(this::rebuildComponentCache_secondPass);
+                hisTicks += hisPass.join();
+
+                work.addAll(his);
+                work.initialized = true;
+
+                LOG.fine("Rebuild cache: step 5 of 6...");
+                long tagIndexTicks = timed(this::rebuildTagIndex);
+
+                LOG.fine("Rebuild cache: step 6 of 6...");
+                schedMgr.makePointEvents(work.scheduledPoints.toArray(EMPTY_COMPONENT_ARRAY));
+
+                publish();
+                save();
+
+                lastRebuildTime = BAbsTime.now();
+                long t1 = Clock.ticks();
+                LOG.fine("End cache rebuild " + (t1-t0) + "ms.");
+                lastRebuildDuration = BRelTime.make(t1-t0);
+
+                stats.setLastCacheRebuildDuration(lastRebuildDuration);
+                stats.setLastCacheRebuildTime(lastRebuildTime);
+                stats.setLastCacheComponentDuration(BRelTime.make(componentTicks));
+                stats.setLastCacheSepRefDuration(BRelTime.make(sepRefTicks));
+                stats.setLastCacheHistoryDuration(BRelTime.make(hisTicks));
+                stats.setLastCacheTagIndexDuration(BRelTime.make(tagIndexTicks));
+            }
+            finally
+            {
+                work = null;
+                writer = null;
+                if (cx != null) ThreadContext.putContext(thread, cx);
+            }
+        }
+    }
+
+    /**
+      * Load the snapshot that was saved by the last rebuild or shutdown.
+      * Return false if there isn't one, or if it does not match the station
+      * any more.  The loaded snapshot is not indexed, and may be out of date,
+      * so the cache must still be rebuilt afterwards.
+      */
+    boolean load(BNHaystackStats stats)
+    {
+        synchronized (writeLock)
+        {
+            if (current.initialized) return false;
+
+            Thread thread = Thread.currentThread();
+            Context cx = ThreadContext.getContext(thread);
+            if (cx != null) ThreadContext.removeContext(thread);
+
+            try
+            {
+                this.stats = stats;
+                long t0 = Clock.ticks();
+
+                Snapshot snapshot = store.load(server.getService().getHistoryDb());
+                if (snapshot == null) return false;
+
+                snapshot.initialized = true;
+                work = snapshot;
+                writer = thread;
+
+                schedMgr.makePointEvents(work.scheduledPoints.toArray(EMPTY_COMPONENT_ARRAY));
+                publish();
+
+                LOG.info("Loaded saved cache " + (Clock.ticks()-t0) + "ms.");
+                return true;
+            }
+            catch (Exception e)
+            {
+                LOG.log(Level.WARNING, "Cannot load saved cache", e);
+                return false;
+            }
+            finally
+            {
+                work = null;
+                writer = null;
+                if (cx != null) ThreadContext.putContext(thread, cx);
+            }
+        }
+    }
+
+    /**
+      * Patch the cache for components which have been added, removed,
+      * renamed or re-tagged, and for histories which have been created
+      * or deleted.  Each component stands for its whole subtree.
+      * <p>
+      * Only the components themselves are processed again.  A site or
+      * equip is only touched when a point or equip joins or leaves it,
+      * and the records below a site or equip are only touched when its
+      * sep ref changes.
+      * <p>
+      * The patch is applied to a copy of the current snapshot, which is
+      * then published.  The copy shares its maps and its tag index with
+      * the current snapshot, so the patch costs about as much as the
+      * changes it makes.
+      */
+    void update(Collection<BComponent> comps, Collection<BHistoryId> historyIds)
+    {
+        synchronized (writeLock)
+        {
+            // a loaded snapshot has no tag index, and must be rebuilt first
+            if (!current.initialized || current.tagIndex == null) return;
+
+            try
+            {
+                long t0 = Clock.ticks();
+
+                work = new Snapshot(current);
+                writer = Thread.currentThread();
+
+                // the records whose tags might be different now
+                Set<BComponent> changed = new HashSet<>();
+                Removed removed = new Removed();
+                Collection<BComponent> roots = topmost(comps);
+
+                for (BComponent root : roots)
+                {
+                    ComponentTreeIterator iterator = new ComponentTreeIterator(root);
+                    while (iterator.hasNext())
+                    {
+                        BComponent comp = iterator.next();
+                        removeComponent(comp, removed);
+                        changed.add(comp);
+                        updater.unsubscribe(comp);
+                    }
+                }
+
+                List<BComponent> added = new ArrayList<>();
+                for (BComponent root : roots)
+                {
+                    if (root.isMounted())
+                        processTree(work, root, findImplicitEquip(root.getParentComponent()), added);
+                }
+                changed.addAll(added);
+
+                // the records outside of the subtrees whose site or equip has changed
+                Set<BComponent> moved = new HashSet<>();
+                detachComponents(removed, moved);
+                attachOrphans(added, moved);
+
+                // and their sep refs, along with those of the subtrees
+                moved.addAll(changed);
+                refreshSepRefs(moved, changed);
+
+                for (BHistoryId id : historyIds)
+                    updateHistory(id);
+
+                reindex(changed);
+
+                // the point events need the new sep refs
+                List<BComponent> newScheduled = new ArrayList<>();
+                for (BComponent comp : added)
+                {
+                    if (work.scheduledPoints.contains(comp))
+                        newScheduled.add(comp);
+                }
+                schedMgr.makePointEvents(newScheduled.toArray(EMPTY_COMPONENT_ARRAY));
+
+                publish();
+
+                if (LOG.isLoggable(Level.FINE))
+                    LOG.fine("Cache update: " + roots.size() + " components, " +
+                        historyIds.size() + " histories, " + (Clock.ticks()-t0) + "ms.");
+            }
+            finally
+            {
+                work = null;
+                writer = null;
+            }
+        }
+    }
+
+    /**
+      * Queue a component whose subtree must be processed again.  This is
+      * for changes that are not seen by the CacheUpdater, e.g. tags that
+      * are applied to points.
+      */
+    void componentChanged(BComponent comp)
+    {
+        server.getTagManager().invalidateTags(comp);
+        updater.componentChanged(comp);
+    }
+
+    /**
+      * Return the generation of the published snapshot, which goes up every
+      * time the cache is rebuilt or updated.  The threads which are making
+      * a new snapshot get -1, since what they see has not been published.
+      */
+    long generation()
+    {
+        Snapshot s = snap();
+        return s == current ? s.generation : -1;
+    }
+
+    /**
+      * Get the history config that goes with the remote point, or return null.
+      */
+    BHistoryConfig getHistoryConfig(RemotePoint remotePoint)
+    {
+        Snapshot s = readable();
+        return s.remoteToConfig.get(remotePoint);
+    }
+
+    /**
+      * Get the control point that goes with the remote point, or return null.
+      */
+    BControlPoint getControlPoint(RemotePoint remotePoint)
+    {
+        // skip this check, since this method gets called during
+        // rebuildHistoryCache_secondPass()
+        //
+        //if (!initialized) throw new IllegalStateException(NOT_INITIALIZED);
+
+        return snap().remoteToPoint.get(remotePoint);
+    }
+
+    /**
+      * Return the implicit 'equip' for the point, or null.
+      */
+    BComponent getImplicitEquip(BComponent point)
+    {
+        Snapshot s = readable();
+        return s.implicitEquips.get(point);
+    }
+
+    BComponent[] getAllSites()
+    {
+        Snapshot s = readable();
+        return s.sites.toArray(EMPTY_COMPONENT_ARRAY);
+    }
+
+    BComponent[] getAllEquips()
+    {
+        Snapshot s = readable();
+        return s.equips.toArray(EMPTY_COMPONENT_ARRAY);
+    }
+
+    /**
+      * Get all the equips associated with the given site navId.
+      */
+    BComponent[] getNavSiteEquips(String siteNav)
+    {
+        Snapshot s = readable();
+
+        // the orphans are kept under null, so an unknown nav has no equips
+        BComponent site = s.siteNavs.get(siteNav);
+        Collection<BComponent> arr = site == null ? null : s.siteEquips.get(site);
+        return arr == null ? EMPTY_COMPONENT_ARRAY : arr.toArray(EMPTY_COMPONENT_ARRAY);
+    }
+
+    /**
+      * Get all the points associated with the given equip navId.
+      */
+    BComponent[] getNavEquipPoints(String equipNav)
+    {
+        Snapshot s = readable();
+
+        BComponent equip = s.equipNavs.get(equipNav);
+        Collection<BComponent> arr = equip == null ? null : s.equipPoints.get(equip);
+        return arr == null ? EMPTY_COMPONENT_ARRAY : arr.toArray(EMPTY_COMPONENT_ARRAY);
+    }
+
+    /**
+      * Get all the points associated with the given equip.
+      */
+    BComponent[] getEquipPoints(BComponent equip)
+    {
+        Collection<BComponent> arr = equip == null ? null : snap().equipPoints.get(equip);
+        return arr == null ? EMPTY_COMPONENT_ARRAY : arr.toArray(EMPTY_COMPONENT_ARRAY);
+    }
+
+    /**
+      * Get the stationNames for nav histories
+      */
+    String[] getNavHistoryStationNames()
+    {
+        Snapshot s = readable();
+        return s.navHistories.keySet().toArray(EMPTY_STRING_ARRAY);
+    }
+
+    /**
+      * Get the nav histories for the given stationName
+      */
+    BHistoryConfig[] getNavHistories(String stationName)
+    {
+        Snapshot s = readable();
+
+        Collection<BHistoryConfig> arr = s.navHistories.get(stationName);
+
+        if (arr == null) 
+            throw new BajaRuntimeException(
+                "No nav histories found for '" + stationName + '\'');
+
+        return arr.toArray(EMPTY_HISTORY_CONFIG_ARRAY);
+    }
+
+    /**
+      * Return the BComponent that is associate with the SepRef id, or null.
+      */
+    BComponent lookupComponentBySepRef(NHRef id)
+    {
+        Snapshot s = readable();
+        return s.sepRefToComp.get(id);
+    }
+
+    /**
+      * Return the SepRef id that is associate with the component, or null.
+      */
+    NHRef lookupSepRefByComponent(BComponent comp)
+    {
+        Snapshot s = readable();
+        return s.compToSepRef.get(comp);
+    }
+
+    /**
+      * Return the tag index, or null if it has not been built yet.
+      */
+    TagIndex getTagIndex()
+    {
+        return snap().tagIndex;
+    }
+
+    /**
+      * Stop listening for changes, shut down the rebuild threads,
+      * and save the cache.
+      */
+    void stop()
+    {
+        updater.stop();
+        pool.shutdownNow();
+
+        synchronized (writeLock)
+        {
+            save();
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// private -- snapshot
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return the snapshot to read from.  The thread that is rebuilding or
+      * updating the cache, and the rebuild pool's threads, see the work in
+      * progress, since creating the tags depends on it.  Every other thread
+      * sees the published snapshot.
+      */
+    private Snapshot snap()
+    {
+        Snapshot w = work;
+        if (w == null) return current;
+
+        Thread thread = Thread.currentThread();
+        if (thread == writer) return w;
+        if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool)
+            return w;
+
+        return current;
+    }
+
+    /**
+      * Return the snapshot for the lookups which need a complete one.
+      * The work in progress is only complete once the history and
+      * component passes are done, so until then the lookups go to the
+      * published snapshot.
+      *
+      * @throws IllegalStateException if no snapshot is complete yet.
+      */
+    private Snapshot readable()
+    {
+        Snapshot s = snap();
+        if (!s.initialized) s = current;
+        if (!s.initialized) throw new IllegalStateException(NOT_INITIALIZED);
+        return s;
+    }
+
+    private static ForkJoinWorkerThread newRebuildThread(ForkJoinPool pool)
+    {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("NHaystack:CacheRebuild-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    /**
+      * Run a step of the rebuild, and return how long it took.
+      */
+    private static long timed(Runnable step)
+    {
+        long t0 = Clock.ticks();
+        step.run();
+        return Clock.ticks() - t0;
+    }
+
+    /**
+      * Save the current snapshot, so that it can be loaded
+      * the next time the station starts.
+      */
+    private void save()
+    {
+        if (!current.initialized) return;
+
+        try
+        {
+            long t0 = Clock.ticks();
+            store.save(current);
+            LOG.fine("Saved cache " + (Clock.ticks()-t0) + "ms.");
+        }
+        catch (Exception e)
+        {
+            LOG.log(Level.WARNING, "Cannot save cache", e);
+        }
+    }
+
+    /**
+      * Publish the work in progress.
+      */
+    private void publish()
+    {
+        work.freeze();
+        work.generation = current.generation + 1;
+        current = work;
+        updateCounts();
+    }
+
+    /**
+      * Snapshot holds the data structures of the cache.  Once a snapshot
+      * has been published it is never modified.
+      * <p>
+      * The next update starts from a copy, which shares the contents of
+      * the published snapshot instead of copying them: the maps and sets
+      * are SharedMaps and SharedSets, the tag index is edited from the
+      * published view of it, and a set in one of the maps is copied the
+      * first time the copy changes it.
+      * <p>
+      * The equips of a site, and the points of an equip, are kept in the
+      * order they were added.  Equips with no site, and points whose equip
+      * cannot be found, are kept under null.
+      */
+    static final class Snapshot
+    {
+        Snapshot()
+        {
+            remoteToConfig = new SharedMap<>();
+            historyRemotes = new SharedMap<>();
+            remoteToPoint = new SharedMap<>();
+            navHistories = new TreeMap<>();
+
+            sites = new SharedSet<>();
+            equips = new SharedSet<>();
+            points = new SharedSet<>();
+
+            implicitEquips = new SharedMap<>();
+            siteNavs = new SharedMap<>();
+            siteNavIds = new SharedMap<>();
+            equipNavs = new SharedMap<>();
+            equipNavIds = new SharedMap<>();
+            siteEquips = new SharedMap<>();
+            equipPoints = new SharedMap<>();
+            equipSites = new SharedMap<>();
+            pointEquips = new SharedMap<>();
+
+            sepRefToComp = new SharedMap<>();
+            compToSepRef = new SharedMap<>();
+
+            scheduledPoints = new SharedSet<>();
+        }
+
+        /**
+          * Make a copy of the given snapshot, which shares its contents.
+          * The given snapshot must not be changed afterwards.
+          */
+        Snapshot(Snapshot that)
+        {
+            initialized = that.initialized;
+            tagIndex = that.tagIndex == null ? null : that.tagIndex.edit();
+
+            remoteToConfig = that.remoteToConfig.copy();
+            historyRemotes = that.historyRemotes.copy();
+            remoteToPoint = that.remoteToPoint.copy();
+            navHistories = new TreeMap<>(that.navHistories);
+
+            sites = that.sites.copy();
+            equips = that.equips.copy();
+            points = that.points.copy();
+
+            implicitEquips = that.implicitEquips.copy();
+            siteNavs = that.siteNavs.copy();
+            siteNavIds = that.siteNavIds.copy();
+            equipNavs = that.equipNavs.copy();
+            equipNavIds = that.equipNavIds.copy();
+            siteEquips = that.siteEquips.copy();
+            equipPoints = that.equipPoints.copy();
+            equipSites = that.equipSites.copy();
+            pointEquips = that.pointEquips.copy();
+
+            sepRefToComp = that.sepRefToComp.copy();
+            compToSepRef = that.compToSepRef.copy();
+
+            scheduledPoints = that.scheduledPoints.copy();
+        }
+
+        /**
+          * Add the contents of another snapshot to this one.  Sets are
+          * added to, and the other snapshot wins for any key which is
+          * in both.  Adding snapshots in tree order gives the same result
+          * as building a single snapshot from a walk of the whole tree.
+          */
+        void addAll(Snapshot that)
+        {
+            remoteToConfig.putAll(that.remoteToConfig);
+            historyRemotes.putAll(that.historyRemotes);
+            remoteToPoint.putAll(that.remoteToPoint);
+            addAll(navHistories, that.navHistories);
+
+            sites.addAll(that.sites);
+            equips.addAll(that.equips);
+            points.addAll(that.points);
+
+            implicitEquips.putAll(that.implicitEquips);
+            siteNavs.putAll(that.siteNavs);
+            siteNavIds.putAll(that.siteNavIds);
+            equipNavs.putAll(that.equipNavs);
+            equipNavIds.putAll(that.equipNavIds);
+            addAll(siteEquips, that.siteEquips);
+            addAll(equipPoints, that.equipPoints);
+            equipSites.putAll(that.equipSites);
+            pointEquips.putAll(that.pointEquips);
+
+            sepRefToComp.putAll(that.sepRefToComp);
+            compToSepRef.putAll(that.compToSepRef);
+
+            scheduledPoints.addAll(that.scheduledPoints);
+        }
+
+        /**
+          * Return the set of the key, which this snapshot can change.
+          * A set that this snapshot did not make may be shared with
+          * another snapshot, so it is copied first.
+          */
+        <K, E> SharedSet<E> mutableSet(Map<K, SharedSet<E>> map, K key)
+        {
+            SharedSet<E> set = map.get(key);
+            if (set == null || !owned.contains(set))
+            {
+                set = set == null ? new SharedSet<>() : set.copy();
+                owned.add(set);
+                map.put(key, set);
+            }
+            return set;
+        }
+
+        /**
+          * Remove the value from the set of the key, and remove
+          * the key once its set is empty.
+          */
+        <K, E> void removeFrom(Map<K, SharedSet<E>> map, K key, E value)
+        {
+            SharedSet<E> set = map.get(key);
+            if (set == null || !set.contains(value)) return;
+
+            set = mutableSet(map, key);
+            set.remove(value);
+            if (set.isEmpty()) map.remove(key);
+        }
+
+        /**
+          * Set the nav id of a site, replacing the one that it had
+          * before.  A null nav id just removes the old one.
+          */
+        void setSiteNav(BComponent site, String nav)
+        {
+            setNav(siteNavs, siteNavIds, site, nav);
+        }
+
+        /**
+          * Set the nav id of an equip, replacing the one that it had
+          * before.  A null nav id just removes the old one.
+          */
+        void setEquipNav(BComponent equip, String nav)
+        {
+            setNav(equipNavs, equipNavIds, equip, nav);
+        }
+
+        /**
+          * Called when the snapshot is published.
+          */
+        void freeze()
+        {
+            owned = null;
+            if (tagIndex != null) tagIndex = tagIndex.view();
+        }
+
+        private <K, E> void addAll(Map<K, SharedSet<E>> to, Map<K, SharedSet<E>> from)
+        {
+            for (Map.Entry<K, SharedSet<E>> e : from.entrySet())
+                mutableSet(to, e.getKey()).addAll(e.getValue());
+        }
+
+        private static void setNav(Map<String, BComponent> navs, Map<BComponent, String> navIds, BComponent comp, String nav)
+        {
+            String old = nav == null ? navIds.remove(comp) : navIds.put(comp, nav);
+            if (old != null && !old.equals(nav)) navs.remove(old, comp);
+            if (nav != null) navs.put(nav, comp);
+        }
+
+        boolean initialized;
+        long generation;
+
+        final SharedMap<RemotePoint, BHistoryConfig> remoteToConfig;
+        final SharedMap<BHistoryId, RemotePoint> historyRemotes;
+        final SharedMap<RemotePoint, BControlPoint> remoteToPoint;
+        final Map<String, SharedSet<BHistoryConfig>> navHistories;
+
+        final SharedSet<BComponent> sites;
+        final SharedSet<BComponent> equips;
+        final SharedSet<BComponent> points;
+
+        final SharedMap<BComponent, BComponent> implicitEquips;
+        final SharedMap<String, BComponent> siteNavs;
+        final SharedMap<BComponent, String> siteNavIds;
+        final SharedMap<String, BComponent> equipNavs;
+        final SharedMap<BComponent, String> equipNavIds;
+        final SharedMap<BComponent, SharedSet<BComponent>> siteEquips;
+        final SharedMap<BComponent, SharedSet<BComponent>> equipPoints;
+        final SharedMap<BComponent, BComponent> equipSites;
+        final SharedMap<BComponent, BComponent> pointEquips;
+
+        final SharedMap<NHRef, BComponent> sepRefToComp;
+        final SharedMap<BComponent, NHRef> compToSepRef;
+
+        final SharedSet<BComponent> scheduledPoints;
+
+        TagIndex tagIndex;
+
+        /** the sets which this snapshot made, and so can change */
+        private Set<SharedSet<?>> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+////////////////////////////////////////////////////////////////
+// private -- component space
+////////////////////////////////////////////////////////////////
+
+    /**
+      * rebuildComponentCache_firstPass.  The tree is split into a task per
+      * subtree, down to SPLIT_DEPTH, and each task fills in a snapshot of
+      * its own.  The results are added together in tree order.
+      */
+    private void rebuildComponentCache_firstPass()
+    {
+        BComponent root = (BComponent) BOrd.make("slot:/").resolve(server.getService(), null).get();
+        work.addAll(pool.invoke(new TreeTask(root, null, 0)));
+    }
+
+    /**
+      * TreeTask processes a subtree of components.
+      */
+    private class TreeTask extends RecursiveTask<Snapshot>
+    {
+        TreeTask(BComponent root, BHEquip implicitEquip, int depth)
+        {
+            this.root = root;
+            this.implicitEquip = implicitEquip;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Snapshot compute()
+        {
+            Snapshot s = new Snapshot();
+            if (depth == SPLIT_DEPTH)
+            {
+                processTree(s, root, implicitEquip, null);
+                return s;
+            }
+
+            // an implicit equip is in scope for its parent's subtree
+            SlotCursor<Property> cursor = root.getProperties();
+            BHEquip equip = cursor.next(BHEquip.class) ? (BHEquip) cursor.get() : implicitEquip;
+            processComponent(s, root, equip);
+
+            List<TreeTask> tasks = new ArrayList<>();
+            cursor = root.getProperties();
+            while (cursor.next(BComponent.class))
+                tasks.add(new TreeTask((BComponent) cursor.get(), equip, depth + 1));
+
+            invokeAll(tasks);
+            for (TreeTask task : tasks)
+                s.addAll(task.join());
+            return s;
+        }
+
+        private final BComponent root;
+        private final BHEquip implicitEquip;
+        private final int depth;
+    }
+
+    /**
+      * Process a tree of components.  The implicit equip is the one that
+      * is in scope for the root, if any.  If 'visited' is not null,
+      * every component in the tree is added to it.
+      */
+    private void processTree(Snapshot s, BComponent root, BHEquip implicitEquip, Collection<BComponent> visited)
+    {
+        Stack<ImplicitEquip> implicitEquipStack = new Stack<>();
+        if (implicitEquip != null)
+            implicitEquipStack.push(new ImplicitEquip(implicitEquip, 0));
+
+        ComponentTreeIterator iterator = new ComponentTreeIterator(root);
+        while (iterator.hasNext())
+        {
+            BComponent comp = iterator.next();
+
+            // push implicit equip 
+            SlotCursor<Property> cursor = comp.getProperties();
+            if (cursor.next(BHEquip.class))
+            {
+                implicitEquipStack.push(
+                    new ImplicitEquip(
+                        (BHEquip) cursor.get(),
+                        iterator.getStackDepth()));
+            }
+            // pop implicit equip once it goes out of scope
+            else
+            {
+                if (!implicitEquipStack.isEmpty())
+                {
+                    ImplicitEquip ie = implicitEquipStack.peek();
+                    if (iterator.getStackDepth() <= ie.depth)
+                        implicitEquipStack.pop();
+                }
+            }
+
+            // get cur implicit
+            BHEquip curImplicitEquip = implicitEquipStack.isEmpty() ?
+                null : implicitEquipStack.peek().equip;
+
+            processComponent(s, comp, curImplicitEquip);
+            if (visited != null) visited.add(comp);
+        }
+    }
+
+    /**
+      * Find the implicit equip that is in scope for the children
+      * of the given component, or return null.
+      */
+    private static BHEquip findImplicitEquip(BComponent comp)
+    {
+        for (; comp != null; comp = comp.getParentComponent())
+        {
+            SlotCursor<Property> cursor = comp.getProperties();
+            if (cursor.next(BHEquip.class))
+                return (BHEquip) cursor.get();
+        }
+        return null;
+    }
+
+    /**
+      * ImplicitEquip
+      */
+    static class ImplicitEquip
+    {
+        ImplicitEquip(BHEquip equip, int depth) 
+        {
+            this.equip = equip;
+            this.depth = depth;
+        }
+
+        final BHEquip equip;
+        final int depth;
+    }
+
+    /**
+      * processComponent
+      */
+    private void processComponent(Snapshot s, BComponent comp, BComponent curImplicitEquip)
+    {
+        HDict tags = BHDict.findTagAnnotation(comp);
+        if (tags == null) tags = HDict.EMPTY;
+
+        if (comp instanceof BControlPoint)
+        {
+            // point
+            BControlPoint point = (BControlPoint) comp;
+            s.points.add(point);
+
+            if (tags.has("weeklySchedule") && tags.has("schedulable"))
+                s.scheduledPoints.add(point);
+
+            // save remote point 
+            RemotePoint remote = RemotePoint.fromControlPoint(point);
+            if (remote != null) s.remoteToPoint.put(remote, point);
+
+            handleEquip(s, point, tags, curImplicitEquip);
+        }
+        else if (comp instanceof BWeeklySchedule)
+        {
+            // schedule
+            BWeeklySchedule sched = (BWeeklySchedule) comp;
+            s.points.add(sched);
+
+            handleEquip(s, sched, tags, curImplicitEquip);
+        }
+        else if (comp instanceof BHTagged)
+        {
+            // auto-tagged site and equip
+            if (comp instanceof BHSite)
+            {
+                s.sites.add(comp);
+                s.setSiteNav(comp, Nav.makeSiteNavId(Nav.makeNavName(comp, tags)));
+            }
+            else if (comp instanceof BHEquip)
+            {
+                s.equips.add(comp);
+                processEquip(s, comp);
+            }
+        }
+        else if(comp.tags().contains(ID_SITE))
+        {
+            s.sites.add(comp);
+            s.setSiteNav(comp, Nav.makeSiteNavId(Nav.makeNavName(comp, tags)));
+        }
+        else if (comp.tags().contains(ID_EQUIP))
+        {
+            s.equips.add(comp);
+            processEquip(s, comp);
+        }
+    }
+
+    private void handleEquip(Snapshot s, BComponent component, HDict tags, BComponent curImplicitEquip)
+    {
+        // explicit equip
+        Optional<Relation> optRelation = component.relations().get(ID_EQUIP_REF, Relations.OUT);
+        if (tags.has(EQUIP_REF))
+        {
+            HRef ref = tags.getRef(EQUIP_REF);
+            BComponent equip = server.getTagManager().lookupComponent(ref);
+            addPointToEquip(s, equip, component);
+        }
+        else if (optRelation.isPresent())
+        {
+            BComponent equip = (BComponent)optRelation.get().getEndpoint();
+            addPointToEquip(s, equip, component);
+        }
+        else
+        {
+            // implicit equip
+            if (curImplicitEquip != null)
+            {
+                addPointToEquip(s, curImplicitEquip, component);
+                s.implicitEquips.put(component, curImplicitEquip);
+            }
+        }
+    }
+
+    /**
+      * addPointToEquip.  A point which is already there keeps its place,
+      * and the equip's set is left alone.
+      */
+    private void addPointToEquip(Snapshot s, BComponent equip, BComponent point)
+    {
+        if (!members(s.equipPoints, equip).contains(point))
+            s.mutableSet(s.equipPoints, equip).add(point);
+        s.pointEquips.put(point, equip);
+    }
+
+    /**
+      * addEquipToSite.  An equip which is already there keeps its place,
+      * and the site's set is left alone.
+      */
+    private void addEquipToSite(Snapshot s, BComponent site, BComponent equip)
+    {
+        if (!members(s.siteEquips, site).contains(equip))
+            s.mutableSet(s.siteEquips, site).add(equip);
+        s.equipSites.put(equip, site);
+    }
+
+    /**
+      * processEquip
+      */
+    private void processEquip(Snapshot s, BComponent equip)
+    {
+        HDict equipTags = BHDict.findTagAnnotation(equip);
+        if (equipTags == null)
+        {
+            equipTags = HDict.EMPTY;
+        }
+
+        BComponent site = null;
+        if (equipTags.has(SITE_REF))
+        {
+            HRef ref = equipTags.getRef(SITE_REF);
+            site = server.getTagManager().lookupComponent(ref);
+        }
+        else  //check for niagara "hs:siteRef" relation to initialize site.
+        {
+            Optional<Relation> optRelation = equip.relations().get(ID_SITE_REF);
+            if (optRelation.isPresent())
+            {
+                site = (BComponent)optRelation.get().getEndpoint();
+            }
+        }
+
+        addEquipToSite(s, site, equip);
+
+        // save the equip nav
+        if (site != null)
+            s.setEquipNav(equip, makeEquipNavId(site, equip, equipTags));
+    }
+
+    /**
+      * makeEquipNavId
+      */
+    private static String makeEquipNavId(BComponent site, BComponent equip, HDict equipTags)
+    {
+        HDict siteTags = BHDict.findTagAnnotation(site);
+        if (siteTags == null)
+        {
+            siteTags = HDict.EMPTY;
+        }
+
+        return Nav.makeEquipNavId(
+            Nav.makeNavName(site, siteTags),
+            Nav.makeNavName(equip, equipTags));
+    }
+
+    /**
+      * rebuildComponentCache_secondPass
+      */
+    private void rebuildComponentCache_secondPass()
+    {
+        for (BComponent site : work.sites)
+            makeSepRefs(site);
+    }
+
+    /**
+      * Make the sep refs for the site and all of its equips and points.
+      */
+    private void makeSepRefs(BComponent site)
+    {
+        // make ref for site
+        String siteNav = siteNavName(site);
+        NHRef siteRef = TagManager.makeSepRef(new String[] { siteNav });
+
+        // save bi-directional lookup for site
+        work.sepRefToComp.put(siteRef, site);
+        work.compToSepRef.put(site, siteRef);
+
+        // iterate through equips for site
+        for (BComponent equip : members(work.siteEquips, site))
+        {
+            // make ref for equip
+            String equipNav = equipNavName(equip);
+            NHRef equipRef = TagManager.makeSepRef(new String[] { siteNav, equipNav });
+
+            // save bi-directional lookup for equip
+            work.sepRefToComp.put(equipRef, equip);
+            work.compToSepRef.put(equip, equipRef);
+
+            // iterate through points for equip
+            for (BComponent point : members(work.equipPoints, equip))
+            {
+                // make ref for point
+                NHRef pointRef = TagManager.makeSepRef(new String[] { siteNav, equipNav, pointNavName(point) });
+
+                // save bi-directional lookup for point
+                work.sepRefToComp.put(pointRef, point);
+                work.compToSepRef.put(point, pointRef);
+            }
+        }
+    }
+
+    /**
+      * Make the sep ref of a single site, equip or point, the same way
+      * that makeSepRefs() does, or return null if it does not have one.
+      */
+    private NHRef makeSepRef(BComponent comp)
+    {
+        if (work.sites.contains(comp))
+            return TagManager.makeSepRef(new String[] { siteNavName(comp) });
+
+        BComponent equip = comp;
+        if (work.points.contains(comp))
+            equip = work.pointEquips.get(comp);
+        if (equip == null || !work.equips.contains(equip)) return null;
+
+        BComponent site = work.equipSites.get(equip);
+        if (site == null || !work.sites.contains(site)) return null;
+
+        return equip == comp ?
+            TagManager.makeSepRef(new String[] { siteNavName(site), equipNavName(equip) }) :
+            TagManager.makeSepRef(new String[] { siteNavName(site), equipNavName(equip), pointNavName(comp) });
+    }
+
+    private static String siteNavName(BComponent site)
+    {
+        HDict siteTags = site instanceof BHSite ? ((BHSite)site).getHaystack().getDict() : HDict.EMPTY;
+        return Nav.makeNavName(site, siteTags);
+    }
+
+    private static String equipNavName(BComponent equip)
+    {
+        HDict equipTags = equip instanceof BHEquip ? ((BHEquip)equip).getHaystack().getDict() : HDict.EMPTY;
+        return Nav.makeNavName(equip, equipTags);
+    }
+
+    private static String pointNavName(BComponent point)
+    {
+        HDict pointTags = BHDict.findTagAnnotation(point);
+        if (pointTags == null) pointTags = HDict.EMPTY;
+        return Nav.makeNavName(point, pointTags);
+    }
+
+    /**
+      * Return the set of the key, or an empty one.
+      */
+    private static <K, E> Collection<E> members(Map<K, SharedSet<E>> map, K key)
+    {
+        Collection<E> set = map.get(key);
+        return set == null ? Collections.emptyList() : set;
+    }
+
+////////////////////////////////////////////////////////////////
+// private -- history space
+////////////////////////////////////////////////////////////////
+
+    /**
+      * rebuildHistoryCache_firstPass
+      */
+    private void rebuildHistoryCache_firstPass(Snapshot s)
+    {
+        BIHistory[] histories = server.getService().getHistoryDb().getHistories();
+        for (BIHistory h : histories)
+        {
+            BHistoryId hid = h.getId();
+
+            // ignore local histories
+            if (hid.getDeviceName().equals(Sys.getStation().getStationName()))
+                continue;
+
+            BHistoryConfig cfg = h.getConfig();
+            RemotePoint remotePoint = RemotePoint.fromHistoryConfig(cfg);
+            if (remotePoint != null)
+            {
+                s.remoteToConfig.put(remotePoint, cfg);
+                s.historyRemotes.put(hid, remotePoint);
+            }
+        }
+    }
+
+    /**
+      * rebuildHistoryCache_secondPass
+      */
+    private void rebuildHistoryCache_secondPass(Snapshot s)
+    {
+        Iterator<BHistoryConfig> itr = new HistoryDbIterator(server.getService().getHistoryDb());
+        while (itr.hasNext())
+        {
+            BHistoryConfig cfg = itr.next();
+
+            if (server.getSpaceManager().isVisibleHistory(cfg))
+            {
+                String stationName = cfg.getId().getDeviceName();
+                s.mutableSet(s.navHistories, stationName).add(cfg);
+            }
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// private -- update
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Remove any component that is inside the subtree of another one.
+      * Unmounted components can't be checked, and are always kept.
+      */
+    private static Collection<BComponent> topmost(Collection<BComponent> comps)
+    {
+        Set<BComponent> set = new HashSet<>(comps);
+        List<BComponent> result = new ArrayList<>();
+        for (BComponent comp : comps)
+        {
+            boolean nested = false;
+            for (BComponent p = comp.getParentComponent(); p != null && !nested; p = p.getParentComponent())
+                nested = set.contains(p);
+
+            if (!nested) result.add(comp);
+        }
+        return result;
+    }
+
+    /**
+      * What removeComponent() took out of the cache, so that it can
+      * be compared with what processTree() puts back.
+      */
+    private static final class Removed
+    {
+        final Set<BComponent> sites = new HashSet<>();
+        final Map<BComponent, BComponent> equipSites = new HashMap<>();
+        final Map<BComponent, BComponent> pointEquips = new HashMap<>();
+    }
+
+    /**
+      * Remove a component from the cache, so that it can be processed
+      * again.  Its place among the equips of its site or the points of
+      * its equip is kept, and so is its sep ref, until detachComponents()
+      * and refreshSepRefs() have seen what processTree() put back.  It is
+      * safe to call this for a component that is not in the cache.
+      */
+    private void removeComponent(BComponent comp, Removed removed)
+    {
+        if (work.points.remove(comp))
+        {
+            work.scheduledPoints.remove(comp);
+            work.implicitEquips.remove(comp);
+
+            if (comp instanceof BControlPoint)
+            {
+                RemotePoint remote = RemotePoint.fromControlPoint((BControlPoint) comp);
+                if (remote != null) work.remoteToPoint.remove(remote, comp);
+            }
+
+            if (work.pointEquips.containsKey(comp))
+                removed.pointEquips.put(comp, work.pointEquips.remove(comp));
+        }
+        else if (work.equips.remove(comp))
+        {
+            work.setEquipNav(comp, null);
+
+            if (work.equipSites.containsKey(comp))
+                removed.equipSites.put(comp, work.equipSites.remove(comp));
+        }
+        else if (work.sites.remove(comp))
+        {
+            work.setSiteNav(comp, null);
+            removed.sites.add(comp);
+        }
+    }
+
+    /**
+      * Take the components which processTree() did not put back in the
+      * same place out of their old equip or site.  The points of an equip
+      * that has gone, and the equips of a site that has gone, are orphans
+      * now, and are added to 'moved'.
+      */
+    private void detachComponents(Removed removed, Set<BComponent> moved)
+    {
+        for (Map.Entry<BComponent, BComponent> e : removed.pointEquips.entrySet())
+        {
+            BComponent point = e.getKey();
+            if (!work.pointEquips.containsKey(point) || work.pointEquips.get(point) != e.getValue())
+                work.removeFrom(work.equipPoints, e.getValue(), point);
+        }
+
+        for (Map.Entry<BComponent, BComponent> e : removed.equipSites.entrySet())
+        {
+            BComponent equip = e.getKey();
+            if (!work.equipSites.containsKey(equip) || work.equipSites.get(equip) != e.getValue())
+                work.removeFrom(work.siteEquips, e.getValue(), equip);
+
+            if (work.equips.contains(equip)) continue;
+
+            // points elsewhere which refer to this equip are now orphans
+            Collection<BComponent> orphans = work.equipPoints.remove(equip);
+            if (orphans != null)
+            {
+                for (BComponent point : orphans)
+                {
+                    addPointToEquip(work, null, point);
+                    moved.add(point);
+                }
+            }
+        }
+
+        for (BComponent site : removed.sites)
+        {
+            if (work.sites.contains(site)) continue;
+
+            // equips which refer to this site are now orphans
+            Collection<BComponent> orphans = work.siteEquips.remove(site);
+            if (orphans != null)
+            {
+                for (BComponent equip : orphans)
+                {
+                    addEquipToSite(work, null, equip);
+                    moved.add(equip);
+                }
+            }
+        }
+    }
+
+    /**
+      * Give the orphans a chance to find the equip or site that they
+      * refer to, now that new ones have been added.  The orphans which
+      * find one are added to 'moved'.
+      */
+    private void attachOrphans(List<BComponent> added, Set<BComponent> moved)
+    {
+        boolean newEquips = false;
+        boolean newSites = false;
+        for (BComponent comp : added)
+        {
+            if (work.sites.contains(comp)) newSites = true;
+            else if (work.equips.contains(comp)) newEquips = true;
+        }
+
+        if (newSites)
+        {
+            for (BComponent equip : new ArrayList<>(members(work.siteEquips, null)))
+            {
+                processEquip(work, equip);
+                if (work.equipSites.get(equip) != null)
+                {
+                    work.removeFrom(work.siteEquips, null, equip);
+                    moved.add(equip);
+                }
+            }
+        }
+
+        if (newEquips)
+        {
+            for (BComponent point : new ArrayList<>(members(work.equipPoints, null)))
+            {
+                HDict tags = BHDict.findTagAnnotation(point);
+                if (tags == null) tags = HDict.EMPTY;
+
+                work.pointEquips.remove(point);
+                work.implicitEquips.remove(point);
+                handleEquip(work, point, tags, findImplicitEquip(point.getParentComponent()));
+
+                if (!work.pointEquips.containsKey(point) || work.pointEquips.get(point) != null)
+                {
+                    work.removeFrom(work.equipPoints, null, point);
+                    moved.add(point);
+                }
+            }
+        }
+    }
+
+    /**
+      * Make the sep refs of the components again, along with the nav
+      * ids of the equips.  When the sep ref of a site or equip changes,
+      * the sep refs of its equips or points are made again as well.
+      * Every component whose sep ref changes is added to 'changed',
+      * since its tags have changed too.
+      */
+    private void refreshSepRefs(Collection<BComponent> comps, Set<BComponent> changed)
+    {
+        Deque<BComponent> queue = new ArrayDeque<>(comps);
+        Set<BComponent> done = new HashSet<>();
+        while (!queue.isEmpty())
+        {
+            BComponent comp = queue.poll();
+            if (!done.add(comp)) continue;
+
+            if (work.equips.contains(comp))
+            {
+                BComponent site = work.equipSites.get(comp);
+                HDict equipTags = BHDict.findTagAnnotation(comp);
+                if (equipTags == null) equipTags = HDict.EMPTY;
+                work.setEquipNav(comp, site == null ? null : makeEquipNavId(site, comp, equipTags));
+            }
+
+            NHRef oldRef = work.compToSepRef.get(comp);
+            NHRef sepRef = makeSepRef(comp);
+            if (Objects.equals(oldRef, sepRef)) continue;
+
+            if (oldRef != null)
+            {
+                work.compToSepRef.remove(comp);
+                work.sepRefToComp.remove(oldRef, comp);
+            }
+            if (sepRef != null)
+            {
+                work.sepRefToComp.put(sepRef, comp);
+                work.compToSepRef.put(comp, sepRef);
+            }
+            changed.add(comp);
+
+            if (work.sites.contains(comp))
+                queue.addAll(members(work.siteEquips, comp));
+            else if (work.equips.contains(comp))
+                queue.addAll(members(work.equipPoints, comp));
+        }
+    }
+
+    /**
+      * Update the cache for a history which has been created or deleted.
+      */
+    private void updateHistory(BHistoryId id)
+    {
+        RemotePoint oldRemote = work.historyRemotes.remove(id);
+        if (oldRemote != null)
+        {
+            BHistoryConfig old = work.remoteToConfig.get(oldRemote);
+            if (old != null && old.getId().equals(id))
+                work.remoteToConfig.remove(oldRemote);
+        }
+
+        if (work.navHistories.containsKey(id.getDeviceName()))
+        {
+            Collection<BHistoryConfig> navs = work.mutableSet(work.navHistories, id.getDeviceName());
+            navs.removeIf(cfg -> cfg.getId().equals(id));
+            if (navs.isEmpty()) work.navHistories.remove(id.getDeviceName());
+        }
+        work.tagIndex.remove(id);
+
+        BHistoryConfig cfg;
+        try (HistorySpaceConnection conn = server.getService().getHistoryDb().getConnection(null))
+        {
+            BIHistory history = conn.getHistory(id);
+            if (history == null) return;
+            cfg = history.getConfig();
+        }
+
+        if (!id.getDeviceName().equals(Sys.getStation().getStationName()))
+        {
+            RemotePoint remotePoint = RemotePoint.fromHistoryConfig(cfg);
+            if (remotePoint != null)
+            {
+                work.remoteToConfig.put(remotePoint, cfg);
+                work.historyRemotes.put(id, remotePoint);
+            }
+        }
+
+        if (server.getSpaceManager().isVisibleHistory(cfg))
+        {
+            work.mutableSet(work.navHistories, id.getDeviceName()).add(cfg);
+            indexHistory(work.tagIndex, cfg);
+        }
+    }
+
+    /**
+      * Create the tags for the components again, and put them in the index.
+      * The index is built from scratch once it is half garbage.
+      */
+    private void reindex(Collection<BComponent> comps)
+    {
+        Set<BComponent> containers = new HashSet<>();
+        for (BComponent comp : comps)
+        {
+            work.tagIndex.remove(comp);
+            if (comp.isMounted() && SpaceManager.isVisibleComponent(comp))
+            {
+                indexComponent(work.tagIndex, comp);
+                addContainers(comp, containers);
+            }
+        }
+        updater.subscribe(containers);
+
+        if (work.tagIndex.garbage() > work.tagIndex.size() / 2)
+            rebuildTagIndex();
+    }
+
+    private void updateCounts()
+    {
+        if (stats == null) return;
+
+        stats.setNumSites(work.sites.size());
+        stats.setNumEquips(work.equips.size());
+        stats.setNumPoints(work.points.size());
+    }
+
+////////////////////////////////////////////////////////////////
+// private -- tag index
+////////////////////////////////////////////////////////////////
+
+    /**
+      * rebuildTagIndex.  This must run after the rest of the cache
+      * has been initialized, since creating the tags depends on it.
+      * The CacheUpdater is subscribed to the containers of the records.
+      */
+    private void rebuildTagIndex()
+    {
+        TagIndex index = new TagIndex();
+        Set<BComponent> containers = new HashSet<>();
+
+        ComponentTreeIterator citr = new ComponentTreeIterator(
+            (BComponent) BOrd.make("slot:/").resolve(server.getService(), null).get());
+        while (citr.hasNext())
+        {
+            BComponent comp = citr.next();
+            if (SpaceManager.isVisibleComponent(comp))
+            {
+                indexComponent(index, comp);
+                addContainers(comp, containers);
+            }
+        }
+
+        Iterator<BHistoryConfig> hitr = new HistoryDbIterator(server.getService().getHistoryDb());
+        while (hitr.hasNext())
+        {
+            BHistoryConfig cfg = hitr.next();
+            if (server.getSpaceManager().isVisibleHistory(cfg))
+                indexHistory(index, cfg);
+        }
+
+        work.tagIndex = index;
+        updater.subscribeAll(containers);
+    }
+
+    private void indexComponent(TagIndex index, BComponent comp)
+    {
+        try
+        {
+            ComponentStamp stamp = ComponentStamp.make(comp);
+            index.addComponent(comp, server.getTagManager().createComponentTags(comp), stamp);
+        }
+        catch (RuntimeException e)
+        {
+            LOG.warning("Cannot index " + comp.getSlotPath() + ": " + e);
+            index.addUnindexed(comp);
+        }
+    }
+
+    private void indexHistory(TagIndex index, BHistoryConfig cfg)
+    {
+        try
+        {
+            index.addHistory(cfg, server.getTagManager().createHistoryTags(cfg));
+        }
+        catch (RuntimeException e)
+        {
+            LOG.warning("Cannot index " + cfg.getId() + ": " + e);
+            index.addUnindexed(cfg.getId());
+        }
+    }
+
+    /**
+      * Add the ancestors of a record to the containers which the
+      * CacheUpdater subscribes to.  Points and schedules are never
+      * subscribed, since that would make the drivers poll them.
+      */
+    private static void addContainers(BComponent comp, Set<BComponent> containers)
+    {
+        BComponent c = (comp instanceof BControlPoint || comp instanceof BWeeklySchedule) ?
+            comp.getParentComponent() : comp;
+
+        while (c != null && !(c instanceof BControlPoint) && containers.add(c))
+            c = c.getParentComponent();
+    }
+
+////////////////////////////////////////////////////////////////
+// spy
+////////////////////////////////////////////////////////////////
+
+    public void spy(SpyWriter out) throws Exception {
+        Snapshot s = snap();
+
+        out.startProps();
+        out.trTitle("Cache SiteNavs", 2);
+        for (Map.Entry<String, BComponent> siteNav : s.siteNavs.entrySet())
+        {
+            out.prop(siteNav.getKey(), siteNav.getValue().getSlotPath());
+        }
+        out.endProps();
+
+        out.startProps();
+        out.trTitle("Cache EquipNavs", 2);
+        for (Map.Entry<String, BComponent> nav : s.equipNavs.entrySet())
+        {
+            out.prop(nav.getKey(), nav.getValue().getSlotPath());
+        }
+        out.endProps();
+
+        out.startProps();
+        out.trTitle("Cache ImplicitEquips", 2);
+        for (Map.Entry<BComponent, BComponent> nav : s.implicitEquips.entrySet())
+        {
+            out.prop(nav.getKey().getSlotPath(), nav.getValue().getSlotPath());
+        }
+        out.endProps();
+
+        out.startProps();
+        out.trTitle("Cache SiteEquips", 2);
+        for (Map.Entry<BComponent, SharedSet<BComponent>> nav : s.siteEquips.entrySet())
+        {
+            // skip the orphans
+            if (nav.getKey() == null) continue;
+
+            String site = nav.getKey().getSlotPath().toString();
+            for (BComponent component : nav.getValue())
+            {
+                out.prop(site, component.getSlotPath());
+                site = "";
+            }
+        }
+        out.endProps();
+
+        out.startProps();
+        out.trTitle("Cache EquipPoints", 2);
+        for (Map.Entry<BComponent, SharedSet<BComponent>> nav : s.equipPoints.entrySet())
+        {
+            // skip the orphans
+            if (nav.getKey() == null) continue;
+
+            String equip = nav.getKey().getSlotPath().toString();
+            for (BComponent component : nav.getValue())
+            {
+                out.prop(equip, component.getSlotPath());
+                equip = "";
+            }
+        }
+        out.endProps();
+    }
+
+
+////////////////////////////////////////////////////////////////
+// access
+////////////////////////////////////////////////////////////////
+
+    boolean initialized() { return snap().initialized || current.initialized; }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    static final String NOT_INITIALIZED = 
+        "NHAYSTACK CACHE NOT INITIALIZED";
+
+    private static final BComponent[] EMPTY_COMPONENT_ARRAY = new BComponent[0];
+    private static final String[] EMPTY_STRING_ARRAY = new String[0];
+    private static final BHistoryConfig[] EMPTY_HISTORY_CONFIG_ARRAY = new BHistoryConfig[0];
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    /** the depth down to which the component tree is split into tasks */
+    private static final int SPLIT_DEPTH = 4;
+
+    private final NHServer server;
+    private final ScheduleManager schedMgr;
+    private final CacheUpdater updater;
+    private final CacheStore store = new CacheStore(new FilePath("^nhaystack/cache.dat"));
+    private final ForkJoinPool pool = new ForkJoinPool(
+        Runtime.getRuntime().availableProcessors(), Cache::newRebuildThread, null, false);
+    private BNHaystackStats stats;
+
+    // rebuild() and update() hold the write lock while they
+    // fill in the work snapshot.  Readers never lock.
+    private final Object writeLock = new Object();
+    private volatile Snapshot current = new Snapshot();
+    private volatile Snapshot work;
+    private volatile Thread writer;
+
+    private BRelTime lastRebuildDuration = BRelTime.DEFAULT;
+    private BAbsTime lastRebuildTime = BAbsTime.DEFAULT;
+}
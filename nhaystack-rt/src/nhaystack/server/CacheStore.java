@@ -0,0 +1,390 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.baja.control.BControlPoint;
+import javax.baja.file.BFileSystem;
+import javax.baja.file.BIFile;
+import javax.baja.file.FilePath;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BIHistory;
+import javax.baja.history.HistorySpaceConnection;
+import javax.baja.history.db.BHistoryDatabase;
+import javax.baja.sys.BComponent;
+import javax.baja.sys.BComponentSpace;
+import javax.baja.sys.Sys;
+
+import nhaystack.NHRef;
+import org.projecthaystack.HRef;
+
+/**
+  * CacheStore saves a Cache.Snapshot to the station's file space, so that
+  * the next time the station starts, the cache can be loaded instead of
+  * being rebuilt.
+  * <p>
+  * Components are saved by their slot handle, and histories by their id.
+  * The RemotePoint keys are not saved, since they are made again from
+  * the points and histories.  The tag index is not saved either.
+  * <p>
+  * A saved snapshot is only loaded if every handle and history id can still
+  * be resolved.  Even then it may be out of date, so it must be reconciled
+  * by a rebuild.
+  */
+final class CacheStore
+{
+    CacheStore(FilePath path)
+    {
+        this.path = path;
+    }
+
+    /**
+      * Save the snapshot.
+      */
+    void save(Cache.Snapshot snap) throws IOException
+    {
+        // The body goes first, so that the tables are complete
+        // by the time they are written.
+        Writer w = new Writer();
+        w.write(snap);
+
+        BIFile file = BFileSystem.INSTANCE.makeFile(path);
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new GZIPOutputStream(file.getOutputStream()))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(Sys.getStation().getStationName());
+
+            out.writeInt(w.comps.size());
+            for (BComponent comp : w.comps)
+                out.writeUTF(String.valueOf(comp.getHandle()));
+
+            out.writeInt(w.histories.size());
+            for (BHistoryConfig cfg : w.histories)
+                out.writeUTF(cfg.getId().toString());
+
+            w.body.writeTo(out);
+            out.writeInt(MAGIC);
+        }
+    }
+
+    /**
+      * Load the saved snapshot, or return null if there isn't one,
+      * or if it no longer matches the station.
+      */
+    Cache.Snapshot load(BHistoryDatabase historyDb) throws IOException
+    {
+        BIFile file = BFileSystem.INSTANCE.findFile(path);
+        if (file == null) return null;
+
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(file.getInputStream()))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return stale("unknown format");
+
+            if (!in.readUTF().equals(Sys.getStation().getStationName()))
+                return stale("station name has changed");
+
+            BComponentSpace space = Sys.getStation().getComponentSpace();
+            BComponent[] comps = new BComponent[in.readInt()];
+            for (int i = 0; i < comps.length; i++)
+            {
+                String handle = in.readUTF();
+                comps[i] = space.findByHandle(handle);
+                if (comps[i] == null || !comps[i].isMounted())
+                    return stale("cannot resolve handle " + handle);
+            }
+
+            BHistoryConfig[] histories = new BHistoryConfig[in.readInt()];
+            try (HistorySpaceConnection conn = historyDb.getConnection(null))
+            {
+                for (int i = 0; i < histories.length; i++)
+                {
+                    String id = in.readUTF();
+                    BIHistory history = conn.getHistory(BHistoryId.make(id));
+                    if (history == null)
+                        return stale("cannot find history " + id);
+                    histories[i] = history.getConfig();
+                }
+            }
+
+            Cache.Snapshot snap = new Reader(in, comps, histories).read();
+            if (snap == null || in.readInt() != MAGIC)
+                return stale("contents have changed");
+            return snap;
+        }
+    }
+
+    private static Cache.Snapshot stale(String reason)
+    {
+        LOG.info("Saved cache is out of date: " + reason);
+        return null;
+    }
+
+////////////////////////////////////////////////////////////////
+// Writer
+////////////////////////////////////////////////////////////////
+
+    private static final class Writer
+    {
+        void write(Cache.Snapshot s) throws IOException
+        {
+            writeComps(s.sites);
+            writeComps(s.equips);
+            writeComps(s.points);
+            writeComps(s.scheduledPoints);
+
+            writeCompMap(s.implicitEquips);
+            writeCompMap(s.equipSites);
+            writeCompMap(s.pointEquips);
+
+            writeListMap(s.siteEquips);
+            writeListMap(s.equipPoints);
+
+            writeNavMap(s.siteNavs);
+            writeNavMap(s.equipNavs);
+
+            out.writeInt(s.sepRefToComp.size());
+            for (Map.Entry<NHRef, BComponent> e : s.sepRefToComp.entrySet())
+            {
+                out.writeUTF(e.getKey().getHRef().val);
+                out.writeInt(comp(e.getValue()));
+            }
+            out.writeInt(s.compToSepRef.size());
+            for (Map.Entry<BComponent, NHRef> e : s.compToSepRef.entrySet())
+            {
+                out.writeInt(comp(e.getKey()));
+                out.writeUTF(e.getValue().getHRef().val);
+            }
+
+            writeComps(s.remoteToPoint.values());
+
+            out.writeInt(s.remoteToConfig.size());
+            for (BHistoryConfig cfg : s.remoteToConfig.values())
+                out.writeInt(history(cfg));
+
+            out.writeInt(s.navHistories.size());
+            for (Map.Entry<String, SharedSet<BHistoryConfig>> e : s.navHistories.entrySet())
+            {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (BHistoryConfig cfg : e.getValue())
+                    out.writeInt(history(cfg));
+            }
+
+            out.flush();
+        }
+
+        private void writeComps(Collection<? extends BComponent> list) throws IOException
+        {
+            out.writeInt(list.size());
+            for (BComponent comp : list)
+                out.writeInt(comp(comp));
+        }
+
+        private void writeCompMap(Map<BComponent, BComponent> map) throws IOException
+        {
+            out.writeInt(map.size());
+            for (Map.Entry<BComponent, BComponent> e : map.entrySet())
+            {
+                out.writeInt(comp(e.getKey()));
+                out.writeInt(comp(e.getValue()));
+            }
+        }
+
+        private void writeListMap(Map<BComponent, SharedSet<BComponent>> map) throws IOException
+        {
+            out.writeInt(map.size());
+            for (Map.Entry<BComponent, SharedSet<BComponent>> e : map.entrySet())
+            {
+                out.writeInt(comp(e.getKey()));
+                writeComps(e.getValue());
+            }
+        }
+
+        private void writeNavMap(Map<String, BComponent> map) throws IOException
+        {
+            out.writeInt(map.size());
+            for (Map.Entry<String, BComponent> e : map.entrySet())
+            {
+                out.writeUTF(e.getKey());
+                out.writeInt(comp(e.getValue()));
+            }
+        }
+
+        /**
+          * Return the position of the component in the table, or -1 for null.
+          */
+        private int comp(BComponent comp)
+        {
+            if (comp == null) return -1;
+            return compIndex.computeIfAbsent(comp, k -> { comps.add(k); return comps.size() - 1; });
+        }
+
+        private int history(BHistoryConfig cfg)
+        {
+            return historyIndex.computeIfAbsent(cfg.getId(), k -> { histories.add(cfg); return histories.size() - 1; });
+        }
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+
+        final List<BComponent> comps = new ArrayList<>();
+        final List<BHistoryConfig> histories = new ArrayList<>();
+        private final Map<BComponent, Integer> compIndex = new HashMap<>();
+        private final Map<BHistoryId, Integer> historyIndex = new HashMap<>();
+    }
+
+////////////////////////////////////////////////////////////////
+// Reader
+////////////////////////////////////////////////////////////////
+
+    private static final class Reader
+    {
+        Reader(DataInputStream in, BComponent[] comps, BHistoryConfig[] histories)
+        {
+            this.in = in;
+            this.comps = comps;
+            this.histories = histories;
+        }
+
+        /**
+          * Read the body, or return null if a remote point
+          * or history no longer matches.
+          */
+        Cache.Snapshot read() throws IOException
+        {
+            Cache.Snapshot s = new Cache.Snapshot();
+
+            readComps(s.sites);
+            readComps(s.equips);
+            readComps(s.points);
+            readComps(s.scheduledPoints);
+
+            readCompMap(s.implicitEquips);
+            readCompMap(s.equipSites);
+            readCompMap(s.pointEquips);
+
+            readListMap(s.siteEquips);
+            readListMap(s.equipPoints);
+
+            readNavMap(s.siteNavs, s.siteNavIds);
+            readNavMap(s.equipNavs, s.equipNavIds);
+
+            for (int n = in.readInt(); n > 0; n--)
+                s.sepRefToComp.put(NHRef.make(HRef.make(in.readUTF())), comp(in.readInt()));
+            for (int n = in.readInt(); n > 0; n--)
+            {
+                BComponent comp = comp(in.readInt());
+                s.compToSepRef.put(comp, NHRef.make(HRef.make(in.readUTF())));
+            }
+
+            List<BComponent> remotePoints = new ArrayList<>();
+            readComps(remotePoints);
+            for (BComponent comp : remotePoints)
+            {
+                if (!(comp instanceof BControlPoint)) return null;
+
+                RemotePoint remote = RemotePoint.fromControlPoint((BControlPoint) comp);
+                if (remote == null) return null;
+                s.remoteToPoint.put(remote, (BControlPoint) comp);
+            }
+
+            for (int n = in.readInt(); n > 0; n--)
+            {
+                BHistoryConfig cfg = histories[in.readInt()];
+                RemotePoint remote = RemotePoint.fromHistoryConfig(cfg);
+                if (remote == null) return null;
+                s.remoteToConfig.put(remote, cfg);
+                s.historyRemotes.put(cfg.getId(), remote);
+            }
+
+            for (int n = in.readInt(); n > 0; n--)
+            {
+                SharedSet<BHistoryConfig> list = new SharedSet<>();
+                s.navHistories.put(in.readUTF(), list);
+                for (int m = in.readInt(); m > 0; m--)
+                    list.add(histories[in.readInt()]);
+            }
+
+            return s;
+        }
+
+        private void readComps(Collection<BComponent> list) throws IOException
+        {
+            for (int n = in.readInt(); n > 0; n--)
+                list.add(comp(in.readInt()));
+        }
+
+        private void readCompMap(Map<BComponent, BComponent> map) throws IOException
+        {
+            for (int n = in.readInt(); n > 0; n--)
+            {
+                BComponent key = comp(in.readInt());
+                map.put(key, comp(in.readInt()));
+            }
+        }
+
+        private void readListMap(Map<BComponent, SharedSet<BComponent>> map) throws IOException
+        {
+            for (int n = in.readInt(); n > 0; n--)
+            {
+                SharedSet<BComponent> list = new SharedSet<>();
+                map.put(comp(in.readInt()), list);
+                readComps(list);
+            }
+        }
+
+        private void readNavMap(Map<String, BComponent> map, Map<BComponent, String> navIds) throws IOException
+        {
+            for (int n = in.readInt(); n > 0; n--)
+            {
+                String nav = in.readUTF();
+                BComponent comp = comp(in.readInt());
+                map.put(nav, comp);
+                navIds.put(comp, nav);
+            }
+        }
+
+        private BComponent comp(int index)
+        {
+            return index < 0 ? null : comps[index];
+        }
+
+        private final DataInputStream in;
+        private final BComponent[] comps;
+        private final BHistoryConfig[] histories;
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    private static final int MAGIC = 0x4E484331; // "NHC1"
+    private static final int VERSION = 2;
+
+    private final FilePath path;
+}
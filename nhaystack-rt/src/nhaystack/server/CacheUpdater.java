@@ -0,0 +1,320 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.history.BHistoryEvent;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BHistoryService;
+import javax.baja.history.HistoryEventListener;
+import javax.baja.naming.SlotPath;
+import javax.baja.sys.BComponent;
+import javax.baja.sys.BComponentEvent;
+import javax.baja.sys.BValue;
+import javax.baja.sys.Slot;
+import javax.baja.sys.Subscriber;
+import javax.baja.sys.Sys;
+
+import nhaystack.site.BHEquip;
+
+/**
+  * CacheUpdater keeps the Cache up to date in between rebuilds.
+  * <p>
+  * It subscribes to the containers of the cached records -- sites, equips,
+  * devices and the folders above them -- and listens to the history
+  * service.  Components that are added, removed, renamed or re-tagged,
+  * and histories that are created or deleted, are queued up.  After a
+  * short delay the queue is handed to Cache.update() on a background
+  * thread, so that bursts of changes are patched in one go.
+  * <p>
+  * Points are never subscribed, because that would cause the drivers
+  * to poll them.  Code which changes the tags on a point should call
+  * Cache.componentChanged().  Changes that nobody reports, e.g. tags
+  * edited on a point in Workbench, are found by comparing the indexed
+  * components with the ComponentStamps they were indexed with, up to
+  * VERIFY_BATCH of them every VERIFY_PERIOD, so that a large station is
+  * swept a little at a time.
+  */
+class CacheUpdater
+{
+    CacheUpdater(Cache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+      * Replace the subscribed containers.  The first call also
+      * starts listening to the history service.
+      */
+    synchronized void subscribeAll(Collection<BComponent> containers)
+    {
+        if (executor == null)
+        {
+            executor = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread thread = new Thread(r, "NHaystack:CacheUpdater");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            historyService = (BHistoryService) Sys.getService(BHistoryService.TYPE);
+            historyService.addHistoryEventListener(historyListener);
+
+            executor.scheduleWithFixedDelay(this::verify,
+                VERIFY_PERIOD, VERIFY_PERIOD, TimeUnit.MILLISECONDS);
+        }
+
+        subscriber.unsubscribeAll();
+        subscribe(containers);
+    }
+
+    /**
+      * Subscribe to some more containers.
+      */
+    void subscribe(Collection<BComponent> containers)
+    {
+        for (BComponent comp : containers)
+            subscriber.subscribe(comp);
+    }
+
+    void unsubscribe(BComponent comp)
+    {
+        subscriber.unsubscribe(comp);
+    }
+
+    /**
+      * Stop listening for changes.
+      */
+    synchronized void stop()
+    {
+        subscriber.unsubscribeAll();
+
+        if (executor != null)
+        {
+            historyService.removeHistoryEventListener(historyListener);
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+      * Queue a component whose subtree must be processed again.
+      */
+    synchronized void componentChanged(BComponent comp)
+    {
+        // the scope of an implicit equip is its parent's subtree
+        if (comp instanceof BHEquip && comp.getParentComponent() != null)
+            comp = comp.getParentComponent();
+
+        pendingComponents.add(comp);
+        schedule();
+    }
+
+    /**
+      * Queue a history which has been created or deleted.
+      */
+    synchronized void historyChanged(BHistoryId id)
+    {
+        pendingHistories.add(id);
+        schedule();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private void schedule()
+    {
+        if (scheduled || executor == null) return;
+
+        scheduled = true;
+        executor.schedule(this::drain, DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void drain()
+    {
+        Set<BComponent> comps;
+        Set<BHistoryId> historyIds;
+        synchronized (this)
+        {
+            comps = pendingComponents;
+            historyIds = pendingHistories;
+            pendingComponents = new LinkedHashSet<>();
+            pendingHistories = new LinkedHashSet<>();
+            scheduled = false;
+        }
+
+        try
+        {
+            cache.update(comps, historyIds);
+        }
+        catch (Exception e)
+        {
+            LOG.log(Level.SEVERE, "Cannot update cache", e);
+        }
+    }
+
+    /**
+      * Queue the indexed components which no longer match the stamp they
+      * were indexed with.  This only compares slots, so it is cheap next
+      * to making the tags.
+      */
+    private void verify()
+    {
+        try
+        {
+            TagIndex index = cache.getTagIndex();
+            if (index == null) return;
+
+            // a rebuild starts a new, possibly smaller, index
+            int size = index.size();
+            if (verifyDoc >= size) verifyDoc = 0;
+
+            int to = Math.min(verifyDoc + VERIFY_BATCH, size);
+            Map<BComponent, ComponentStamp> stamps = new LinkedHashMap<>();
+            index.getStamps(verifyDoc, to, stamps);
+            verifyDoc = to;
+
+            int count = 0;
+            for (Map.Entry<BComponent, ComponentStamp> e : stamps.entrySet())
+            {
+                if (!e.getValue().matches(e.getKey()))
+                {
+                    cache.componentChanged(e.getKey());
+                    count++;
+                }
+            }
+
+            if (count > 0 && LOG.isLoggable(Level.FINE))
+                LOG.fine("Cache verify: " + count + " components changed.");
+        }
+        catch (Exception e)
+        {
+            LOG.log(Level.SEVERE, "Cannot verify cache", e);
+        }
+    }
+
+    /**
+      * Return whether the slot holds haystack tags, either as a
+      * 'haystack' BHDict or as a Niagara direct tag.
+      */
+    private static boolean isTagSlot(Slot slot)
+    {
+        String name = slot.getName();
+        return name.equals("haystack") || name.startsWith(HS_TAG_PREFIX);
+    }
+
+////////////////////////////////////////////////////////////////
+// Subscriber
+////////////////////////////////////////////////////////////////
+
+    private class CacheSubscriber extends Subscriber
+    {
+        @Override
+        public void event(BComponentEvent event)
+        {
+            BComponent source = event.getSourceComponent();
+            Slot slot = event.getSlot();
+
+            switch (event.getId())
+            {
+                case BComponentEvent.PROPERTY_ADDED:
+                case BComponentEvent.PROPERTY_RENAMED:
+                {
+                    BValue value = source.get(slot.getName());
+                    if (value instanceof BComponent)
+                        componentChanged((BComponent) value);
+                    else if (isTagSlot(slot))
+                        componentChanged(source);
+                    break;
+                }
+
+                case BComponentEvent.PROPERTY_REMOVED:
+                {
+                    BValue value = event.getValue();
+                    if (value instanceof BHEquip)
+                        componentChanged(source);
+                    else if (value instanceof BComponent)
+                        componentChanged((BComponent) value);
+                    else if (isTagSlot(slot))
+                        componentChanged(source);
+                    break;
+                }
+
+                case BComponentEvent.PROPERTY_CHANGED:
+                {
+                    if (isTagSlot(slot))
+                        componentChanged(source);
+                    break;
+                }
+
+                default:
+                    break;
+            }
+        }
+    }
+
+    private class CacheHistoryListener implements HistoryEventListener
+    {
+        @Override
+        public void historyEvent(BHistoryEvent event)
+        {
+            switch (event.getId())
+            {
+                case BHistoryEvent.CREATED:
+                case BHistoryEvent.DELETED:
+                    historyChanged(event.getHistoryId());
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    /** how long to wait for more changes before patching the cache */
+    private static final long DELAY = 250;
+
+    /** how often a batch of indexed components is compared with its stamps */
+    private static final long VERIFY_PERIOD = 1000;
+
+    /** how many documents are looked at every VERIFY_PERIOD */
+    private static final int VERIFY_BATCH = 1000;
+
+    /** Niagara direct tags in the haystack namespace */
+    private static final String HS_TAG_PREFIX = SlotPath.escape("hs:");
+
+    private final Cache cache;
+    private final Subscriber subscriber = new CacheSubscriber();
+    private final HistoryEventListener historyListener = new CacheHistoryListener();
+
+    private ScheduledExecutorService executor;
+    private BHistoryService historyService;
+    private boolean scheduled;
+
+    /** the document that the next verify starts at, only used by the executor */
+    private int verifyDoc;
+
+    private Set<BComponent> pendingComponents = new LinkedHashSet<>();
+    private Set<BHistoryId> pendingHistories = new LinkedHashSet<>();
+}
@@ -0,0 +1,114 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import javax.baja.history.ext.BHistoryExt;
+import javax.baja.naming.SlotPath;
+import javax.baja.sys.BComponent;
+import javax.baja.sys.BValue;
+import javax.baja.sys.Property;
+
+/**
+  * ComponentStamp records what the tags of a component were made from,
+  * so that a change can be noticed without making the tags again.
+  * <p>
+  * Points are not subscribed, so nothing tells the Cache when a tag is
+  * edited on one of them in Workbench.  Direct tags, relations, the
+  * 'haystack' annotation and history extensions are all dynamic
+  * properties, and setting a simple value replaces it, so comparing
+  * those property values by identity catches each of those edits.
+  * The name, display name and facets are compared as well.
+  * <p>
+  * Other dynamic properties are left out, since they do not change the
+  * tags, and some change all the time: PointIO sets 'haystackLastWrite'
+  * on every pointWrite.
+  * <p>
+  * A change inside a dynamic component, e.g. to the properties of a
+  * history extension, is not seen.
+  */
+final class ComponentStamp
+{
+    static ComponentStamp make(BComponent comp)
+    {
+        return new ComponentStamp(
+            comp.getName(),
+            comp.getDisplayName(null),
+            comp.get("facets"),
+            dynamicValues(comp));
+    }
+
+    private ComponentStamp(String name, String displayName, BValue facets, BValue[] dynamic)
+    {
+        this.name = name;
+        this.displayName = displayName;
+        this.facets = facets;
+        this.dynamic = dynamic;
+    }
+
+    /**
+      * Return whether the component looks the same as when the stamp
+      * was made.
+      */
+    boolean matches(BComponent comp)
+    {
+        if (!Objects.equals(name, comp.getName())) return false;
+        if (facets != comp.get("facets")) return false;
+
+        BValue[] values = dynamicValues(comp);
+        if (values.length != dynamic.length) return false;
+        for (int i = 0; i < values.length; i++)
+        {
+            if (dynamic[i] != values[i]) return false;
+        }
+
+        // looked up in the parent, so it is checked last
+        return Objects.equals(displayName, comp.getDisplayName(null));
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return the values of the dynamic properties that the tags are made
+      * from: the 'haystack' annotation, the direct tags and relations,
+      * whose names have a namespace, e.g. "hs$3apoint", and any history
+      * extension.
+      */
+    private static BValue[] dynamicValues(BComponent comp)
+    {
+        List<BValue> values = new ArrayList<>();
+        for (Property prop : comp.getDynamicPropertiesArray())
+        {
+            String name = prop.getName();
+            if (name.equals(LAST_WRITE)) continue;
+
+            BValue value = comp.get(prop);
+            if (name.equals("haystack") || name.contains(NAMESPACE) || value instanceof BHistoryExt)
+                values.add(value);
+        }
+        return values.toArray(new BValue[values.size()]);
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    /** the escaped ':' between the namespace and name of a tag or relation */
+    private static final String NAMESPACE = SlotPath.escape(":");
+
+    private static final String LAST_WRITE = "haystackLastWrite";
+
+    private final String name;
+    private final String displayName;
+    private final BValue facets;
+    private final BValue[] dynamic;
+}
@@ -0,0 +1,324 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import org.projecthaystack.HBool;
+import org.projecthaystack.HVal;
+import org.projecthaystack.ParseException;
+import org.projecthaystack.io.HaystackToken;
+import org.projecthaystack.io.HaystackTokenizer;
+
+/**
+  * FilterNode is an inspectable parse tree of a haystack filter.
+  *
+  * HFilter keeps its structure private, so the filter string is parsed
+  * again here using the same grammar.  The tree is only used to decide
+  * which records are worth looking at -- the HFilter is still the
+  * authority on whether a record actually matches.
+  */
+abstract class FilterNode
+{
+    /**
+      * Parse a filter string.
+      *
+      * @throws ParseException if the filter is not valid.
+      */
+    static FilterNode parse(String filter)
+    {
+        return new Parser(filter).parse();
+    }
+
+////////////////////////////////////////////////////////////////
+// nodes
+////////////////////////////////////////////////////////////////
+
+    /**
+      * A node which tests the value found at a tag path.
+      */
+    abstract static class PathNode extends FilterNode
+    {
+        PathNode(String[] path)
+        {
+            this.path = path;
+        }
+
+        /**
+          * Return the name of the tag that must be present on the
+          * record itself for this node to match.
+          */
+        String tagName()
+        {
+            return path[0];
+        }
+
+        /**
+          * Return whether the path refers to a tag on the record itself,
+          * rather than dereferencing a Ref.
+          */
+        boolean isSimple()
+        {
+            return path.length == 1;
+        }
+
+        String pathString()
+        {
+            StringBuilder sb = new StringBuilder(path[0]);
+            for (int i = 1; i < path.length; i++)
+                sb.append("->").append(path[i]);
+            return sb.toString();
+        }
+
+        final String[] path;
+    }
+
+    static final class Has extends PathNode
+    {
+        Has(String[] path)
+        {
+            super(path);
+        }
+
+        public String toString()
+        {
+            return pathString();
+        }
+    }
+
+    static final class Missing extends PathNode
+    {
+        Missing(String[] path)
+        {
+            super(path);
+        }
+
+        public String toString()
+        {
+            return "not " + pathString();
+        }
+    }
+
+    /**
+      * A comparison: one of ==, !=, &lt;, &lt;=, &gt; or &gt;=.
+      * Every comparison requires the tag to be present.
+      */
+    static final class Cmp extends PathNode
+    {
+        Cmp(String[] path, String op, HVal val)
+        {
+            super(path);
+            this.op = op;
+            this.val = val;
+        }
+
+        boolean isEq()
+        {
+            return op.equals("==");
+        }
+
+        public String toString()
+        {
+            // the filter grammar spells booleans as true and false
+            String lit = val instanceof HBool ? val.toString() : val.toZinc();
+            return pathString() + op + lit;
+        }
+
+        final String op;
+        final HVal val;
+    }
+
+    abstract static class Compound extends FilterNode
+    {
+        Compound(FilterNode a, FilterNode b)
+        {
+            this.a = a;
+            this.b = b;
+        }
+
+        String toString(String keyword)
+        {
+            return wrap(a) + ' ' + keyword + ' ' + wrap(b);
+        }
+
+        private static String wrap(FilterNode node)
+        {
+            return node instanceof Compound ?
+                '(' + node.toString() + ')' :
+                node.toString();
+        }
+
+        final FilterNode a;
+        final FilterNode b;
+    }
+
+    static final class And extends Compound
+    {
+        And(FilterNode a, FilterNode b)
+        {
+            super(a, b);
+        }
+
+        public String toString()
+        {
+            return toString("and");
+        }
+    }
+
+    static final class Or extends Compound
+    {
+        Or(FilterNode a, FilterNode b)
+        {
+            super(a, b);
+        }
+
+        public String toString()
+        {
+            return toString("or");
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// Parser
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Parser follows the grammar of HFilter.FilterParser.
+      */
+    private static final class Parser
+    {
+        Parser(String filter)
+        {
+            this.filter = filter;
+            this.tokenizer = new HaystackTokenizer(new StringReader(filter));
+            consume();
+            consume();
+        }
+
+        FilterNode parse()
+        {
+            FilterNode node = condOr();
+            verify(HaystackToken.eof);
+            return node;
+        }
+
+        private FilterNode condOr()
+        {
+            FilterNode lhs = condAnd();
+            if (!isKeyword("or")) return lhs;
+            consume();
+            return new Or(lhs, condOr());
+        }
+
+        private FilterNode condAnd()
+        {
+            FilterNode lhs = term();
+            if (!isKeyword("and")) return lhs;
+            consume();
+            return new And(lhs, condAnd());
+        }
+
+        private FilterNode term()
+        {
+            if (cur == HaystackToken.lparen)
+            {
+                consume();
+                FilterNode node = condOr();
+                verify(HaystackToken.rparen);
+                consume();
+                return node;
+            }
+
+            if (isKeyword("not") && peek == HaystackToken.id)
+            {
+                consume();
+                return new Missing(path());
+            }
+
+            String[] path = path();
+            if (cur == HaystackToken.eq)    { consume(); return new Cmp(path, "==", val()); }
+            if (cur == HaystackToken.notEq) { consume(); return new Cmp(path, "!=", val()); }
+            if (cur == HaystackToken.lt)    { consume(); return new Cmp(path, "<",  val()); }
+            if (cur == HaystackToken.ltEq)  { consume(); return new Cmp(path, "<=", val()); }
+            if (cur == HaystackToken.gt)    { consume(); return new Cmp(path, ">",  val()); }
+            if (cur == HaystackToken.gtEq)  { consume(); return new Cmp(path, ">=", val()); }
+
+            return new Has(path);
+        }
+
+        private String[] path()
+        {
+            ArrayList<String> names = new ArrayList<>();
+            names.add(pathName());
+            while (cur == HaystackToken.arrow)
+            {
+                consume();
+                names.add(pathName());
+            }
+            return names.toArray(new String[names.size()]);
+        }
+
+        private String pathName()
+        {
+            if (cur != HaystackToken.id)
+                throw err("Expecting tag name, not " + cur);
+            String name = (String) curVal;
+            consume();
+            return name;
+        }
+
+        private HVal val()
+        {
+            if (cur.literal)
+            {
+                HVal val = (HVal) curVal;
+                consume();
+                return val;
+            }
+
+            if (cur == HaystackToken.id)
+            {
+                if ("true".equals(curVal))  { consume(); return HBool.TRUE; }
+                if ("false".equals(curVal)) { consume(); return HBool.FALSE; }
+            }
+
+            throw err("Expecting value literal, not " + cur);
+        }
+
+        private boolean isKeyword(String keyword)
+        {
+            return cur == HaystackToken.id && keyword.equals(curVal);
+        }
+
+        private void verify(HaystackToken expected)
+        {
+            if (cur != expected)
+                throw err("Expected " + expected + ", not " + cur);
+        }
+
+        private void consume()
+        {
+            cur = peek;
+            curVal = peekVal;
+            peek = tokenizer.next();
+            peekVal = tokenizer.val;
+        }
+
+        private ParseException err(String msg)
+        {
+            return new ParseException(msg + " [" + filter + ']');
+        }
+
+        private final String filter;
+        private final HaystackTokenizer tokenizer;
+        private HaystackToken cur;
+        private Object curVal;
+        private HaystackToken peek;
+        private Object peekVal;
+    }
+}
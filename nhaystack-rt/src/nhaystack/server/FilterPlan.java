@@ -0,0 +1,476 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.sys.BComponent;
+
+import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HFilter;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HGridBuilder;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HStr;
+import org.projecthaystack.HVal;
+import org.projecthaystack.ParseException;
+
+/**
+  * FilterPlan decides how a filter is evaluated, before any record
+  * is read.
+  * <ul>
+  * <li>Tags which only appear in one space decide which spaces are
+  *     read.  A filter which requires 'equip' or 'site' never reads the
+  *     history space, and one which requires 'axHistoryId' never reads
+  *     the component space.
+  * <li>Required axType== and axSlotPath comparisons are pushed down
+  *     into the walk, so that the tags of a component are only made if
+  *     its type and slot path could match.  Branches of the component
+  *     tree whose slot paths are out of range are skipped altogether.
+  * <li>The operands of each 'and' are put in order of cost, so that
+  *     cheap and selective tests reject a record before the expensive
+  *     ones are made.
+  * <li>If the tag index can narrow down the search, only the candidate
+  *     records are read.
+  * </ul>
+  * The plan never makes the result different; it only leaves out records
+  * which cannot match.
+  */
+final class FilterPlan
+{
+    /**
+      * Plan the filter.  The index may be null.  A filter which cannot be
+      * analyzed is planned as a full scan, and evaluated as it is.
+      *
+      * @throws ParseException if HFilter cannot parse the filter.
+      */
+    static FilterPlan make(String filter, TagIndex index)
+    {
+        FilterNode root;
+        try
+        {
+            root = FilterNode.parse(filter);
+        }
+        catch (ParseException e)
+        {
+            LOG.warning("Cannot plan filter \"" + filter + "\": " + e.getMessage());
+            return new FilterPlan(filter, null, HFilter.make(filter));
+        }
+
+        root = reorder(root, index);
+
+        HFilter hfilter;
+        try
+        {
+            hfilter = HFilter.make(root.toString());
+        }
+        catch (ParseException e)
+        {
+            LOG.warning("Cannot reorder filter \"" + filter + "\": " + e.getMessage());
+            hfilter = HFilter.make(filter);
+        }
+
+        FilterPlan plan = new FilterPlan(filter, root, hfilter);
+        plan.analyze(index);
+        return plan;
+    }
+
+    private FilterPlan(String filter, FilterNode root, HFilter hfilter)
+    {
+        this.filter = filter;
+        this.root = root;
+        this.hfilter = hfilter;
+    }
+
+////////////////////////////////////////////////////////////////
+// access
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return the filter to evaluate records with.
+      */
+    HFilter getFilter()
+    {
+        return hfilter;
+    }
+
+    /**
+      * Return the candidates from the tag index, or null if
+      * every record in the spaces to be read must be checked.
+      */
+    BitSet getCandidates()
+    {
+        return candidates;
+    }
+
+    boolean readComponents()
+    {
+        return components;
+    }
+
+    boolean readHistories()
+    {
+        return histories;
+    }
+
+    /**
+      * Return whether the component's type and slot path could match.
+      */
+    boolean acceptComponent(BComponent comp)
+    {
+        if (!components) return false;
+
+        if (axType != null && !axType.equals(comp.getType().toString()))
+            return false;
+
+        if (slotPath != null)
+        {
+            if (comp.getSlotPath() == null) return false;
+            return slotPath.contains(comp.getSlotPath().toString());
+        }
+        return true;
+    }
+
+    /**
+      * Return whether any component below the given one could match.
+      */
+    boolean acceptChildren(BComponent comp)
+    {
+        if (!components) return false;
+        if (slotPath == null || comp.getSlotPath() == null) return true;
+        return slotPath.containsBelow(comp.getSlotPath().toString());
+    }
+
+    /**
+      * Return whether the history's type could match.
+      */
+    boolean acceptHistory(BHistoryConfig cfg)
+    {
+        if (!histories) return false;
+        return axType == null || axType.equals(cfg.getType().toString());
+    }
+
+    /**
+      * Describe the plan.  The meta holds the plan as a whole, and there is
+      * a row for each test of the top level 'and', in the order in which
+      * they are made.
+      */
+    HGrid toGrid()
+    {
+        HGridBuilder gb = new HGridBuilder();
+        HDictBuilder meta = gb.meta();
+        meta.add("filter", filter);
+        if (root != null) meta.add("plan", root.toString());
+        meta.add("strategy", candidates != null ? "index" : "scan");
+        meta.add("spaces", components ?
+            (histories ? "components, histories" : "components") :
+            (histories ? "histories" : "none"));
+        if (axType != null) meta.add("axType", axType);
+        if (slotPath != null) meta.add("axSlotPath", slotPath.toString());
+        if (componentEstimate >= 0) meta.add("componentEstimate", HNum.make(componentEstimate));
+        if (historyEstimate >= 0) meta.add("historyEstimate", HNum.make(historyEstimate));
+
+        gb.addCol("order");
+        gb.addCol("test");
+        gb.addCol("cost");
+        gb.addCol("estimate");
+
+        List<FilterNode> terms = new ArrayList<>();
+        if (root != null) flattenAnd(root, terms);
+        for (int i = 0; i < terms.size(); i++)
+        {
+            FilterNode term = terms.get(i);
+            gb.addRow(new HVal[] {
+                HNum.make(i),
+                HStr.make(term.toString()),
+                HStr.make(COSTS[cost(term)]),
+                estimates == null ? null : HNum.make(estimates.estimate(term)) });
+        }
+        return gb.toGrid();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Work out the spaces, the pushdowns and the candidates.
+      */
+    private void analyze(TagIndex index)
+    {
+        Set<String> required = requiredTags(root);
+        if (!disjoint(required, COMPONENT_ONLY_TAGS)) histories = false;
+        if (!disjoint(required, HISTORY_ONLY_TAGS)) components = false;
+
+        List<FilterNode> terms = new ArrayList<>();
+        flattenAnd(root, terms);
+        for (FilterNode term : terms)
+        {
+            if (!(term instanceof FilterNode.Cmp)) continue;
+
+            FilterNode.Cmp cmp = (FilterNode.Cmp) term;
+            if (!cmp.isSimple() || !(cmp.val instanceof HStr)) continue;
+            String val = ((HStr) cmp.val).val;
+
+            if (cmp.tagName().equals("axType") && cmp.isEq() && axType == null)
+            {
+                axType = val;
+            }
+            else if (cmp.tagName().equals("axSlotPath") && !cmp.op.equals("!="))
+            {
+                if (slotPath == null) slotPath = new SlotPathRange();
+                slotPath.narrow(cmp.op, val);
+            }
+        }
+
+        if (index != null)
+        {
+            estimates = index;
+            candidates = index.candidates(root);
+            if (candidates != null)
+            {
+                int[] counts = index.countSpaces(candidates);
+                componentEstimate = components ? counts[0] : 0;
+                historyEstimate   = histories  ? counts[1] : 0;
+            }
+        }
+    }
+
+    /**
+      * Return the tags that a record must have to match the node.
+      */
+    private static Set<String> requiredTags(FilterNode node)
+    {
+        Set<String> tags = new HashSet<>();
+        if (node instanceof FilterNode.Has || node instanceof FilterNode.Cmp)
+        {
+            tags.add(((FilterNode.PathNode) node).tagName());
+        }
+        else if (node instanceof FilterNode.And)
+        {
+            FilterNode.And and = (FilterNode.And) node;
+            tags.addAll(requiredTags(and.a));
+            tags.addAll(requiredTags(and.b));
+        }
+        else if (node instanceof FilterNode.Or)
+        {
+            FilterNode.Or or = (FilterNode.Or) node;
+            tags.addAll(requiredTags(or.a));
+            tags.retainAll(requiredTags(or.b));
+        }
+        return tags;
+    }
+
+    private static boolean disjoint(Set<String> tags, String[] names)
+    {
+        for (String name : names)
+            if (tags.contains(name)) return false;
+        return true;
+    }
+
+    /**
+      * Put the operands of every 'and' in order of cost, and then
+      * of the number of candidates the index has for them.
+      */
+    private static FilterNode reorder(FilterNode node, TagIndex index)
+    {
+        if (node instanceof FilterNode.Or)
+        {
+            FilterNode.Or or = (FilterNode.Or) node;
+            return new FilterNode.Or(reorder(or.a, index), reorder(or.b, index));
+        }
+
+        if (!(node instanceof FilterNode.And))
+            return node;
+
+        List<FilterNode> terms = new ArrayList<>();
+        flattenAnd(node, terms);
+        for (int i = 0; i < terms.size(); i++)
+            terms.set(i, reorder(terms.get(i), index));
+
+        Comparator<FilterNode> byCost = Comparator.comparingInt(FilterPlan::cost);
+        if (index != null)
+            byCost = byCost.thenComparingInt(index::estimate);
+        terms.sort(byCost);
+
+        FilterNode result = terms.get(terms.size() - 1);
+        for (int i = terms.size() - 2; i >= 0; i--)
+            result = new FilterNode.And(terms.get(i), result);
+        return result;
+    }
+
+    private static void flattenAnd(FilterNode node, List<FilterNode> terms)
+    {
+        if (node instanceof FilterNode.And)
+        {
+            FilterNode.And and = (FilterNode.And) node;
+            flattenAnd(and.a, terms);
+            flattenAnd(and.b, terms);
+        }
+        else
+        {
+            terms.add(node);
+        }
+    }
+
+    /**
+      * Return how expensive the node is to test: TAG_COST if it only
+      * looks at tags that are made up front, LAZY_COST if it looks at a tag
+      * that is made when it is asked for, and PATH_COST if it has to
+      * read another record.
+      */
+    private static int cost(FilterNode node)
+    {
+        if (node instanceof FilterNode.Compound)
+        {
+            FilterNode.Compound c = (FilterNode.Compound) node;
+            return Math.max(cost(c.a), cost(c.b));
+        }
+
+        FilterNode.PathNode path = (FilterNode.PathNode) node;
+        if (!path.isSimple()) return PATH_COST;
+        if (Arrays.binarySearch(LAZY_TAGS, path.tagName()) >= 0) return LAZY_COST;
+        return TAG_COST;
+    }
+
+////////////////////////////////////////////////////////////////
+// SlotPathRange
+////////////////////////////////////////////////////////////////
+
+    /**
+      * The range of slot paths that axSlotPath comparisons allow.
+      */
+    static final class SlotPathRange
+    {
+        void narrow(String op, String val)
+        {
+            switch (op)
+            {
+                case "==": narrowLow(val, true); narrowHigh(val, true); break;
+                case ">":  narrowLow(val, false);  break;
+                case ">=": narrowLow(val, true);   break;
+                case "<":  narrowHigh(val, false); break;
+                case "<=": narrowHigh(val, true);  break;
+                default: break;
+            }
+        }
+
+        boolean contains(String path)
+        {
+            if (low != null)
+            {
+                int c = path.compareTo(low);
+                if (c < 0 || (c == 0 && !lowInclusive)) return false;
+            }
+            if (high != null)
+            {
+                int c = path.compareTo(high);
+                if (c > 0 || (c == 0 && !highInclusive)) return false;
+            }
+            return true;
+        }
+
+        /**
+          * Return whether the slot path of any descendant of the
+          * component with the given slot path could be in range.
+          */
+        boolean containsBelow(String path)
+        {
+            // Every descendant starts with the prefix, so it is greater
+            // than the prefix, and less than the prefix with its last
+            // character ('/') replaced by the next one ('0').
+            String prefix = path.endsWith("/") ? path : path + '/';
+            String limit = prefix.substring(0, prefix.length() - 1) + (char) ('/' + 1);
+
+            if (high != null && prefix.compareTo(high) >= 0) return false;
+            if (low != null && limit.compareTo(low) <= 0) return false;
+            return true;
+        }
+
+        private void narrowLow(String val, boolean inclusive)
+        {
+            int c = low == null ? 1 : val.compareTo(low);
+            if (c > 0 || (c == 0 && !inclusive))
+            {
+                low = val;
+                lowInclusive = inclusive;
+            }
+        }
+
+        private void narrowHigh(String val, boolean inclusive)
+        {
+            int c = high == null ? -1 : val.compareTo(high);
+            if (c < 0 || (c == 0 && !inclusive))
+            {
+                high = val;
+                highInclusive = inclusive;
+            }
+        }
+
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            if (low != null)
+                sb.append(lowInclusive ? ">= " : "> ").append(HStr.toCode(low));
+            if (high != null)
+            {
+                if (sb.length() > 0) sb.append(" and ");
+                sb.append(highInclusive ? "<= " : "< ").append(HStr.toCode(high));
+            }
+            return sb.toString();
+        }
+
+        private String low;
+        private boolean lowInclusive;
+        private String high;
+        private boolean highInclusive;
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    /** tags that are never on a history record */
+    private static final String[] COMPONENT_ONLY_TAGS = { "axSlotPath", "equip", "site" };
+
+    /** tags that are never on a component record */
+    private static final String[] HISTORY_ONLY_TAGS = { "axHistoryId" };
+
+    // sorted
+    /** tags that the TagManager makes when they are asked for */
+    private static final String[] LAZY_TAGS = {
+        "actions", "axStatus", "curStatus", "curVal", "dis", "hisInterpolate", "id" };
+
+    private static final int TAG_COST  = 0;
+    private static final int LAZY_COST = 1;
+    private static final int PATH_COST = 2;
+    private static final String[] COSTS = { "tag", "lazy", "path" };
+
+    private final String filter;
+    private final FilterNode root;
+    private final HFilter hfilter;
+
+    private boolean components = true;
+    private boolean histories = true;
+    private String axType;
+    private SlotPathRange slotPath;
+
+    private TagIndex estimates;
+    private BitSet candidates;
+    private int componentEstimate = -1;
+    private int historyEstimate = -1;
+}
@@ -10,8 +10,6 @@ package nhaystack.server;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 import javax.baja.driver.BDevice;
 import javax.baja.fox.BFoxProxySession;
@@ -23,6 +21,11 @@ import com.tridium.nd.BNiagaraStation;
 
 class FoxSessionManager
 {
+    FoxSessionManager(LeaseTimer leaseTimer)
+    {
+        this.leaseTimer = leaseTimer;
+    }
+
     /**
       * getSession
       */
@@ -33,6 +36,14 @@ class FoxSessionManager
             String slotPath = station.getSlotPath().toString();
             FoxSession fs = sessions.get(slotPath);
 
+            // the lease may have just expired, in which case the
+            // session is about to be closed, so open a new one
+            if (fs != null && !fs.lease.renew())
+            {
+                sessions.remove(slotPath);
+                fs = null;
+            }
+
             if (fs == null)
             {
                 fs = new FoxSession(slotPath, makeSession(station), leaseInterval);
@@ -41,7 +52,6 @@ class FoxSessionManager
                 LOG.info("opened FoxSession for " + slotPath);
             }
 
-            fs.scheduleTimeout();
             return fs.proxy;
         }
     }
@@ -75,35 +85,23 @@ class FoxSessionManager
         {
             this.slotPath = slotPath;
             this.proxy = proxy;
-            this.leaseInterval = leaseInterval;
+            this.lease = leaseTimer.add("fox " + slotPath, leaseInterval, this::leaseExpired);
         }
 
-        void scheduleTimeout()
+        private void leaseExpired()
         {
-            if (timeout != null) timeout.cancel();
-            timer.schedule(timeout = new Timeout(), leaseInterval);
-        }
-
-        class Timeout extends TimerTask
-        {
-            @Override
-            public void run()
+            synchronized(sessions)
             {
-                synchronized(sessions)
-                {
-                    LOG.info("closed FoxSession for " + slotPath);
-                    proxy.disconnect();
+                LOG.info("closed FoxSession for " + slotPath);
+                proxy.disconnect();
+                if (sessions.get(slotPath) == this)
                     sessions.remove(slotPath);
-                }
             }
         }
 
         final String slotPath;
         final BFoxProxySession proxy;
-        final long leaseInterval;
-
-        final Timer timer = new Timer();
-        Timeout timeout;
+        final LeaseTimer.Lease lease;
     }
 
 ////////////////////////////////////////////////////////////////
@@ -111,5 +109,6 @@ class FoxSessionManager
 ////////////////////////////////////////////////////////////////
 
     private static final Logger LOG = Logger.getLogger("nhaystack.fox");
+    private final LeaseTimer leaseTimer;
     private final Map<String, FoxSession> sessions = new HashMap<>();
 }
@@ -0,0 +1,344 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.io.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * GridStreamWriter writes a grid one row at a time, so that the rows
+ * never have to be collected into an HGrid.  The columns must be
+ * known before the first row is written.
+ * <p>
+ * The output is the same as HZincWriter or HJsonWriter would produce
+ * for a grid with the same meta, columns and rows.  The values of the
+ * grid meta must be scalars.
+ */
+abstract class GridStreamWriter
+{
+  /**
+   * Make a writer for the format, or return null if
+   * the format cannot be streamed.
+   */
+  static GridStreamWriter make(HGridFormat format, OutputStream out)
+  {
+    switch (format.mime)
+    {
+      case "text/zinc":        return new Zinc(out);
+      case "application/json": return new Json(out);
+      default:                 return null;
+    }
+  }
+
+  private GridStreamWriter(OutputStream out)
+  {
+    this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Write the grid header.
+   */
+  final void begin(HDict meta, String[] cols)
+  {
+    begin(meta, cols, null);
+  }
+
+  /**
+   * Write the grid header, with the meta of each column.  The array
+   * of column meta, and any of its items, may be null.
+   */
+  final void begin(HDict meta, String[] cols, HDict[] colMeta)
+  {
+    this.meta = meta;
+    this.cols = cols;
+    this.colMeta = colMeta;
+    this.started = true;
+    writeHeader();
+  }
+
+  /**
+   * Write a row.  Tags which do not have a column are left out.
+   */
+  final void row(HDict rec)
+  {
+    HVal[] cells = new HVal[cols.length];
+    for (int i = 0; i < cols.length; i++)
+    {
+      cells[i] = rec.get(cols[i], false);
+    }
+    row(cells);
+  }
+
+  /**
+   * Write a row, with a cell for each column, any of which may be null.
+   */
+  final void row(HVal[] cells)
+  {
+    writeRow(cells);
+    numRows++;
+  }
+
+  /**
+   * Finish the grid and flush it.
+   */
+  final void end()
+  {
+    writeFooter();
+    out.flush();
+  }
+
+  /**
+   * Return whether anything has been written yet.
+   */
+  final boolean isStarted()
+  {
+    return started;
+  }
+
+  abstract void writeHeader();
+  abstract void writeRow(HVal[] cells);
+  abstract void writeFooter();
+
+  /**
+   * Return the meta of the column, or null if it has none.
+   */
+  final HDict colMeta(int i)
+  {
+    return colMeta == null || colMeta[i] == null || colMeta[i].isEmpty() ? null : colMeta[i];
+  }
+
+////////////////////////////////////////////////////////////////
+// Zinc
+////////////////////////////////////////////////////////////////
+
+  private static class Zinc extends GridStreamWriter
+  {
+    Zinc(OutputStream out)
+    {
+      super(out);
+    }
+
+    @Override
+    void writeHeader()
+    {
+      out.print("ver:\"3.0\"");
+      writeTags(meta);
+      out.print('\n');
+      for (int i = 0; i < cols.length; i++)
+      {
+        if (i > 0)
+        {
+          out.print(',');
+        }
+        out.print(cols[i]);
+        HDict tags = colMeta(i);
+        if (tags != null)
+        {
+          writeTags(tags);
+        }
+      }
+      out.print('\n');
+    }
+
+    @Override
+    void writeRow(HVal[] cells)
+    {
+      for (int i = 0; i < cols.length; i++)
+      {
+        HVal val = cells[i];
+        if (i > 0)
+        {
+          out.print(',');
+        }
+        if (val == null)
+        {
+          if (i == 0)
+          {
+            out.print('N');
+          }
+        }
+        else
+        {
+          out.print(val.toZinc());
+        }
+      }
+      out.print('\n');
+    }
+
+    @Override
+    void writeFooter()
+    {
+    }
+
+    private void writeTags(HDict tags)
+    {
+      for (Iterator<?> it = tags.iterator(); it.hasNext(); )
+      {
+        Map.Entry<?, ?> e = (Map.Entry<?, ?>) it.next();
+        out.print(' ');
+        out.print(e.getKey());
+        if (e.getValue() != HMarker.VAL)
+        {
+          out.print(':');
+          out.print(((HVal) e.getValue()).toZinc());
+        }
+      }
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// Json
+////////////////////////////////////////////////////////////////
+
+  private static class Json extends GridStreamWriter
+  {
+    Json(OutputStream out)
+    {
+      super(out);
+    }
+
+    @Override
+    void writeHeader()
+    {
+      out.print("{\n");
+      out.print("\"meta\": {\"ver\":\"3.0\"");
+      writeTags(meta);
+      out.print("},\n");
+      out.print("\"cols\":[\n");
+      for (int i = 0; i < cols.length; i++)
+      {
+        if (i > 0)
+        {
+          out.print(",\n");
+        }
+        out.print("{\"name\":");
+        out.print(HStr.toCode(cols[i]));
+        HDict tags = colMeta(i);
+        if (tags != null)
+        {
+          writeTags(tags);
+        }
+        out.print("}");
+      }
+      out.print("\n],\n");
+      out.print("\"rows\":[\n");
+    }
+
+    @Override
+    void writeRow(HVal[] cells)
+    {
+      if (numRows > 0)
+      {
+        out.print(",\n");
+      }
+
+      out.print("{");
+      boolean first = true;
+      for (int i = 0; i < cols.length; i++)
+      {
+        HVal val = cells[i];
+        if (val == null)
+        {
+          continue;
+        }
+        if (!first)
+        {
+          out.print(", ");
+        }
+        first = false;
+        out.print(HStr.toCode(cols[i]));
+        out.print(":");
+        writeVal(val);
+      }
+      out.print("}");
+    }
+
+    @Override
+    void writeFooter()
+    {
+      out.print("\n]\n");
+      out.print("}\n");
+    }
+
+    private void writeTags(HDict tags)
+    {
+      for (Iterator<?> it = tags.iterator(); it.hasNext(); )
+      {
+        Map.Entry<?, ?> e = (Map.Entry<?, ?>) it.next();
+        out.print(", ");
+        out.print(HStr.toCode((String) e.getKey()));
+        out.print(":");
+        writeVal((HVal) e.getValue());
+      }
+    }
+
+    private void writeVal(HVal val)
+    {
+      if (val instanceof HBool)
+      {
+        out.print(val);
+      }
+      else if (val instanceof HDict)
+      {
+        out.print("{");
+        boolean first = true;
+        for (Iterator<?> it = ((HDict) val).iterator(); it.hasNext(); )
+        {
+          Map.Entry<?, ?> e = (Map.Entry<?, ?>) it.next();
+          if (!first)
+          {
+            out.print(", ");
+          }
+          first = false;
+          out.print(HStr.toCode((String) e.getKey()));
+          out.print(":");
+          writeVal((HVal) e.getValue());
+        }
+        out.print("}");
+      }
+      else if (val instanceof HList)
+      {
+        HList list = (HList) val;
+        out.print("[");
+        for (int i = 0; i < list.size(); i++)
+        {
+          if (i > 0)
+          {
+            out.print(",");
+          }
+          writeVal(list.get(i));
+        }
+        out.print("]");
+      }
+      else if (val instanceof HGrid)
+      {
+        out.print(HJsonWriter.gridToString((HGrid) val));
+      }
+      else
+      {
+        out.print(HStr.toCode(val.toJson()));
+      }
+    }
+  }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+  final PrintWriter out;
+  HDict meta;
+  String[] cols;
+  private HDict[] colMeta;
+  int numRows;
+  private boolean started;
+}
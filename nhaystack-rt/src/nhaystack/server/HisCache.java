@@ -0,0 +1,454 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryEvent;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BHistoryService;
+import javax.baja.history.HistoryEventListener;
+import javax.baja.spy.SpyWriter;
+import javax.baja.sys.Clock;
+import javax.baja.sys.Sys;
+
+/**
+  * HisCache keeps the recent records of the histories which are read
+  * often, so that dashboards which keep asking for "today" or the last
+  * day of the same points do not read the history database every time.
+  * <p>
+  * Each history has a ring buffer of its latest records, as a long[] of
+  * timestamps and a double[] of values, which holds every record after
+  * the start of its window.  A read whose range starts inside the window
+  * is a hit, but it is still helped by the database: the records after
+  * the latest one in the ring are fetched with a timeQuery, and the rest
+  * come from the ring.  If the ring has to drop records from the range
+  * to take the new ones, the read misses after all.  A read of a recent
+  * range which misses fills a new ring from the records it reads, as
+  * long as the range starts less than MAX_WINDOW ago.  Other reads are
+  * not cached.
+  * <p>
+  * The ring only ever takes records which are later than the ones it
+  * holds, so anything which changes the records it holds drops it:
+  * a write through NHServer, and any event of the history service about
+  * the history.  Records which are inserted behind the ring some other
+  * way are seen once the ring is refilled, at most MAX_AGE after it was
+  * made.
+  * <p>
+  * A ring holds at most MAX_RECORDS records, dropping the oldest, and
+  * all the rings together hold at most MAX_TOTAL_RECORDS, dropping the
+  * least recently read history.  Only histories whose values fit in a
+  * double are cached: numeric, boolean and enum.
+  */
+class HisCache
+{
+    /**
+      * Reads the records of a history after one time and up to another
+      * from the database, and returns the number of records read.
+      */
+    interface Scanner
+    {
+        int scan(BHistoryConfig cfg, HisDecoder decoder, long after, long end, HisDecoder.Sink sink);
+    }
+
+    HisCache(BNHaystackService service)
+    {
+        this.service = service;
+    }
+
+    /**
+      * Pass the records of the history after start and up to end to
+      * the sink, from the ring if it holds them, and otherwise from the
+      * scanner.  Return the number of records read.
+      */
+    int read(
+        BHistoryConfig cfg, HisDecoder decoder,
+        long start, long end,
+        HisDecoder.Sink sink, Scanner scanner)
+    {
+        long now = Clock.millis();
+        if (!decoder.isCached() || end < now - RECENT)
+            return scanner.scan(cfg, decoder, start, end, sink);
+
+        BHistoryId id = cfg.getId();
+        Ring ring = get(id, now);
+        if (ring != null)
+        {
+            long[] times;
+            double[] nums;
+            synchronized (ring)
+            {
+                if (ring.catchUp(cfg, decoder, start, Math.max(end, now), scanner))
+                {
+                    int from = ring.indexAfter(start);
+                    int to = ring.indexAfter(end);
+                    times = new long[to - from];
+                    nums = new double[to - from];
+                    ring.copy(from, times, nums);
+                }
+                else
+                {
+                    times = null;
+                    nums = null;
+                }
+            }
+            grown(ring);
+
+            if (times != null)
+            {
+                hits.increment();
+                updateStats(now);
+                write(decoder, times, nums, sink);
+                return times.length;
+            }
+        }
+
+        misses.increment();
+        updateStats(now);
+
+        // do not keep a year of records because a chart asked for them
+        if (start < now - MAX_WINDOW)
+            return scanner.scan(cfg, decoder, start, end, sink);
+
+        Ring fresh = new Ring(start, now);
+        int count = scanner.scan(cfg, decoder, start, end, (d, n) ->
+        {
+            fresh.append(d.times, d.nums, n);
+            sink.chunk(d, n);
+        });
+        put(id, fresh);
+        return count;
+    }
+
+    /**
+      * Forget the records of the history, because they have been
+      * changed.
+      */
+    void invalidate(BHistoryId id)
+    {
+        remove(id);
+    }
+
+    /**
+      * Forget everything, and stop listening to the history service.
+      */
+    synchronized void stop()
+    {
+        rings.clear();
+        totalRecords.set(0);
+
+        if (historyService != null)
+        {
+            historyService.removeHistoryEventListener(historyListener);
+            historyService = null;
+        }
+    }
+
+    void spy(SpyWriter out) throws Exception
+    {
+        int size;
+        synchronized (this) { size = rings.size(); }
+
+        out.startProps();
+        out.trTitle("History Cache", 2);
+        out.prop("histories", size);
+        out.prop("records", totalRecords.get());
+        out.prop("hits", hits.sum());
+        out.prop("misses", misses.sum());
+        out.prop("evictions", evictions.sum());
+        out.endProps();
+    }
+
+    long getHits() { return hits.sum(); }
+    long getMisses() { return misses.sum(); }
+
+////////////////////////////////////////////////////////////////
+// Ring
+////////////////////////////////////////////////////////////////
+
+    /**
+      * The latest records of one history, in time order.  It starts
+      * small, and doubles in size until it reaches MAX_RECORDS.
+      */
+    static final class Ring
+    {
+        Ring(long windowStart, long created)
+        {
+            this.windowStart = windowStart;
+            this.coveredTo = windowStart;
+            this.created = created;
+        }
+
+        /**
+          * Append records which are later than the ones already held.
+          */
+        void append(long[] t, double[] v, int n)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                if (t[i] <= coveredTo) continue;
+
+                if (size == times.length)
+                {
+                    if (times.length < MAX_RECORDS)
+                    {
+                        grow();
+                    }
+                    else
+                    {
+                        // the window now starts at the dropped record
+                        windowStart = times[head];
+                        head = (head + 1) % times.length;
+                        size--;
+                    }
+                }
+
+                int j = (head + size) % times.length;
+                times[j] = t[i];
+                nums[j] = v[i];
+                size++;
+                coveredTo = t[i];
+            }
+        }
+
+        /**
+          * Fetch the records which have been appended to the history since
+          * the last read, up to the time 'to', if the ring holds every
+          * record after start.  Return whether it still does: a full ring
+          * drops its oldest records to take the new ones.
+          */
+        boolean catchUp(BHistoryConfig cfg, HisDecoder decoder, long start, long to, Scanner scanner)
+        {
+            if (start < windowStart) return false;
+
+            scanner.scan(cfg, decoder, coveredTo, to, (d, n) -> append(d.times, d.nums, n));
+            return start >= windowStart;
+        }
+
+        /**
+          * Return the position of the first record after the time.
+          */
+        int indexAfter(long time)
+        {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (times[(head + mid) % times.length] <= time)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        int size() { return size; }
+
+        int capacity() { return times.length; }
+
+        void copy(int from, long[] t, double[] v)
+        {
+            for (int i = 0; i < t.length; i++)
+            {
+                int j = (head + from + i) % times.length;
+                t[i] = times[j];
+                v[i] = nums[j];
+            }
+        }
+
+        private void grow()
+        {
+            int len = Math.min(times.length * 2, MAX_RECORDS);
+            long[] t = new long[len];
+            double[] v = new double[len];
+            for (int i = 0; i < size; i++)
+            {
+                int j = (head + i) % times.length;
+                t[i] = times[j];
+                v[i] = nums[j];
+            }
+            times = t;
+            nums = v;
+            head = 0;
+        }
+
+        /** every record after this time is held */
+        long windowStart;
+
+        /** the time of the latest record which has been read */
+        long coveredTo;
+
+        /** when the ring was made */
+        final long created;
+
+        /** the capacity which has been added to totalRecords */
+        int counted;
+
+        private long[] times = new long[INITIAL_RECORDS];
+        private double[] nums = new double[INITIAL_RECORDS];
+        private int head;
+        private int size;
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return the ring of the history, unless it is too old to be used.
+      */
+    private synchronized Ring get(BHistoryId id, long now)
+    {
+        Ring ring = rings.get(id);
+        if (ring != null && now - ring.created > MAX_AGE)
+        {
+            rings.remove(id);
+            totalRecords.addAndGet(-ring.counted);
+            return null;
+        }
+        return ring;
+    }
+
+    private void put(BHistoryId id, Ring ring)
+    {
+        synchronized (this)
+        {
+            if (historyService == null)
+            {
+                historyService = (BHistoryService) Sys.getService(BHistoryService.TYPE);
+                historyService.addHistoryEventListener(historyListener);
+            }
+
+            Ring old = rings.put(id, ring);
+            if (old != null)
+                totalRecords.addAndGet(-old.counted);
+        }
+        grown(ring);
+    }
+
+    /**
+      * Count the capacity of the ring, and drop the least recently
+      * read rings while there are too many records.
+      */
+    private void grown(Ring ring)
+    {
+        int delta;
+        synchronized (ring)
+        {
+            delta = ring.times.length - ring.counted;
+            ring.counted = ring.times.length;
+        }
+        if (delta == 0) return;
+
+        synchronized (this)
+        {
+            // the ring may have been dropped in the meantime
+            if (!rings.containsValue(ring)) return;
+
+            totalRecords.addAndGet(delta);
+            Iterator<Ring> it = rings.values().iterator();
+            while (totalRecords.get() > MAX_TOTAL_RECORDS && it.hasNext())
+            {
+                Ring eldest = it.next();
+                if (eldest == ring) continue;
+
+                it.remove();
+                totalRecords.addAndGet(-eldest.counted);
+                evictions.increment();
+            }
+        }
+    }
+
+    private synchronized void remove(BHistoryId id)
+    {
+        Ring old = rings.remove(id);
+        if (old != null)
+            totalRecords.addAndGet(-old.counted);
+    }
+
+    /**
+      * Make the values from the ring's copy, a chunk at a time, in the
+      * decoder's buffers.
+      */
+    private static void write(HisDecoder decoder, long[] times, double[] nums, HisDecoder.Sink sink)
+    {
+        for (int i = 0; i < times.length; i += HisDecoder.CHUNK)
+        {
+            int n = Math.min(HisDecoder.CHUNK, times.length - i);
+            System.arraycopy(times, i, decoder.times, 0, n);
+            System.arraycopy(nums, i, decoder.nums, 0, n);
+            sink.chunk(decoder, n);
+        }
+    }
+
+    /**
+      * Copy the counters to the service's stats, at most once a second.
+      */
+    private void updateStats(long now)
+    {
+        if (now - lastStatsUpdate < 1000) return;
+        lastStatsUpdate = now;
+
+        BNHaystackStats stats = service.getStats();
+        stats.setHisCacheHits(hits.sum());
+        stats.setHisCacheMisses(misses.sum());
+    }
+
+    private class HisCacheListener implements HistoryEventListener
+    {
+        /**
+          * Every event about a history, whether it was created, deleted,
+          * renamed, reconfigured or had records removed, may change the
+          * records it holds, so its ring is dropped.
+          */
+        @Override
+        public void historyEvent(BHistoryEvent event)
+        {
+            remove(event.getHistoryId());
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    /** a read is only cached if its range ends less than this long ago */
+    private static final long RECENT = 60 * 60 * 1000L;
+
+    /** a read which misses is only cached if its range starts less than this long ago */
+    static final long MAX_WINDOW = 2 * 24 * 60 * 60 * 1000L;
+
+    /** a ring is refilled from the database once it is this old */
+    static final long MAX_AGE = 15 * 60 * 1000L;
+
+    private static final int INITIAL_RECORDS = 64;
+
+    /** enough for a day of records every 15 seconds */
+    static final int MAX_RECORDS = 8192;
+
+    /** 2M records take about 32MB */
+    static final long MAX_TOTAL_RECORDS = 2000000;
+
+    private final BNHaystackService service;
+    private final HistoryEventListener historyListener = new HisCacheListener();
+    private BHistoryService historyService;
+
+    /** in order of last access, so the first is the least recently read */
+    private final Map<BHistoryId, Ring> rings = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong totalRecords = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile long lastStatsUpdate;
+}
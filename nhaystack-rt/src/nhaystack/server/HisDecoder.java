@@ -0,0 +1,285 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.baja.history.BBooleanTrendRecord;
+import javax.baja.history.BEnumTrendRecord;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryRecord;
+import javax.baja.history.BNumericTrendRecord;
+import javax.baja.history.BTrendRecord;
+import javax.baja.sys.BDynamicEnum;
+import javax.baja.sys.BEnumRange;
+import javax.baja.sys.BFacets;
+import javax.baja.sys.Property;
+import javax.baja.sys.Type;
+import nhaystack.util.SlotUtil;
+import org.projecthaystack.HBool;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HStr;
+import org.projecthaystack.HVal;
+
+/**
+  * HisDecoder reads history records into column buffers, a chunk at
+  * a time.  The timestamps go into a long[], and the values of numeric,
+  * boolean and enum histories into a double[], so that nothing is boxed
+  * while the cursor is read.  HVals are only made by val(), when the
+  * chunk is written out.
+  * <p>
+  * The decoder is chosen once per query from the record type of the
+  * history, which is also when the value slot and, for an enum history,
+  * its range are looked up.
+  */
+abstract class HisDecoder
+{
+    /**
+      * Make the decoder for the records of the history.
+      */
+    static HisDecoder make(BHistoryConfig cfg, HStr unit)
+    {
+        Type recType = cfg.getRecordType().getResolvedType();
+
+        // if its not a BTrendRecord, the value is the whole record
+        if (!recType.is(BTrendRecord.TYPE))
+            return new RecordDecoder();
+
+        Property value = ((BHistoryRecord) recType.getInstance()).getProperty("value");
+        if (recType.is(BNumericTrendRecord.TYPE))
+            return new NumericDecoder(value, unit == null ? null : unit.val);
+        if (recType.is(BBooleanTrendRecord.TYPE))
+            return new BooleanDecoder(value);
+        if (recType.is(BEnumTrendRecord.TYPE))
+            return new EnumDecoder(value, (BEnumRange) ((BFacets) cfg.get("valueFacets")).get("range"));
+        return new StringDecoder(value);
+    }
+
+    /**
+      * Decode the record into row i of the buffers, and return its
+      * timestamp.
+      */
+    abstract long read(BHistoryRecord rec, int i);
+
+    /**
+      * Make the value of row i.
+      */
+    abstract HVal val(int i);
+
+    /**
+      * Make the value from what read() put in nums.  This is only
+      * supported if isCached() is true.
+      */
+    HVal toVal(double num)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+      * Return whether nums holds numeric values, so that they can be
+      * rolled up.
+      */
+    boolean isNumeric() { return false; }
+
+    /**
+      * Return whether nums holds all there is to know about the
+      * values, so that they can be kept in the HisCache.
+      */
+    boolean isCached() { return isNumeric(); }
+
+    /**
+      * Takes each chunk of records, once the first n rows of the
+      * decoder's buffers have been filled.
+      */
+    interface Sink
+    {
+        void chunk(HisDecoder decoder, int n);
+    }
+
+    /**
+      * Decode the record into the next row of the buffers, unless its
+      * timestamp is the given one, which a timeQuery includes but a
+      * haystack range does not.  When the buffers are full, pass them
+      * to the sink.  Return false if the record was left out.
+      */
+    final boolean add(BHistoryRecord rec, long after, Sink sink)
+    {
+        if (read(rec, rows) == after)
+            return false;
+
+        if (++rows == CHUNK)
+        {
+            sink.chunk(this, rows);
+            rows = 0;
+        }
+        return true;
+    }
+
+    /**
+      * Pass the rows which have not been passed on yet to the sink.
+      * This must be called after the last record has been added.
+      */
+    final void flush(Sink sink)
+    {
+        if (rows > 0)
+        {
+            sink.chunk(this, rows);
+            rows = 0;
+        }
+    }
+
+    final long[] times = new long[CHUNK];
+    final double[] nums = new double[CHUNK];
+
+    /** the number of rows which have been added but not passed on */
+    private int rows;
+
+    /** the number of records which are read before they are written */
+    static final int CHUNK = 1024;
+
+////////////////////////////////////////////////////////////////
+// decoders
+////////////////////////////////////////////////////////////////
+
+    private static final class NumericDecoder extends HisDecoder
+    {
+        NumericDecoder(Property value, String unit)
+        {
+            this.value = value;
+            this.unit = unit;
+        }
+
+        long read(BHistoryRecord rec, int i)
+        {
+            nums[i] = rec.getDouble(value);
+            return times[i] = rec.getTimestamp().getMillis();
+        }
+
+        HVal val(int i)
+        {
+            return toVal(nums[i]);
+        }
+
+        HVal toVal(double num)
+        {
+            return unit == null ? HNum.make(num) : HNum.make(num, unit);
+        }
+
+        boolean isNumeric() { return true; }
+
+        private final Property value;
+        private final String unit;
+    }
+
+    private static final class BooleanDecoder extends HisDecoder
+    {
+        BooleanDecoder(Property value)
+        {
+            this.value = value;
+        }
+
+        long read(BHistoryRecord rec, int i)
+        {
+            nums[i] = rec.getBoolean(value) ? 1 : 0;
+            return times[i] = rec.getTimestamp().getMillis();
+        }
+
+        HVal val(int i)
+        {
+            return toVal(nums[i]);
+        }
+
+        HVal toVal(double num)
+        {
+            return HBool.make(num != 0);
+        }
+
+        boolean isNumeric() { return true; }
+
+        private final Property value;
+    }
+
+    /**
+      * Keeps the ordinal in nums, and makes the tag of each ordinal once.
+      */
+    private static final class EnumDecoder extends HisDecoder
+    {
+        EnumDecoder(Property value, BEnumRange range)
+        {
+            this.value = value;
+            this.range = range;
+        }
+
+        long read(BHistoryRecord rec, int i)
+        {
+            nums[i] = ((BDynamicEnum) rec.get(value)).getOrdinal();
+            return times[i] = rec.getTimestamp().getMillis();
+        }
+
+        HVal val(int i)
+        {
+            return toVal(nums[i]);
+        }
+
+        HVal toVal(double num)
+        {
+            int ordinal = (int) num;
+            HStr tag = tags.get(ordinal);
+            if (tag == null)
+            {
+                tag = HStr.make(SlotUtil.fromNiagara(range.getTag(ordinal)));
+                tags.put(ordinal, tag);
+            }
+            return tag;
+        }
+
+        boolean isCached() { return true; }
+
+        private final Property value;
+        private final BEnumRange range;
+        private final Map<Integer, HStr> tags = new HashMap<>();
+    }
+
+    private static final class StringDecoder extends HisDecoder
+    {
+        StringDecoder(Property value)
+        {
+            this.value = value;
+        }
+
+        long read(BHistoryRecord rec, int i)
+        {
+            strs[i] = rec.get(value).toString();
+            return times[i] = rec.getTimestamp().getMillis();
+        }
+
+        HVal val(int i)
+        {
+            return HStr.make(strs[i]);
+        }
+
+        private final Property value;
+        private final String[] strs = new String[CHUNK];
+    }
+
+    private static final class RecordDecoder extends HisDecoder
+    {
+        long read(BHistoryRecord rec, int i)
+        {
+            strs[i] = rec.toString();
+            return times[i] = rec.getTimestamp().getMillis();
+        }
+
+        HVal val(int i)
+        {
+            return HStr.make(strs[i]);
+        }
+
+        private final String[] strs = new String[CHUNK];
+    }
+}
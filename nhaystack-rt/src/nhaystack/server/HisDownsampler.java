@@ -0,0 +1,108 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.function.Consumer;
+import org.projecthaystack.HHisItem;
+import org.projecthaystack.HNum;
+
+/**
+  * HisDownsampler thins out the items of a history, as they are read,
+  * so that no more than maxPoints of them are passed on.
+  * <p>
+  * The range is split into maxPoints / 2 buckets of equal time.  Of the
+  * items in a bucket, only the one with the smallest value and the one
+  * with the largest are passed on, in time order, so that a chart drawn
+  * from them still shows every peak and trough.  Items which are not
+  * numbers are thinned to the first and last of each bucket.
+  * <p>
+  * Only the two items of the open bucket are held, so the series is
+  * never buffered.  The items must be given in time order.
+  */
+class HisDownsampler implements Consumer<HHisItem>
+{
+    HisDownsampler(long start, long end, int maxPoints, Consumer<HHisItem> out)
+    {
+        if (maxPoints < 2)
+            throw new IllegalArgumentException("maxPoints must be at least 2: " + maxPoints);
+
+        int buckets = maxPoints / 2;
+        this.start = start;
+        this.width = Math.max(1, (end - start + buckets - 1) / buckets);
+        this.lastBucket = buckets - 1;
+        this.out = out;
+    }
+
+    @Override
+    public void accept(HHisItem item)
+    {
+        // the history query includes the end of the range
+        long bucket = Math.max(0, Math.min((item.ts.millis() - start) / width, lastBucket));
+        if (bucket != current)
+        {
+            flush();
+            current = bucket;
+            min = item;
+            max = item;
+            return;
+        }
+
+        if (item.val instanceof HNum && min.val instanceof HNum)
+        {
+            double val = ((HNum) item.val).val;
+            if (val < ((HNum) min.val).val || Double.isNaN(((HNum) min.val).val))
+                min = item;
+            else if (val > ((HNum) max.val).val || Double.isNaN(((HNum) max.val).val))
+                max = item;
+        }
+        else
+        {
+            max = item;
+        }
+    }
+
+    /**
+      * Pass on the items of the last bucket.  This must be called
+      * after the last item has been given.
+      */
+    void flush()
+    {
+        if (min == null) return;
+
+        if (min == max)
+        {
+            out.accept(min);
+        }
+        else if (min.ts.millis() <= max.ts.millis())
+        {
+            out.accept(min);
+            out.accept(max);
+        }
+        else
+        {
+            out.accept(max);
+            out.accept(min);
+        }
+        min = null;
+        max = null;
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private final long start;
+    private final long width;
+    private final long lastBucket;
+    private final Consumer<HHisItem> out;
+
+    // the open bucket
+    private long current = -1;
+    private HHisItem min;
+    private HHisItem max;
+}
@@ -0,0 +1,144 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.io.*;
+import org.projecthaystack.server.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The 'hisReadMulti' op reads the histories of many points over the same
+ * range in one request.  Each row of the request has the id of a point,
+ * and the range is in the meta, or else in the first row.
+ * <p>
+ * The histories are read in parallel, and returned as one grid, with
+ * a ts column and a column for each point, named v0, v1, ... in the
+ * order of the request, whose meta holds the point's id.  When the result
+ * is asked for in zinc or json, each row is written to the response as
+ * soon as it has been merged.
+ */
+public class HisReadMultiOp extends HOp
+{
+  public HisReadMultiOp()
+  {
+  }
+
+  @Override
+  public String name()
+  {
+    return "hisReadMulti";
+  }
+
+  @Override
+  public String summary()
+  {
+    return "Read time series of many points from historian";
+  }
+
+  @Override
+  public void onService(HServer db, HttpServletRequest req, HttpServletResponse res) throws Exception
+  {
+    HGrid reqGrid = null;
+    if (req.getMethod().equals("GET"))
+    {
+      reqGrid = StreamReadOp.getToGrid(req);
+    }
+    else if (req.getMethod().equals("POST"))
+    {
+      reqGrid = StreamReadOp.postToGrid(req, res);
+      if (reqGrid == null)
+      {
+        return;
+      }
+    }
+
+    HGridFormat format = StreamReadOp.toFormat(req);
+    StreamReadOp.startResponse(res, format);
+
+    GridStreamWriter stream = GridStreamWriter.make(format, res.getOutputStream());
+    if (stream != null && reqGrid != null && !reqGrid.isEmpty())
+    {
+      try
+      {
+        ((NHServer) db).streamHisReadMulti(toIds(db, reqGrid), toRange(reqGrid), stream);
+        return;
+      }
+      catch (Throwable e)
+      {
+        // once the header has gone out there is no way to report
+        // the error, so the client will see a truncated grid
+        if (stream.isStarted())
+        {
+          LOG.log(Level.SEVERE, "Cannot finish hisReadMulti of " + reqGrid.numRows() + " ids", e);
+          throw e;
+        }
+        StreamReadOp.writeGrid(format, res, HGridBuilder.errToGrid(e));
+        return;
+      }
+    }
+
+    HGrid result;
+    try
+    {
+      if (reqGrid == null)
+      {
+        throw new Exception("Unsupported method " + req.getMethod());
+      }
+      result = onService(db, reqGrid);
+    }
+    catch (Throwable e)
+    {
+      result = HGridBuilder.errToGrid(e);
+    }
+    StreamReadOp.writeGrid(format, res, result);
+  }
+
+  @Override
+  public HGrid onService(HServer db, HGrid req) throws Exception
+  {
+    if (req.isEmpty())
+    {
+      throw new Exception("Request has no rows");
+    }
+
+    return ((NHServer) db).hisReadMulti(toIds(db, req), toRange(req));
+  }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+  private static HRef[] toIds(HServer db, HGrid req)
+  {
+    HRef[] ids = new HRef[req.numRows()];
+    for (int i = 0; i < ids.length; i++)
+    {
+      ids[i] = WatchSubOp.valToId(db, req.row(i).get("id"));
+    }
+    return ids;
+  }
+
+  private static String toRange(HGrid req)
+  {
+    return req.meta().has("range") ?
+      req.meta().getStr("range") :
+      req.row(0).getStr("range");
+  }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG = Logger.getLogger("nhaystack");
+}
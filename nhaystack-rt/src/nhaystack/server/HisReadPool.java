@@ -0,0 +1,130 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.baja.spy.SpyWriter;
+
+/**
+  * HisReadPool runs history queries on a small, fixed number of threads,
+  * so that a request for many histories does not read them one by one,
+  * and many such requests cannot swamp the history database.
+  * <p>
+  * The threads are made when they are first needed, and die when they
+  * have been idle for a minute.
+  */
+class HisReadPool
+{
+    /**
+      * Run the tasks, and return their results in the same order.  If
+      * any of them fails, the first failure is thrown, after all the
+      * tasks have finished.
+      */
+    <T> List<T> invokeAll(List<Callable<T>> tasks) throws Exception
+    {
+        List<T> results = new ArrayList<>(tasks.size());
+
+        // no need to hand a single query to another thread
+        if (tasks.size() == 1)
+        {
+            queries.increment();
+            results.add(tasks.get(0).call());
+            return results;
+        }
+
+        List<Future<T>> futures = executor().invokeAll(tasks);
+        queries.add(tasks.size());
+        for (Future<T> future : futures)
+        {
+            try
+            {
+                results.add(future.get());
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    /**
+      * Stop the threads.  Queries which are running are interrupted.
+      */
+    synchronized void stop()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    void spy(SpyWriter out) throws Exception
+    {
+        ThreadPoolExecutor exec;
+        synchronized (this) { exec = executor; }
+
+        out.startProps();
+        out.trTitle("History Read Pool", 2);
+        out.prop("threads", exec == null ? 0 : exec.getPoolSize());
+        out.prop("maxThreads", POOL_SIZE);
+        out.prop("queued", exec == null ? 0 : exec.getQueue().size());
+        out.prop("queries", queries.sum());
+        out.endProps();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private synchronized ThreadPoolExecutor executor()
+    {
+        if (executor == null)
+        {
+            AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(
+                POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r ->
+                {
+                    Thread thread = new Thread(r, "NHaystack:HisRead-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    /**
+      * The history database is mostly limited by the disk, so a few
+      * threads are enough, even on a big server.
+      */
+    static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private ThreadPoolExecutor executor;
+
+    private final LongAdder queries = new LongAdder();
+}
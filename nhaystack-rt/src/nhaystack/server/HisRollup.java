@@ -0,0 +1,177 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HGridBuilder;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HTimeZone;
+import org.projecthaystack.HVal;
+
+/**
+  * HisRollup folds the records of a history into fixed intervals,
+  * in a single pass over the records, which must be in time order.
+  * <p>
+  * The intervals start at the beginning of the range.  Only one interval
+  * is open at a time, and its running count, sum, min, max, first and
+  * last are kept as primitives, so that no object is made per record.
+  */
+class HisRollup
+{
+    /**
+      * Make a rollup of the range start..end into intervals of the
+      * given number of millis.  The fold is one of avg, min, max, sum,
+      * count, first, last or delta.
+      */
+    HisRollup(String fold, long start, long end, long interval, HTimeZone tz, String unit)
+    {
+        this.fold = parseFold(fold);
+
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval must be positive: " + interval + "ms");
+        long size = (end - start + interval - 1) / interval;
+        if (size > MAX_INTERVALS)
+            throw new IllegalArgumentException(
+                "Too many intervals: " + size + ", the limit is " + MAX_INTERVALS);
+
+        this.start = start;
+        this.interval = interval;
+        this.tz = tz;
+        this.unit = this.fold == COUNT ? null : unit;
+        this.vals = new HVal[(int) Math.max(size, 1)];
+    }
+
+    /**
+      * Add the value of a record.  NaN values, and records
+      * before the start of the range, are ignored.
+      */
+    void add(long millis, double val)
+    {
+        if (Double.isNaN(val) || millis < start) return;
+
+        // the history query includes the end of the range
+        int index = (int) Math.min((millis - start) / interval, vals.length - 1);
+
+        if (index != current)
+        {
+            close();
+            current = index;
+            count = 0;
+            sum = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            first = val;
+        }
+
+        count++;
+        sum += val;
+        if (val < min) min = val;
+        if (val > max) max = val;
+        last = val;
+    }
+
+    /**
+      * Return the grid, with one row per interval.  The val of an
+      * interval which has no records is null.
+      */
+    HGrid toGrid(HDict meta)
+    {
+        close();
+        current = -1;
+
+        HGridBuilder b = new HGridBuilder();
+        b.meta().add(meta);
+        b.addCol("ts");
+        b.addCol("val");
+        for (int i = 0; i < vals.length; i++)
+        {
+            b.addRow(new HVal[] {
+                HDateTime.make(start + i * interval, tz),
+                vals[i] });
+        }
+        return b.toGrid();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Store the value of the open interval.
+      */
+    private void close()
+    {
+        if (current < 0) return;
+
+        double val;
+        switch (fold)
+        {
+            case AVG:   val = sum / count; break;
+            case MIN:   val = min; break;
+            case MAX:   val = max; break;
+            case SUM:   val = sum; break;
+            case COUNT: val = count; break;
+            case FIRST: val = first; break;
+            case LAST:  val = last; break;
+            case DELTA:
+                // the change since the end of the previous interval which
+                // had records, so that a meter's consumption is not lost
+                // between two intervals
+                val = Double.isNaN(prevLast) ? last - first : last - prevLast;
+                break;
+            default: throw new IllegalStateException();
+        }
+        vals[current] = unit == null ? HNum.make(val) : HNum.make(val, unit);
+        prevLast = last;
+    }
+
+    private static int parseFold(String fold)
+    {
+        for (int i = 0; i < FOLDS.length; i++)
+            if (FOLDS[i].equals(fold))
+                return i;
+
+        throw new IllegalArgumentException(
+            "Unknown fold '" + fold + "', expected one of avg, min, max, sum, count, first, last, delta");
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    static final int MAX_INTERVALS = 100000;
+
+    private static final String[] FOLDS = { "avg", "min", "max", "sum", "count", "first", "last", "delta" };
+    private static final int AVG   = 0;
+    private static final int MIN   = 1;
+    private static final int MAX   = 2;
+    private static final int SUM   = 3;
+    private static final int COUNT = 4;
+    private static final int FIRST = 5;
+    private static final int LAST  = 6;
+    private static final int DELTA = 7;
+
+    private final int fold;
+    private final long start;
+    private final long interval;
+    private final HTimeZone tz;
+    private final String unit;
+    private final HVal[] vals;
+
+    // the open interval
+    private int current = -1;
+    private long count;
+    private double sum;
+    private double min;
+    private double max;
+    private double first;
+    private double last;
+    private double prevLast = Double.NaN;
+}
@@ -0,0 +1,62 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.server.*;
+
+/**
+ * The 'hisRollup' op folds a history into fixed intervals on the server,
+ * so that a client which wants, say, the daily total of a meter over a
+ * month gets one row per day rather than every record.
+ * <p>
+ * The request has one row, with these cells:
+ * <ul>
+ *   <li>id: the historized point</li>
+ *   <li>range: the same as for hisRead</li>
+ *   <li>interval: the length of each interval, such as 15min or 1day</li>
+ *   <li>fold: avg, min, max, sum, count, first, last or delta</li>
+ * </ul>
+ * The intervals start at the beginning of the range.  The response has
+ * the same columns as a hisRead response, with one row per interval.
+ */
+public class HisRollupOp extends HOp
+{
+  public HisRollupOp()
+  {
+  }
+
+  @Override
+  public String name()
+  {
+    return "hisRollup";
+  }
+
+  @Override
+  public String summary()
+  {
+    return "Roll up time series into intervals";
+  }
+
+  @Override
+  public HGrid onService(HServer db, HGrid req) throws Exception
+  {
+    if (req.isEmpty())
+    {
+      throw new Exception("Request has no rows");
+    }
+
+    HRow row = req.row(0);
+    return ((NHServer) db).hisRollup(
+      WatchSubOp.valToId(db, row.get("id")),
+      row.getStr("range"),
+      (HNum) row.get("interval"),
+      row.getStr("fold"));
+  }
+}
@@ -0,0 +1,54 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.server.*;
+
+/**
+ * Replaces the standard 'hisWrite' op, so that a large backfill is
+ * written in bulk.  The request is the same: the meta has the id, and
+ * each row has a ts and a val.
+ * <p>
+ * The response has one row, with the number of items which were
+ * 'written', 'skipped' because they were no later than the last record
+ * of the history, or than another item, and 'rejected' because their
+ * value was not of the point's kind.  See NHServer.writeHistory().
+ */
+public class HisWriteOp extends HOp
+{
+  public HisWriteOp()
+  {
+  }
+
+  @Override
+  public String name()
+  {
+    return "hisWrite";
+  }
+
+  @Override
+  public String summary()
+  {
+    return "Write time series data to historian";
+  }
+
+  @Override
+  public HGrid onService(HServer db, HGrid req) throws Exception
+  {
+    if (req.isEmpty())
+    {
+      throw new Exception("Request has no rows");
+    }
+
+    HRef id = WatchSubOp.valToId(db, req.meta().get("id"));
+    HHisItem[] items = HHisItem.gridToItems(req);
+    return HGridBuilder.dictToGrid(((NHServer) db).hisWriteBulk(id, items));
+  }
+}
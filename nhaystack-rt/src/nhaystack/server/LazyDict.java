@@ -0,0 +1,154 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HVal;
+import org.projecthaystack.UnknownNameException;
+
+/**
+  * LazyDict is a dict whose expensive tags are only made the first time
+  * they are asked for.  A filter which rejects a record usually only
+  * looks at a few cheap tags, so the expensive ones are never made.
+  * <p>
+  * The cheap tags are given up front.  If a tag is both cheap and lazy,
+  * the cheap one wins.  A lazy tag whose value turns out to be null is
+  * treated as missing.  size() and iterator() make all of the lazy tags.
+  * <p>
+  * LazyDict is thread-safe.  A lazy tag may be made more than once if two
+  * threads ask for it at the same time, but only one value is ever seen.
+  */
+final class LazyDict extends HDict
+{
+    /**
+      * A tag which is made when it is first asked for.
+      */
+    interface Tag
+    {
+        /**
+          * Make the value of the tag, or return null if there isn't one.
+          * The dict is the LazyDict itself, so that one lazy tag may
+          * be made from another.
+          */
+        HVal make(HDict dict);
+    }
+
+    /**
+      * Return a tag which only makes its value once, for a value
+      * which is shared by more than one tag.
+      */
+    static Tag once(Tag tag)
+    {
+        return new Tag()
+        {
+            @Override
+            public HVal make(HDict dict)
+            {
+                Object val = this.val;
+                if (val == null)
+                {
+                    HVal newVal = tag.make(dict);
+                    this.val = val = newVal == null ? MISSING : newVal;
+                }
+                return val == MISSING ? null : (HVal) val;
+            }
+
+            private volatile Object val;
+        };
+    }
+
+    LazyDict(HDict tags, Map<String, Tag> lazy)
+    {
+        this.tags = tags;
+        this.lazy = lazy;
+    }
+
+    @Override
+    public int size()
+    {
+        return full().size();
+    }
+
+    @Override
+    public HVal get(String name, boolean checked)
+    {
+        HVal val = tags.get(name, false);
+        if (val == null)
+        {
+            Tag tag = lazy.get(name);
+            if (tag != null)
+                val = make(name, tag);
+        }
+
+        if (val == null && checked)
+            throw new UnknownNameException(name);
+        return val;
+    }
+
+    // HDict declares iterator() with a raw Iterator of Map.Entry
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Iterator iterator()
+    {
+        return full().iterator();
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private HVal make(String name, Tag tag)
+    {
+        Object val = made.get(name);
+        if (val == null)
+        {
+            HVal newVal = tag.make(this);
+            Object prev = made.putIfAbsent(name, newVal == null ? MISSING : newVal);
+            val = prev == null ? (newVal == null ? MISSING : newVal) : prev;
+        }
+        return val == MISSING ? null : (HVal) val;
+    }
+
+    /**
+      * Return a plain dict with all of the tags.
+      */
+    private HDict full()
+    {
+        HDict dict = full;
+        if (dict == null)
+        {
+            HDictBuilder hdb = new HDictBuilder();
+            hdb.add(tags);
+            for (Map.Entry<String, Tag> e : lazy.entrySet())
+            {
+                if (tags.has(e.getKey())) continue;
+
+                HVal val = make(e.getKey(), e.getValue());
+                if (val != null) hdb.add(e.getKey(), val);
+            }
+            full = dict = hdb.toDict();
+        }
+        return dict;
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private static final Object MISSING = new Object();
+
+    private final HDict tags;
+    private final Map<String, Tag> lazy;
+    private final Map<String, Object> made = new ConcurrentHashMap<>();
+    private volatile HDict full;
+}
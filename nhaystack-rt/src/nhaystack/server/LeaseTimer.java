@@ -0,0 +1,194 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.baja.spy.SpyWriter;
+
+/**
+  * LeaseTimer expires the leases of watches and fox sessions.  All of
+  * the leases share one thread.
+  * <p>
+  * Renewing a lease only moves its deadline, so it is cheap enough to
+  * do on every poll.  Each lease has at most one check queued.  When the
+  * check runs and the lease has been renewed in the meantime, the check
+  * is queued again for the new deadline; otherwise the lease expires.
+  */
+class LeaseTimer
+{
+    /**
+      * Add a lease which expires if it is not renewed within the interval.
+      * onExpired is called on the timer thread.
+      */
+    Lease add(String name, long interval, Runnable onExpired)
+    {
+        Lease lease = new Lease(name, interval, onExpired);
+        active.increment();
+        lease.schedule(interval);
+        return lease;
+    }
+
+    /**
+      * Stop the timer thread.  Leases which have not expired yet never will.
+      */
+    synchronized void stop()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    void spy(SpyWriter out) throws Exception
+    {
+        out.startProps();
+        out.trTitle("Lease Timer", 2);
+        out.prop("activeLeases", getActiveCount());
+        out.prop("renewals", renewals.sum());
+        out.prop("expirations", getExpiredCount());
+        out.endProps();
+    }
+
+    long getActiveCount() { return active.sum(); }
+    long getExpiredCount() { return expirations.sum(); }
+
+////////////////////////////////////////////////////////////////
+// Lease
+////////////////////////////////////////////////////////////////
+
+    final class Lease
+    {
+        private Lease(String name, long interval, Runnable onExpired)
+        {
+            this.name = name;
+            this.interval = interval;
+            this.onExpired = onExpired;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+        }
+
+        /**
+          * Push the deadline back by a whole interval.  Return false
+          * if the lease has already expired or been cancelled.
+          */
+        boolean renew()
+        {
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+            renewals.increment();
+            return state == ACTIVE;
+        }
+
+        /**
+          * Cancel the lease, so that it never expires.
+          */
+        synchronized void cancel()
+        {
+            if (state != ACTIVE) return;
+
+            state = CANCELLED;
+            active.decrement();
+            if (check != null)
+                check.cancel(false);
+        }
+
+        public String toString()
+        {
+            return "[Lease " + name + ", interval:" + interval + ']';
+        }
+
+        private synchronized void schedule(long millis)
+        {
+            check = executor().schedule(this::check, millis, TimeUnit.MILLISECONDS);
+        }
+
+        private void check()
+        {
+            synchronized (this)
+            {
+                if (state != ACTIVE) return;
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0)
+                {
+                    schedule(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                    return;
+                }
+
+                // a renew() which raced with this check either sees
+                // the new state, or its deadline is seen here
+                state = EXPIRED;
+                if (deadline - System.nanoTime() > 0)
+                {
+                    state = ACTIVE;
+                    schedule(interval);
+                    return;
+                }
+
+                active.decrement();
+                expirations.increment();
+            }
+
+            try
+            {
+                onExpired.run();
+            }
+            catch (Throwable e)
+            {
+                LOG.log(Level.SEVERE, "Cannot expire " + this, e);
+            }
+        }
+
+        private final String name;
+        private final long interval;
+        private final Runnable onExpired;
+
+        private volatile long deadline;
+        private volatile int state = ACTIVE;
+        private ScheduledFuture<?> check;
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private synchronized ScheduledThreadPoolExecutor executor()
+    {
+        if (executor == null)
+        {
+            executor = new ScheduledThreadPoolExecutor(1, r ->
+            {
+                Thread thread = new Thread(r, "NHaystack:LeaseTimer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+        }
+        return executor;
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private static final Logger LOG = Logger.getLogger("nhaystack");
+
+    private static final int ACTIVE = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private final LongAdder active = new LongAdder();
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+}
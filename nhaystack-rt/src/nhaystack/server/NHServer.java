@@ -24,6 +24,8 @@ import javax.baja.status.BStatus;
 import javax.baja.sys.*;
 import javax.baja.timezone.BTimeZone;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.logging.*;
 
 /**
@@ -40,7 +42,10 @@ public class NHServer extends HServer
     this.cache = new Cache(this, schedMgr);
     this.tagMgr = new TagManager(this, service, spaceMgr, cache);
     this.nav = new Nav(service, spaceMgr, cache, tagMgr);
-    this.foxSessionMgr = new FoxSessionManager();
+    this.subscriptions = new SubscriptionRegistry(tagMgr);
+    this.leaseTimer = new LeaseTimer();
+    this.foxSessionMgr = new FoxSessionManager(leaseTimer);
+    this.hisCache = new HisCache(service);
     this.pointIO = new PointIO(service, cache, tagMgr, schedMgr, foxSessionMgr);
   }
 
@@ -117,7 +122,7 @@ public class NHServer extends HServer
       }
 
       long ticks = Clock.ticks();
-      HGrid grid = super.onReadAll(filter, limit);
+      HGrid grid = doReadAll(filter, limit);
 
       if (LOG.isLoggable(Level.FINE))
       {
@@ -133,6 +138,301 @@ public class NHServer extends HServer
     }
   }
 
+  /**
+   * Find the records that match the filter.  This is the same as
+   * HServer.onReadAll(), except that the tag index is used to
+   * skip over records which cannot possibly match.
+   */
+  private HGrid doReadAll(String filter, int limit)
+  {
+    ArrayList<HDict> acc = new ArrayList<>();
+    Iterator<HDict> it = makeMatchIterator(filter, limit, null);
+    while (it.hasNext())
+    {
+      acc.add(it.next());
+    }
+
+    return HGridBuilder.dictsToGrid(acc.toArray(new HDict[acc.size()]));
+  }
+
+  /**
+   * Read one page of the records that match the filter.  The page
+   * starts after the cursor of the previous page, or at the beginning
+   * if the cursor is null.  If there are more records, the 'cursor' tag
+   * of the grid meta holds the cursor for the next page.
+   * <p>
+   * The walk stops as soon as the page is full, and the records
+   * before the cursor are skipped without making their tags.
+   *
+   * @throws IllegalArgumentException if the cursor is not valid,
+   * or if the limit is less than 1.
+   */
+  HGrid readPage(String filter, int limit, String cursor)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+    checkPageLimit(limit);
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("readPage begin filter:\"" + filter + "\", limit:" + limit + ", cursor:" + cursor);
+    }
+
+    long ticks = Clock.ticks();
+
+    // read one record more than was asked for, to find out
+    // whether there is a next page
+    ArrayList<HDict> acc = new ArrayList<>();
+    ReadCursor.Source it = makeMatchIterator(filter, pageLimit(limit),
+      cursor == null ? null : ReadCursor.decode(cursor));
+    ReadCursor last = null;
+    HDict meta = HDict.EMPTY;
+    while (it.hasNext())
+    {
+      HDict rec = it.next();
+      if (acc.size() == limit)
+      {
+        meta = makePageMeta(last);
+        break;
+      }
+      acc.add(rec);
+      if (acc.size() == limit)
+      {
+        last = it.cursor();
+      }
+    }
+
+    HGrid grid = HGridBuilder.dictsToGrid(meta, acc.toArray(new HDict[acc.size()]));
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("readPage end   filter:\"" + filter + "\", limit:" + limit + ", " + (Clock.ticks() - ticks) + "ms.");
+    }
+
+    return grid;
+  }
+
+  /**
+   * Write the records that match the filter to the stream, without
+   * collecting them into a grid first.  Paging works the same way as
+   * for readPage().
+   * <p>
+   * The columns have to be written before the first row, so they are
+   * taken from the tag index: every tag which any of the candidate
+   * records carries, and the tags in STREAM_COLS, which come and go
+   * on a record without it being indexed again.  If the index cannot
+   * tell the columns, because some candidates are unindexed, the
+   * records are collected into a grid after all.  So is a page with a
+   * limit, since its cursor goes in the grid meta, ahead of the rows.
+   */
+  void streamReadAll(String filter, int limit, String cursor, GridStreamWriter out)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("streamReadAll begin filter:\"" + filter + "\", limit:" + limit + ", cursor:" + cursor);
+    }
+
+    checkPageLimit(limit);
+
+    long ticks = Clock.ticks();
+    TagIndex index = cache.getTagIndex();
+    FilterPlan plan = FilterPlan.make(filter, index);
+    String[] cols = limit == Integer.MAX_VALUE && index != null ?
+      streamCols(index.tagNames(plan.getCandidates())) : null;
+
+    if (cols == null)
+    {
+      HGrid grid = readPage(filter, limit, cursor);
+      String[] names = new String[grid.numCols()];
+      for (int i = 0; i < names.length; i++)
+      {
+        names[i] = grid.col(i).name();
+      }
+      out.begin(grid.meta(), names);
+      for (int i = 0; i < grid.numRows(); i++)
+      {
+        out.row(grid.row(i));
+      }
+      out.end();
+    }
+    else
+    {
+      ReadCursor.Source it = makeMatchIterator(plan, index, limit,
+        cursor == null ? null : ReadCursor.decode(cursor));
+      if (!it.hasNext())
+      {
+        // same as HGridBuilder.dictsToGrid() for no records
+        cols = new String[] { "empty" };
+      }
+      out.begin(HDict.EMPTY, cols);
+      while (it.hasNext())
+      {
+        out.row(it.next());
+      }
+      out.end();
+    }
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("streamReadAll end   filter:\"" + filter + "\", limit:" + limit + ", " + (Clock.ticks() - ticks) + "ms.");
+    }
+  }
+
+  /**
+   * Add the STREAM_COLS to the columns that the tag index found, if
+   * it found any, keeping id first and the others in alphabetical
+   * order.
+   */
+  static String[] streamCols(String[] indexed)
+  {
+    if (indexed == null || indexed.length == 0)
+    {
+      return indexed;
+    }
+
+    TreeSet<String> names = new TreeSet<>(Arrays.asList(indexed));
+    names.remove("id");
+    names.addAll(Arrays.asList(STREAM_COLS));
+
+    String[] cols = new String[names.size() + 1];
+    cols[0] = "id";
+    int i = 1;
+    for (String name : names)
+    {
+      cols[i++] = name;
+    }
+    return cols;
+  }
+
+  /**
+   * A page has to hold at least one record, so that its cursor is
+   * after the cursor it started from.
+   */
+  private static void checkPageLimit(int limit)
+  {
+    if (limit < 1)
+    {
+      throw new IllegalArgumentException("limit must be at least 1: " + limit);
+    }
+  }
+
+  /**
+   * Make the grid meta of a page which ends at the given cursor.
+   */
+  private static HDict makePageMeta(ReadCursor last)
+  {
+    return new HDictBuilder()
+      .add("cursor", last.encode())
+      .toDict();
+  }
+
+  /**
+   * Return an iterator over at most limit records that match the filter,
+   * starting after the cursor if it is not null.  The records are found
+   * as they are asked for.
+   */
+  private ReadCursor.Source makeMatchIterator(String filter, int limit, ReadCursor after)
+  {
+    TagIndex index = cache.getTagIndex();
+    return makeMatchIterator(FilterPlan.make(filter, index), index, limit, after);
+  }
+
+  private ReadCursor.Source makeMatchIterator(FilterPlan plan, TagIndex index, int limit, ReadCursor after)
+  {
+    HFilter f = plan.getFilter();
+    HFilter.Pather pather = id -> readById(HRef.make(id));
+    ReadCursor.Source it = makeReadIterator(plan, index, after);
+
+    return new ReadCursor.Source()
+    {
+      @Override
+      public boolean hasNext()
+      {
+        while (next == null && count < limit && it.hasNext())
+        {
+          HDict rec = it.next();
+          if (f.include(rec, pather))
+          {
+            next = rec;
+            count++;
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public HDict next()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        HDict rec = next;
+        next = null;
+        return rec;
+      }
+
+      /**
+       * The source stops at each record which matches, so its last
+       * record is the one next() returned, until hasNext() is called.
+       */
+      @Override
+      public ReadCursor cursor()
+      {
+        return it.cursor();
+      }
+
+      private HDict next;
+      private int count;
+    };
+  }
+
+  /**
+   * Return an iterator over the records that the plan
+   * says might match, starting after the cursor.
+   */
+  private ReadCursor.Source makeReadIterator(FilterPlan plan, TagIndex index, ReadCursor after)
+  {
+    if (plan.getCandidates() != null)
+    {
+      return spaceMgr.makeIndexIterator(index, plan, after);
+    }
+
+    // a cursor in the history space means the components are done
+    boolean inHistories = after != null && after.getHistoryId() != null;
+
+    ArrayList<ReadCursor.Source> iterators = new ArrayList<>();
+    if (plan.readComponents() && !inHistories)
+    {
+      iterators.add(spaceMgr.makeComponentSpaceIterator(plan, after == null ? null : after.getComponent()));
+    }
+    if (plan.readHistories())
+    {
+      iterators.add(spaceMgr.makeHistorySpaceIterator(plan, inHistories ? after.getHistoryId() : null));
+    }
+    return ReadCursor.concat(iterators.toArray(new ReadCursor.Source[iterators.size()]));
+  }
+
+  /**
+   * Describe how the filter would be read.
+   */
+  HGrid explain(String filter)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+
+    return FilterPlan.make(filter, cache.getTagIndex()).toGrid();
+  }
+
   /**
    * Iterate every haystack-annotated entry in both the
    * BComponentSpace and the BHistoryDatabase.
@@ -345,117 +645,519 @@ public class NHServer extends HServer
 
     try
     {
-      BHistoryConfig cfg = tagMgr.lookupHistoryConfig(rec.id());
-      if (cfg == null)
+      ArrayList<HHisItem> arr = new ArrayList<>();
+      int recCounter = readHistory(rec, range, arr::add);
+
+      HHisItem[] items = arr.toArray(EMPTY_HIS_ITEM_ARR);
+      LOG.fine("Found " + recCounter + " items...");
+      if (items.length > 0)
       {
-        return EMPTY_HIS_ITEM_ARR;
+        LOG.fine("Start range check, is the found item (" + items[0].ts.millis() + ") after the queried item (" + range.start.millis() + ")?");
+        if (range.start.millis() < items[0].ts.millis())
+        {
+          LOG.fine("Start range check passed!");
+        }
+        else
+        {
+          LOG.fine("Start range check failed...");
+        }
       }
+      // done
+      return items;
+    }
+    catch (RuntimeException e)
+    {
+      e.printStackTrace();
+      throw e;
+    }
+  }
 
-      HStr unit = (HStr) rec.get("unit", false);
+  /**
+   * Write the result of a hisRead to the stream one row at a time, as
+   * each record is read from the history, so that a long history is
+   * never held in memory.  The checks on the rec and the range are the
+   * same as HServer.hisRead().
+   *
+   * @param maxPoints if greater than zero, the history is downsampled
+   *                  to no more than this many rows
+   */
+  void streamHisRead(HRef id, Object range, int maxPoints, GridStreamWriter out)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
 
-      // ASSUMPTION: the tz in both ends of the range matches the
-      // tz of the historized point, which in turn matches the
-      // history's tz in its historyConfig.
-      HTimeZone tz = range.start.tz;
+    HDict rec = readById(id);
+    HDateTimeRange r = toHisRange(rec, range);
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("streamHisRead " + id + ", " + r + ", maxPoints " + maxPoints);
+    }
 
-      BAbsTime rangeStart = BAbsTime.make(range.start.millis(), cfg.getTimeZone());
-      BAbsTime rangeEnd = BAbsTime.make(range.end.millis(), cfg.getTimeZone());
-      LOG.fine("Start range: " + rangeStart.encodeToString());
-      LOG.fine("End range:   " + rangeEnd.encodeToString());
+    out.begin(hisReadMeta(id, r, maxPoints), HIS_COLS);
+    readHistory(rec, r, maxPoints, out::row);
+    out.end();
+  }
 
-      // NOTE: be careful, timeQuery() is inclusive of both start and end
-      try (HistorySpaceConnection conn = service.getHistoryDb().getConnection(null))
-      {
-        BIHistory history = conn.getHistory(cfg.getId());
+  /**
+   * The same as HServer.hisRead(), but downsampled to no more than
+   * maxPoints rows, as the history is read.
+   */
+  HGrid hisRead(HRef id, Object range, int maxPoints)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+
+    HDict rec = readById(id);
+    HDateTimeRange r = toHisRange(rec, range);
+
+    List<HHisItem> items = new ArrayList<>();
+    readHistory(rec, r, maxPoints, items::add);
+    return HGridBuilder.hisItemsToGrid(
+      hisReadMeta(id, r, maxPoints),
+      items.toArray(EMPTY_HIS_ITEM_ARR));
+  }
+
+  private static HDict hisReadMeta(HRef id, HDateTimeRange range, int maxPoints)
+  {
+    HDictBuilder meta = new HDictBuilder()
+      .add("id", id)
+      .add("hisStart", range.start)
+      .add("hisEnd", range.end);
+    if (maxPoints > 0)
+    {
+      meta.add("maxPoints", maxPoints);
+    }
+    return meta.toDict();
+  }
+
+  /**
+   * Read the history of the rec, downsampled to no more than maxPoints
+   * items if maxPoints is greater than zero.
+   */
+  private void readHistory(HDict rec, HDateTimeRange range, int maxPoints, Consumer<HHisItem> items)
+  {
+    if (maxPoints <= 0)
+    {
+      readHistory(rec, range, items);
+      return;
+    }
+
+    HisDownsampler downsampler = new HisDownsampler(
+      range.start.millis(), range.end.millis(), maxPoints, items);
+    readHistory(rec, range, downsampler);
+    downsampler.flush();
+  }
+
+  /**
+   * Read the histories of many recs over the same range, and return
+   * them as one grid, with a ts column and a v0, v1, ... column for each
+   * rec, in the order of the ids.  Each row holds the values which were
+   * recorded at its ts, and nulls for the histories which have no record
+   * then.
+   * <p>
+   * The recs and their history configs are all looked up first, on the
+   * calling thread, and then the histories are read on the hisRead pool,
+   * a window of time at a time.  See mergeHistories().  All the recs must
+   * be in the timezone of the range.
+   */
+  HGrid hisReadMulti(HRef[] ids, Object range) throws Exception
+  {
+    HDict[] recs = new HDict[ids.length];
+    HDateTimeRange r = readHisRecs(ids, range, recs);
+
+    HGridBuilder b = new HGridBuilder();
+    b.meta().add("hisStart", r.start).add("hisEnd", r.end);
+    b.addCol("ts");
+    for (int i = 0; i < recs.length; i++)
+    {
+      b.addCol("v" + i).add("id", recs[i].id());
+    }
+    mergeHistories(recs, r, b::addRow);
+    return b.toGrid();
+  }
+
+  /**
+   * The same as hisReadMulti(), but write each row to the stream as soon
+   * as it has been merged, so that the grid is never held in memory.
+   */
+  void streamHisReadMulti(HRef[] ids, Object range, GridStreamWriter out) throws Exception
+  {
+    HDict[] recs = new HDict[ids.length];
+    HDateTimeRange r = readHisRecs(ids, range, recs);
+
+    String[] cols = new String[recs.length + 1];
+    HDict[] colMeta = new HDict[recs.length + 1];
+    cols[0] = "ts";
+    for (int i = 0; i < recs.length; i++)
+    {
+      cols[i + 1] = "v" + i;
+      colMeta[i + 1] = new HDictBuilder().add("id", recs[i].id()).toDict();
+    }
+
+    HDict meta = new HDictBuilder()
+      .add("hisStart", r.start)
+      .add("hisEnd", r.end)
+      .toDict();
+    out.begin(meta, cols, colMeta);
+    mergeHistories(recs, r, out::row);
+    out.end();
+  }
+
+  /**
+   * Look up the recs of the ids into the array, and return the range in
+   * their timezone.  Every rec must be a history in the same timezone.
+   */
+  private HDateTimeRange readHisRecs(HRef[] ids, Object range, HDict[] recs)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
 
-        BITable<BHistoryRecord> table = conn.timeQuery(history, rangeStart, rangeEnd);
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("hisReadMulti " + ids.length + " ids, " + range);
+    }
 
-        // this will be null if its not a BTrendRecord
-        boolean isTrendRecord = cfg.getRecordType().getResolvedType().is(BTrendRecord.TYPE);
+    HDateTimeRange r = null;
+    for (int i = 0; i < ids.length; i++)
+    {
+      recs[i] = readById(ids[i]);
+      HDateTimeRange recRange = toHisRange(recs[i], r == null ? range : r);
+      if (r == null)
+      {
+        r = recRange;
+      }
+    }
+    if (r == null)
+    {
+      throw new IllegalArgumentException("No ids to read");
+    }
+    return r;
+  }
 
-        int recCounter = 0;
-        ArrayList<HHisItem> arr = new ArrayList<>();
-        try (TableCursor<BHistoryRecord> cursor = table.cursor())
+  /**
+   * Read the histories of the recs, and pass each row of the merged grid
+   * to the consumer, in time order.
+   * <p>
+   * The range is read HIS_MULTI_WINDOW at a time.  The histories of each
+   * window are read in parallel, and merged as soon as they have all been
+   * read, so only one window of records of each history is held at once.
+   */
+  private void mergeHistories(HDict[] recs, HDateTimeRange range, Consumer<HVal[]> rows) throws Exception
+  {
+    BHistoryConfig[] cfgs = new BHistoryConfig[recs.length];
+    HisDecoder[] decoders = new HisDecoder[recs.length];
+    HisCache.Scanner[] scanners = new HisCache.Scanner[recs.length];
+
+    // Each history is read over one connection for the whole range,
+    // which is opened by its first scan.  The windows are read one after
+    // the other, so a connection is only used by one thread at a time.
+    HistorySpaceConnection[] conns = new HistorySpaceConnection[recs.length];
+    for (int i = 0; i < recs.length; i++)
+    {
+      cfgs[i] = tagMgr.lookupHistoryConfig(recs[i].id());
+      if (cfgs[i] != null)
+      {
+        int h = i;
+        decoders[i] = HisDecoder.make(cfgs[i], (HStr) recs[i].get("unit", false));
+        scanners[i] = (cfg, decoder, after, end, sink) ->
         {
-          // iterate over results and extract HHisItem's
-          while (cursor.next())
+          if (conns[h] == null)
           {
-            recCounter++;
-            BHistoryRecord hrec = cursor.get();
-            BAbsTime timestamp = (BAbsTime) hrec.get("timestamp");
+            conns[h] = service.getHistoryDb().getConnection(null);
+          }
+          return scanHistory(conns[h], cfg, decoder, after, end, sink);
+        };
+      }
+    }
 
-            // ignore inclusive start value
-            if (!timestamp.equals(rangeStart))
+    try
+    {
+      HTimeZone tz = range.start.tz;
+      long end = range.end.millis();
+      for (long start = range.start.millis(); start < end; start += HIS_MULTI_WINDOW)
+      {
+        // the items are exclusive of the start, so the windows do not overlap
+        HDateTimeRange window = HDateTimeRange.make(
+          HDateTime.make(start, tz),
+          HDateTime.make(Math.min(start + HIS_MULTI_WINDOW, end), tz));
+
+        List<Callable<List<HHisItem>>> reads = new ArrayList<>(recs.length);
+        for (int i = 0; i < recs.length; i++)
+        {
+          BHistoryConfig cfg = cfgs[i];
+          HisDecoder decoder = decoders[i];
+          HisCache.Scanner scanner = scanners[i];
+          reads.add(() ->
+          {
+            List<HHisItem> items = new ArrayList<>();
+            if (cfg != null)
             {
-              // create ts
-              HDateTime ts = HDateTime.make(timestamp.getMillis(), tz);
-
-              // create val
-              HVal val;
-              if (isTrendRecord)
-              {
-                // extract value from BTrendRecord
-                BValue value = hrec.get("value");
-
-                Type recType = cfg.getRecordType().getResolvedType();
-                if (recType.is(BNumericTrendRecord.TYPE))
-                {
-                  BNumber num = (BNumber) value;
-                  val = unit == null ? HNum.make(num.getDouble()) : HNum.make(num.getDouble(), unit.val);
-                }
-                else if (recType.is(BBooleanTrendRecord.TYPE))
-                {
-                  BBoolean bool = (BBoolean) value;
-                  val = HBool.make(bool.getBoolean());
-                }
-                else if (recType.is(BEnumTrendRecord.TYPE))
-                {
-                  BDynamicEnum dyn = (BDynamicEnum) value;
-                  BFacets facets = (BFacets) cfg.get("valueFacets");
-                  BEnumRange er = (BEnumRange) facets.get("range");
-                  val = HStr.make(SlotUtil.fromNiagara(er.getTag(dyn.getOrdinal())));
-                }
-                else
-                {
-                  val = HStr.make(value.toString());
-                }
-              }
-              else
-              {
-                // if its not a BTrendRecord, just do a toString()
-                // of the whole record
-                val = HStr.make(hrec.toString());
-              }
-
-              // add item
-              arr.add(HHisItem.make(ts, val));
+              readHistory(cfg, decoder, window, scanner, items::add);
             }
-          }
+            return items;
+          });
         }
 
-        HHisItem[] items = arr.toArray(EMPTY_HIS_ITEM_ARR);
-        LOG.fine("Found " + recCounter + " items...");
-        if (items.length > 0)
+        mergeItems(hisReadPool.invokeAll(reads), rows);
+      }
+    }
+    finally
+    {
+      for (HistorySpaceConnection conn : conns)
+      {
+        if (conn != null)
         {
-          LOG.fine("Start range check, is the found item (" + items[0].ts.millis() + ") after the queried item (" + range.start.millis() + ")?");
-          if (range.start.millis() < items[0].ts.millis())
-          {
-            LOG.fine("Start range check passed!");
-          }
-          else
-          {
-            LOG.fine("Start range check failed...");
-          }
+          conn.close();
         }
-        // done
-        return items;
       }
     }
-    catch (RuntimeException e)
+  }
+
+  /**
+   * Merge the items of each history, which are in time order, on their
+   * timestamps.  A heap holds the histories which have items left, by
+   * the time of their next item, so each row costs O(log n) per value.
+   */
+  private static void mergeItems(List<List<HHisItem>> results, Consumer<HVal[]> rows)
+  {
+    int[] pos = new int[results.size()];
+    PriorityQueue<Integer> heap = new PriorityQueue<>(
+      Math.max(1, pos.length),
+      (a, b) -> Long.compare(
+        results.get(a).get(pos[a]).ts.millis(),
+        results.get(b).get(pos[b]).ts.millis()));
+    for (int i = 0; i < pos.length; i++)
     {
-      e.printStackTrace();
-      throw e;
+      if (!results.get(i).isEmpty())
+      {
+        heap.add(i);
+      }
+    }
+
+    int[] taken = new int[pos.length];
+    while (!heap.isEmpty())
+    {
+      HDateTime ts = results.get(heap.peek()).get(pos[heap.peek()]).ts;
+      HVal[] row = new HVal[pos.length + 1];
+      row[0] = ts;
+
+      // take the next item of every history which has one at ts
+      int n = 0;
+      while (!heap.isEmpty() && results.get(heap.peek()).get(pos[heap.peek()]).ts.millis() == ts.millis())
+      {
+        int i = heap.poll();
+        row[i + 1] = results.get(i).get(pos[i]).val;
+        taken[n++] = i;
+      }
+      rows.accept(row);
+
+      // a history with two items at ts has its second one in the next row
+      for (int j = 0; j < n; j++)
+      {
+        int i = taken[j];
+        if (++pos[i] < results.get(i).size())
+        {
+          heap.add(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fold the history into intervals of the given length, and return
+   * one row per interval.  The records are read in a single pass, and
+   * only the running totals of the current interval are kept.
+   *
+   * @param fold one of avg, min, max, sum, count, first, last or delta
+   */
+  HGrid hisRollup(HRef id, Object range, HNum interval, String fold)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
     }
+
+    HDict rec = readById(id);
+    HDateTimeRange r = toHisRange(rec, range);
+    HStr unit = (HStr) rec.get("unit", false);
+
+    HisRollup rollup = new HisRollup(
+      fold, r.start.millis(), r.end.millis(), interval.millis(),
+      r.start.tz, unit == null ? null : unit.val);
+
+    BHistoryConfig cfg = tagMgr.lookupHistoryConfig(rec.id());
+    if (cfg != null)
+    {
+      rollupHistory(cfg, r, rollup);
+    }
+
+    HDict meta = new HDictBuilder()
+      .add("id", id)
+      .add("hisStart", r.start)
+      .add("hisEnd", r.end)
+      .add("interval", interval)
+      .add("fold", fold)
+      .toDict();
+    return rollup.toGrid(meta);
+  }
+
+  /**
+   * Check that the rec is a history, and make the range in its
+   * timezone.  The checks are the same as HServer.hisRead().
+   */
+  private static HDateTimeRange toHisRange(HDict rec, Object range)
+  {
+    if (rec.missing("his"))
+    {
+      throw new UnknownNameException("Rec missing 'his' tag: " + rec.dis());
+    }
+
+    HTimeZone tz = rec.has("tz") ? HTimeZone.make(rec.getStr("tz"), false) : null;
+    if (tz == null)
+    {
+      throw new UnknownNameException("Rec missing or invalid 'tz' tag: " + rec.dis());
+    }
+
+    HDateTimeRange r;
+    try
+    {
+      r = range instanceof HDateTimeRange ?
+        (HDateTimeRange) range :
+        HDateTimeRange.make(range.toString(), tz);
+    }
+    catch (ParseException e)
+    {
+      throw new ParseException("Invalid date time range: " + range);
+    }
+    if (!r.start.tz.equals(tz))
+    {
+      throw new RuntimeException("range.tz != rec: " + r.start.tz + " != " + tz);
+    }
+    return r;
+  }
+
+  /**
+   * Read the history of the rec, passing each item to the consumer.
+   * The items are exclusive of the start and inclusive of the end time.
+   * Return the number of records read.
+   */
+  private int readHistory(HDict rec, HDateTimeRange range, Consumer<HHisItem> items)
+  {
+    BHistoryConfig cfg = tagMgr.lookupHistoryConfig(rec.id());
+    if (cfg == null)
+    {
+      return 0;
+    }
+
+    return readHistory(cfg, (HStr) rec.get("unit", false), range, items);
+  }
+
+  private int readHistory(BHistoryConfig cfg, HStr unit, HDateTimeRange range, Consumer<HHisItem> items)
+  {
+    // the record type is only looked at once, here
+    return readHistory(cfg, HisDecoder.make(cfg, unit), range, this::scanHistory, items);
+  }
+
+  /**
+   * Read the history through the cache, and the scanner on a miss.
+   */
+  private int readHistory(BHistoryConfig cfg, HisDecoder decoder, HDateTimeRange range,
+    HisCache.Scanner scanner, Consumer<HHisItem> items)
+  {
+    // ASSUMPTION: the tz in both ends of the range matches the
+    // tz of the historized point, which in turn matches the
+    // history's tz in its historyConfig.
+    HTimeZone tz = range.start.tz;
+
+    return hisCache.read(
+      cfg, decoder, range.start.millis(), range.end.millis(),
+      (d, n) -> writeChunk(d, n, tz, items),
+      scanner);
+  }
+
+  /**
+   * Read the records of the history after one time and up to another
+   * from the history database, decode them, and pass them to the sink a
+   * chunk at a time.  Return the number of records read.
+   */
+  private int scanHistory(BHistoryConfig cfg, HisDecoder decoder, long after, long end, HisDecoder.Sink sink)
+  {
+    try (HistorySpaceConnection conn = service.getHistoryDb().getConnection(null))
+    {
+      return scanHistory(conn, cfg, decoder, after, end, sink);
+    }
+  }
+
+  /**
+   * The same as scanHistory(), over a connection which the caller
+   * opened, and closes.
+   */
+  private static int scanHistory(HistorySpaceConnection conn, BHistoryConfig cfg, HisDecoder decoder,
+    long after, long end, HisDecoder.Sink sink)
+  {
+    BAbsTime rangeStart = BAbsTime.make(after, cfg.getTimeZone());
+    BAbsTime rangeEnd = BAbsTime.make(end, cfg.getTimeZone());
+    LOG.fine("Start range: " + rangeStart.encodeToString());
+    LOG.fine("End range:   " + rangeEnd.encodeToString());
+
+    // NOTE: be careful, timeQuery() is inclusive of both start and end
+    BIHistory history = conn.getHistory(cfg.getId());
+
+    BITable<BHistoryRecord> table = conn.timeQuery(history, rangeStart, rangeEnd);
+
+    int recCounter = 0;
+    try (TableCursor<BHistoryRecord> cursor = table.cursor())
+    {
+      // decode a chunk of records into the decoder's buffers, and
+      // only hand them on when the chunk is full, ignoring the
+      // inclusive start value
+      while (cursor.next())
+      {
+        recCounter++;
+        decoder.add(cursor.get(), after, sink);
+      }
+    }
+    decoder.flush(sink);
+
+    return recCounter;
+  }
+
+  private static void writeChunk(HisDecoder decoder, int n, HTimeZone tz, Consumer<HHisItem> items)
+  {
+    for (int i = 0; i < n; i++)
+    {
+      items.accept(HHisItem.make(HDateTime.make(decoder.times[i], tz), decoder.val(i)));
+    }
+  }
+
+  /**
+   * Add the value of each record in the range to the rollup.  Boolean
+   * records count as 1 or 0.  Enum and string records cannot be rolled up.
+   */
+  private void rollupHistory(BHistoryConfig cfg, HDateTimeRange range, HisRollup rollup)
+  {
+    HisDecoder decoder = HisDecoder.make(cfg, null);
+    if (!decoder.isNumeric())
+    {
+      throw new IllegalArgumentException("Cannot roll up a history of " + cfg.getRecordType());
+    }
+
+    hisCache.read(
+      cfg, decoder, range.start.millis(), range.end.millis(),
+      (d, n) ->
+      {
+        for (int i = 0; i < n; i++)
+        {
+          rollup.add(d.times[i], d.nums[i]);
+        }
+      },
+      this::scanHistory);
   }
 
   /**
@@ -474,7 +1176,67 @@ public class NHServer extends HServer
       LOG.fine("onHisWrite " + rec.id());
     }
 
+    // HServer.hisWrite() returns nothing, so it cannot report items
+    // which are not written, and the whole write is refused instead
+    writeHistory(rec, items, true);
+  }
+
+  /**
+   * The same as HServer.hisWrite(), but return the number of items
+   * which were written, skipped and rejected.  See writeHistory().
+   */
+  HDict hisWriteBulk(HRef id, HHisItem[] items)
+  {
+    if (!cache.initialized())
+    {
+      throw new IllegalStateException(Cache.NOT_INITIALIZED);
+    }
+
+    HDict rec = readById(id);
+    if (rec.missing("his"))
+    {
+      throw new UnknownNameException("Entity missing 'his' tag: " + rec.dis());
+    }
+
+    HTimeZone tz = rec.has("tz") ? HTimeZone.make(rec.getStr("tz"), false) : null;
+    if (tz == null)
+    {
+      throw new UnknownNameException("Rec missing or invalid 'tz' tag: " + rec.dis());
+    }
+    for (HHisItem item : items)
+    {
+      if (!item.ts.tz.equals(tz))
+      {
+        throw new RuntimeException("item.tz != rec.tz: " + item.ts.tz + " != " + tz);
+      }
+    }
+
+    if (LOG.isLoggable(Level.FINE))
+    {
+      LOG.fine("hisWriteBulk " + id + ", " + items.length + " items");
+    }
+
+    return writeHistory(rec, items, false);
+  }
+
+  /**
+   * Append the items to the history of the rec.  The items are sorted
+   * by time first.  An item which is no later than the last record of
+   * the history, or than the item before it, is skipped, and one whose
+   * value is not of the rec's kind is rejected.  The rest are appended
+   * in chunks, and the history is flushed after each chunk, so a write
+   * which fails part way through can simply be sent again.
+   * <p>
+   * If strict is true, an item which would be skipped or rejected fails
+   * the whole write instead, before anything is appended.
+   */
+  private HDict writeHistory(HDict rec, HHisItem[] items, boolean strict)
+  {
     BHistoryConfig cfg = tagMgr.lookupHistoryConfig(rec.id());
+    if (cfg == null)
+    {
+      throw new UnknownRecException("Rec has no history: " + rec.id());
+    }
 
     // check permissions on this Thread's saved context
     Context cx = ThreadContext.getContext(Thread.currentThread());
@@ -483,13 +1245,109 @@ public class NHServer extends HServer
       throw new PermissionException("Cannot write to " + rec.id());
     }
 
-    try (HistorySpaceConnection conn = service.getHistoryDb().getConnection(null))
+    String kind = rec.getStr("kind");
+    boolean isBool = kind.equals("Bool");
+    if (!isBool && !kind.equals("Number"))
     {
-      BIHistory history = conn.getHistory(cfg.getId());
-      String kind = rec.getStr("kind");
-      for (HHisItem item : items)
-        conn.append(history, makeTrendRecord(kind, item.ts, item.val));
+      throw new IllegalStateException("Cannot create trend record for kind " + kind);
     }
+
+    HHisItem[] sorted = items.clone();
+    Arrays.sort(sorted, (a, b) -> Long.compare(a.ts.millis(), b.ts.millis()));
+
+    if (strict)
+    {
+      for (int i = 0; i < sorted.length; i++)
+      {
+        HHisItem item = sorted[i];
+        if (isBool ? !(item.val instanceof HBool) : !(item.val instanceof HNum))
+        {
+          throw new IllegalArgumentException(
+            "Cannot write " + item.val + " to a " + kind + " history: " + rec.id());
+        }
+        if (i > 0 && item.ts.millis() == sorted[i - 1].ts.millis())
+        {
+          throw new IllegalArgumentException("Duplicate timestamp " + item.ts + ": " + rec.id());
+        }
+      }
+    }
+
+    int written = 0;
+    int skipped = 0;
+    int rejected = 0;
+    if (sorted.length > 0)
+    {
+      try (HistorySpaceConnection conn = service.getHistoryDb().getConnection(null))
+      {
+        BIHistory history = conn.getHistory(cfg.getId());
+        BAbsTime lastTimestamp = conn.getLastTimestamp(history);
+        long last = lastTimestamp == null || lastTimestamp.isNull() ?
+          Long.MIN_VALUE :
+          lastTimestamp.getMillis();
+        if (strict && sorted[0].ts.millis() <= last)
+        {
+          throw new IllegalArgumentException(
+            "Cannot write " + sorted[0].ts + ", which is not after the last record " +
+            lastTimestamp + ": " + rec.id());
+        }
+
+        // append() stores the record's values, so one record is reused
+        BBooleanTrendRecord boolTrend = new BBooleanTrendRecord();
+        BNumericTrendRecord numTrend = new BNumericTrendRecord();
+        BTimeZone bajaTz = TypeUtil.toBajaTimeZone(sorted[0].ts.tz);
+
+        int chunk = 0;
+        for (HHisItem item : sorted)
+        {
+          long millis = item.ts.millis();
+          if (millis <= last)
+          {
+            skipped++;
+            continue;
+          }
+
+          BAbsTime abs = BAbsTime.make(millis, bajaTz);
+          if (isBool && item.val instanceof HBool)
+          {
+            boolTrend.set(abs, ((HBool) item.val).val, BStatus.ok);
+            conn.append(history, boolTrend);
+          }
+          else if (!isBool && item.val instanceof HNum)
+          {
+            numTrend.set(abs, ((HNum) item.val).val, BStatus.ok);
+            conn.append(history, numTrend);
+          }
+          else
+          {
+            rejected++;
+            continue;
+          }
+
+          written++;
+          last = millis;
+          if (++chunk == HIS_WRITE_CHUNK)
+          {
+            conn.flush();
+            chunk = 0;
+          }
+        }
+        if (chunk > 0)
+        {
+          conn.flush();
+        }
+      }
+      finally
+      {
+        // the cache only ever appends records later than the ones it holds
+        hisCache.invalidate(cfg.getId());
+      }
+    }
+
+    return new HDictBuilder()
+      .add("written", written)
+      .add("skipped", skipped)
+      .add("rejected", rejected)
+      .toDict();
   }
 
   /**
@@ -859,6 +1717,26 @@ public class NHServer extends HServer
     return schedMgr;
   }
 
+  SubscriptionRegistry getSubscriptions()
+  {
+    return subscriptions;
+  }
+
+  LeaseTimer getLeaseTimer()
+  {
+    return leaseTimer;
+  }
+
+  HisReadPool getHisReadPool()
+  {
+    return hisReadPool;
+  }
+
+  HisCache getHisCache()
+  {
+    return hisCache;
+  }
+
 ////////////////////////////////////////////////////////////////
 // Attributes 
 ////////////////////////////////////////////////////////////////
@@ -868,8 +1746,22 @@ public class NHServer extends HServer
 
   private static final String LAST_WRITE = "haystackLastWrite";
   private static final HHisItem[] EMPTY_HIS_ITEM_ARR = new HHisItem[0];
+  private static final String[] HIS_COLS = {"ts", "val"};
+
+  /**
+   * The tags which the TagManager makes when a record is read, and
+   * which a record may gain or lose in between being indexed: the
+   * current and write state of a point, and the lazy tags.
+   */
+  private static final String[] STREAM_COLS = {
+    "actions", "curErr", "curStatus", "curVal", "hisInterpolate",
+    "writeErr", "writeLevel", "writeStatus", "writeVal"};
+
+  /** hisReadMulti reads and merges this much time of the histories at once */
+  private static final long HIS_MULTI_WINDOW = 24 * 60 * 60 * 1000L;
+  private static final int HIS_WRITE_CHUNK = 1000;
 
-  private static final HOp[] OPS = {HStdOps.about, HStdOps.ops, HStdOps.formats, HStdOps.read, HStdOps.nav, HStdOps.watchSub, HStdOps.watchUnsub, HStdOps.watchPoll, HStdOps.pointWrite, HStdOps.hisRead, HStdOps.hisWrite, HStdOps.invokeAction, new NHServerOps.ExtendedReadOp(), new NHServerOps.ExtendedOp(), new AlarmAckOp(), new AlarmReadOp()};
+  private static final HOp[] OPS = {HStdOps.about, HStdOps.ops, HStdOps.formats, new StreamReadOp(), HStdOps.nav, new WatchSubOp(), HStdOps.watchUnsub, new WatchPollOp(), new WatchStreamOp(), HStdOps.pointWrite, new StreamHisReadOp(), new HisReadMultiOp(), new HisRollupOp(), new HisWriteOp(), HStdOps.invokeAction, new NHServerOps.ExtendedReadOp(), new NHServerOps.ExplainOp(), new NHServerOps.ExtendedOp(), new AlarmAckOp(), new AlarmReadOp()};
 
   private final Map<String, NHWatch> watches = new HashMap<>();
 
@@ -879,6 +1771,10 @@ public class NHServer extends HServer
   private final Nav nav;
   private final TagManager tagMgr;
   private final ScheduleManager schedMgr;
+  private final SubscriptionRegistry subscriptions;
+  private final LeaseTimer leaseTimer;
+  private final HisReadPool hisReadPool = new HisReadPool();
+  private final HisCache hisCache;
   private final FoxSessionManager foxSessionMgr;
   private final PointIO pointIO;
 }
@@ -72,7 +72,9 @@ final class NHServerOps implements NHaystackConst
 
       int limit = params.has("limit") ? params.getInt("limit") : Integer.MAX_VALUE;
 
-      HGrid result = server.onReadAll(filter, limit);
+      String cursor = params.has("cursor") ? params.getStr("cursor") : null;
+
+      HGrid result = server.readPage(filter, limit, cursor);
 
       // size
       if (params.has("size") && params.get("size").equals(HBool.TRUE))
@@ -125,6 +127,36 @@ final class NHServerOps implements NHaystackConst
     }
   }
 
+//////////////////////////////////////////////////////////////////////////
+// ExplainOp
+//////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Return the plan that a read of the filter would use, with the
+   * estimated number of records for each test.  Nothing is read.
+   */
+  static class ExplainOp extends HOp
+  {
+    @Override
+    public String name()
+    {
+      return "explain";
+    }
+
+    @Override
+    public String summary()
+    {
+      return "Explain Read";
+    }
+
+    @Override
+    public HGrid onService(HServer db, HGrid req)
+    {
+      NHServer server = (NHServer) db;
+      return server.explain(req.row(0).getStr("filter"));
+    }
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // ExtendedOp
 //////////////////////////////////////////////////////////////////////////
@@ -446,6 +478,7 @@ outer:
               HDict row = applyTagsToDict(origTags, newTags);
               comp.set("haystack", BHDict.make(row));
             }
+            server.getCache().componentChanged(comp);
 
             continue outer;
           }
@@ -508,6 +541,7 @@ outer:
 
           ((BHEquip) comp).setHaystack(cloneDict(BHDict.make(fromTags)));
           HaystackSlotUtil.migrateHaystackTags(comp);
+          server.getCache().componentChanged(comp);
         }
         else
         {
@@ -525,6 +559,7 @@ outer:
 
           toEquip.setHaystack(cloneDict(BHDict.make(fromTags)));
           HaystackSlotUtil.migrateHaystackTags(toEquip);
+          server.getCache().componentChanged(comp);
         }
       }
 
@@ -700,6 +735,7 @@ outer:
         comp.set("haystack", BHDict.make(hdb.toDict()));
       }
       HaystackSlotUtil.migrateHaystackTags(comp);
+      server.getCache().componentChanged(comp);
 
     }
 
@@ -752,6 +788,7 @@ outer:
       HDict row = applyTagsToDict(origTags, newTags);
       target.set("haystack", BHDict.make(row));
       HaystackSlotUtil.migrateHaystackTags(target);
+      server.getCache().componentChanged(target);
 
       rows[i] = row;
     }
@@ -833,6 +870,7 @@ outer:
       {
         count++;
         target.add("haystack", BHDict.DEFAULT);
+        server.getCache().componentChanged(target);
       }
     }
 
@@ -880,6 +918,7 @@ outer:
         {
           target.set("haystack", BHDict.DEFAULT);
         }
+        server.getCache().componentChanged(target);
 
         count++;
       }
@@ -920,6 +959,7 @@ outer:
         target.set("haystack", BHDict.DEFAULT);
         count++;
       }
+      server.getCache().componentChanged(target);
     }
 
     HDictBuilder hdb = new HDictBuilder();
@@ -991,6 +1031,7 @@ outer:
         }
         target.add("equip", equip);
         HaystackSlotUtil.migrateHaystackTags(equip);
+        server.getCache().componentChanged(equip);
       }
     }
 
@@ -1042,6 +1083,7 @@ outer:
         point.set("haystack", BHDict.make(hdb.toDict()));
       }
       HaystackSlotUtil.migrateHaystackTags(point);
+      server.getCache().componentChanged(point);
     }
 
     HDictBuilder hdb = new HDictBuilder();
@@ -1308,13 +1350,10 @@ outer:
     {
       HRef watchId = HRef.make(watch.id());
 
-      HDict[] subscribed = ((NHWatch) watch).curSubscribed();
-
       HDictBuilder hdb = new HDictBuilder();
       hdb.add("id", watchId);
       hdb.add("dis", Sys.getStation().getName());
-      hdb.add("watchCount", subscribed.length);
-      hdb.add("lastPoll", HNum.make(((NHWatch) watch).lastPoll(), "ms"));
+      hdb.add(((NHWatch) watch).stats());
       arr.add(hdb.toDict());
     }
 
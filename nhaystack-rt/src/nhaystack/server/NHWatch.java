@@ -9,19 +9,21 @@
 package nhaystack.server;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.baja.control.BControlPoint;
 import javax.baja.schedule.BWeeklySchedule;
+import javax.baja.status.BStatusNumeric;
+import javax.baja.status.BStatusValue;
 import javax.baja.sys.BComponent;
-import javax.baja.sys.BComponentEvent;
 import javax.baja.sys.BajaRuntimeException;
 import javax.baja.sys.Clock;
-import javax.baja.sys.Subscriber;
 import javax.baja.util.BUuid;
 import org.projecthaystack.HDict;
 import org.projecthaystack.HDictBuilder;
@@ -44,8 +46,9 @@ class NHWatch extends HWatch
         this.watchId = BUuid.make().toString();
         this.leaseInterval = leaseInterval; 
         this.open = true;
-
-        scheduleLeaseTimeout();
+        this.lastSeen = System.currentTimeMillis();
+        this.lease = server.getLeaseTimer().add(
+            "watch " + watchId, leaseInterval, this::leaseExpired);
     }
 
     public String toString()
@@ -94,63 +97,99 @@ class NHWatch extends HWatch
      * for 'watchId' and 'lease'.
      */
     @Override
-    public synchronized HGrid sub(HRef[] ids, boolean checked)
+    public HGrid sub(HRef[] ids, boolean checked)
     {
-        if (!open) throw new BajaRuntimeException(
+        return sub(ids, null, checked);
+    }
+
+    /**
+     * Subscribe as above.  If deadbands is not null, it holds the
+     * deadband of each id, or null for the watch's deadband.
+     * <p>
+     * The ids are looked up all at once, and the points are subscribed
+     * all at once.  Only the subscribing is done under the watch's lock,
+     * so that a large subscription does not hold up polls for long.
+     */
+    HGrid sub(HRef[] ids, HNum[] deadbands, boolean checked)
+    {
+        if (!isOpen()) throw new BajaRuntimeException(
             "Watch " + watchId + " is closed.");
 
         long ticks = Clock.ticks();
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("NHWatch.sub begin " + watchId + ", length " + ids.length);
 
-        lastPoll = System.currentTimeMillis();
-        scheduleLeaseTimeout();
+        BComponent[] comps = server.getTagManager().lookupComponents(ids);
+
+        // no such component -- treat 'checked' as if it were false, since
+        // 'checked' is handled on the client side.
+        //
+        // we also ignore anything that's not a control point or schedule.
+        //
+        ArrayList<BComponent> pointArr = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++)
+        {
+            BComponent comp = comps[i];
+            if (comp instanceof BControlPoint || comp instanceof BWeeklySchedule)
+            {
+                pointArr.add(comp);
+            }
+            else
+            {
+                if (LOG.isLoggable(Level.WARNING))
+                    LOG.warning("NHWatch.sub " + watchId + " cannot subscribe to " + ids[i]);
+                comps[i] = null;
+            }
+        }
+
+        synchronized (this)
+        {
+            if (!open) throw new BajaRuntimeException(
+                "Watch " + watchId + " is closed.");
+
+            lastPoll = System.currentTimeMillis();
+            lastSeen = lastPoll;
+            lease.renew();
+
+            for (int i = 0; i < ids.length; i++)
+            {
+                BComponent comp = comps[i];
+                if (comp == null) continue;
+
+                HNum deadband = deadbands == null ? null : deadbands[i];
+                PointState state = new PointState(deadband == null ? Double.NaN : deadband.val);
+                state.published(comp, lastPoll);
+                states.put(comp, state);
+                allSubscribed.add(comp);
+            }
 
+            server.getSubscriptions().subscribe(this, pointArr);
+        }
+
+        // the points are subscribed before their tags are made, so a
+        // change in between is sent again by the next poll
         HDict meta = new HDictBuilder()
             .add("watchId", HStr.make(id()))
             .add("lease", lease())
             .toDict();
 
-        ArrayList<HDict> response = new ArrayList<>();
-        ArrayList<BComponent> pointArr = new ArrayList<>();
-        for (HRef id : ids)
+        SubscriptionRegistry subscriptions = server.getSubscriptions();
+        HDict[] response = new HDict[ids.length];
+        for (int i = 0; i < ids.length; i++)
         {
+            if (comps[i] == null) continue;
             try
             {
-                BComponent comp = server.getTagManager().lookupComponent(id);
-
-                // no such component -- treat 'checked' as if it were false, since
-                // 'checked' is handled on the client side.
-                //
-                // we also ignore anything that's not a control point or schedule.
-                //
-                if (!(comp instanceof BControlPoint || comp instanceof BWeeklySchedule))
-                {
-                    if (LOG.isLoggable(Level.WARNING))
-                        LOG.warning("NHWatch.sub " + watchId + " cannot subscribe to " + id);
-
-                    response.add(null);
-                }
-                // found
-                else
-                {
-                    pointArr.add(comp);
-                    HDict cov = server.getTagManager().createComponentCovTags(comp);
-                    allSubscribed.put(comp, cov);
-                    response.add(cov);
-                }
+                response[i] = subscriptions.getCovTags(comps[i]);
             }
             catch (Exception e)
             {
-                LOG.warning("NHWatch.sub " + watchId + " cannot subscribe to " + id +
+                LOG.warning("NHWatch.sub " + watchId + " cannot subscribe to " + ids[i] +
                     ": " + e.getMessage());
-                response.add(null);
             }
         }
 
-        subscriber.subscribe(pointArr.toArray(EMPTY_COMPONENT_ARRAY), 0, null);
-
-        HGrid grid = HGridBuilder.dictsToGrid(meta, response.toArray(EMPTY_HDICT_ARRAY));
+        HGrid grid = HGridBuilder.dictsToGrid(meta, response);
 
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("NHWatch.sub end   " + watchId + ", length " + ids.length + ", " +
@@ -172,25 +211,26 @@ class NHWatch extends HWatch
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("NHWatch.unsub " + watchId + ", length " + ids.length);
 
-        scheduleLeaseTimeout();
+        lease.renew();
 
         ArrayList<BComponent> pointArr = new ArrayList<>();
         for (HRef id : ids)
         {
             BComponent comp = server.getTagManager().lookupComponent(id);
-            if (comp != null && allSubscribed.containsKey(comp))
+            if (comp != null && allSubscribed.contains(comp))
             {
                 if (LOG.isLoggable(Level.FINE))
                     LOG.fine("NHWatch.unsub " + watchId + " unsubscribe " + id);
 
                 pointArr.add(comp);
                 allSubscribed.remove(comp);
-                nextPoll.remove(comp);
+                states.remove(comp);
+                dirty.remove(comp);
             }
         }
 
         // unsubscribe
-        subscriber.unsubscribe(pointArr.toArray(EMPTY_COMPONENT_ARRAY), null);
+        server.getSubscriptions().unsubscribe(this, pointArr);
     }
 
     /**
@@ -206,14 +246,54 @@ class NHWatch extends HWatch
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("NHWatch.pollChanges begin " + watchId);
 
-        lastPoll = System.currentTimeMillis();
-        scheduleLeaseTimeout();
+        long now = System.currentTimeMillis();
+        if (lastPoll > 0)
+        {
+            long changed = changes.sum();
+            pollInterval = now - lastPoll;
+            changeRate = pollInterval > 0 ? (changed - changesAtLastPoll) * 1000.0 / pollInterval : 0;
+            changesAtLastPoll = changed;
+        }
+        lastPoll = now;
+        lastSeen = now;
+        lease.renew();
 
-        // create a response from all the COV values in nextPoll
-        ArrayList<HDict> response = new ArrayList<>(nextPoll.values());
+        // the changes were dropped while nobody was polling,
+        // so send every point again
+        if (overflowed)
+        {
+            overflowed = false;
+            dirty.addAll(allSubscribed);
+        }
+
+        // create a response from the latest COV values of the dirty points,
+        // clearing them out so we can start accumulating more changes.
+        // a point which was reported less than minInterval ago is left
+        // for a later poll.
+        SubscriptionRegistry subscriptions = server.getSubscriptions();
+        ArrayList<HDict> response = new ArrayList<>();
+        for (Iterator<BComponent> it = dirty.iterator(); it.hasNext(); )
+        {
+            BComponent point = it.next();
+            PointState state = states.get(point);
+            if (state != null && state.readyAt(minInterval) > lastPoll) continue;
 
-        // clear out nextPoll so we can start accumulating more COVs
-        nextPoll.clear();
+            it.remove();
+            if (!allSubscribed.contains(point)) continue;
+
+            try
+            {
+                response.add(subscriptions.getCovTags(point));
+                published.increment();
+                if (state != null)
+                    state.published(point, lastPoll);
+            }
+            catch (Exception e)
+            {
+                LOG.warning("NHWatch.pollChanges " + watchId + " cannot poll " +
+                    point.getSlotPath() + ": " + e.getMessage());
+            }
+        }
 
         // done
         if (LOG.isLoggable(Level.FINE))
@@ -221,6 +301,67 @@ class NHWatch extends HWatch
         return HGridBuilder.dictsToGrid(response.toArray(EMPTY_HDICT_ARRAY));
     }
 
+    /**
+     * Wait until one of the subscribed points has changed, or until the
+     * wait is over.  The wait is cut short to half of the lease, so the
+     * watch does not time out while a client is waiting on it.
+     * <p>
+     * Once a change has arrived, this waits a little longer, so that
+     * a burst of changes is returned by one poll instead of several.
+     */
+    void awaitChanges(long wait) throws InterruptedException
+    {
+        awaitChanges(wait, COALESCE_TIME);
+    }
+
+    /**
+     * Wait for changes as above, lingering for the given batch time
+     * once a change has arrived.
+     */
+    void awaitChanges(long wait, long batch) throws InterruptedException
+    {
+        long now = System.currentTimeMillis();
+        long deadline = now + Math.min(wait, leaseInterval / 2);
+
+        synchronized (this)
+        {
+            if (!open) throw new BajaRuntimeException(
+                "Watch " + watchId + " is closed.");
+
+            lastSeen = now;
+            lease.renew();
+            waiting++;
+            try
+            {
+                long ready;
+                while (open && (ready = nextReady()) > now && now < deadline)
+                {
+                    wait(Math.min(ready, deadline) - now);
+                    now = System.currentTimeMillis();
+                }
+            }
+            finally
+            {
+                waiting--;
+            }
+        }
+
+        long coalesce = Math.min(batch, deadline - now);
+        if (nextReady() <= now && coalesce > 0)
+            Thread.sleep(coalesce);
+    }
+
+    /**
+     * Set the smallest change of a numeric point, and the shortest
+     * time between two reports of the same point, that are reported
+     * by pollChanges.  A null leaves the setting as it was.
+     */
+    synchronized void setThrottle(HNum deadband, HNum minInterval)
+    {
+        if (deadband != null) this.deadband = deadband.val;
+        if (minInterval != null) this.minInterval = minInterval.millis();
+    }
+
     /**
      * Poll all the subscriptions records even if there have been no changes.
      * This returns all of the tags for each point.
@@ -235,20 +376,20 @@ class NHWatch extends HWatch
             LOG.fine("NHWatch.pollRefresh begin " + watchId);
 
         lastPoll = System.currentTimeMillis();
-        scheduleLeaseTimeout();
+        lastSeen = lastPoll;
+        lease.renew();
 
         // create a response that represents every tag for every subscribed point
         ArrayList<HDict> response = new ArrayList<>();
-        for (BComponent point : allSubscribed.keySet())
+        for (BComponent point : allSubscribed)
         {
-            HDict dict = server.getTagManager().createComponentCovTags(point);
-            response.add(dict);
-            allSubscribed.put(point, dict);
+            response.add(server.getTagManager().createComponentCovTags(point));
+            states.get(point).published(point, lastPoll);
         }
 
-        // since this method counts as a poll, clear out nextPoll so we 
-        // can start accumulating more Covs.
-        nextPoll.clear();
+        // since this method counts as a poll, clear out the dirty points
+        // so we can start accumulating more changes.
+        dirty.clear();
 
         // done
         if (LOG.isLoggable(Level.FINE))
@@ -269,16 +410,15 @@ class NHWatch extends HWatch
         if (LOG.isLoggable(Level.FINE))
             LOG.fine("NHWatch.close " + watchId);
 
-        if (timeout != null)
-            timeout.cancel();
-
-        timer.cancel();
+        lease.cancel();
         open = false;
+        notifyAll();
 
-        subscriber.unsubscribeAll();
+        server.getSubscriptions().unsubscribe(this, allSubscribed);
 
         allSubscribed.clear();
-        nextPoll.clear();
+        states.clear();
+        dirty.clear();
 
         server.removeWatch(watchId);
     }
@@ -293,36 +433,105 @@ class NHWatch extends HWatch
     }
 
 ////////////////////////////////////////////////////////////////
-// NSubscriber
+// package-scope
 ////////////////////////////////////////////////////////////////
 
-    private class NSubscriber extends Subscriber
+    /**
+      * Called by the SubscriptionRegistry when a point has changed.
+      * This is called on the engine thread, so it does not lock the
+      * watch; pollChanges() checks that the point is still subscribed.
+      */
+    void markDirty(BComponent comp)
     {
-        @Override
-        public void event(BComponentEvent event)
+        if (overflowed) return;
+
+        // drop a change that is smaller than the deadband
+        PointState state = states.get(comp);
+        if (state != null && !state.isSignificant(comp, deadband))
         {
-            synchronized(NHWatch.this)
-            {
-                BComponent comp = event.getSourceComponent();
+            suppressed.increment();
+            return;
+        }
 
-                if (event.getSlotName().equals("out") && // we only care about the "out" slot
-                    allSubscribed.containsKey(comp))     // and lets double check that we are really subscribed
-                {
-                    HDict cov = server.getTagManager().createComponentCovTags(comp);
-                    nextPoll.put(comp, cov);
-                }
+        changes.increment();
+        if (!dirty.add(comp)) return;
+
+        // stop keeping track of changes for a client which has stopped
+        // polling.  the next poll gets everything.  a client which is
+        // waiting in awaitChanges() is still there, and the dirty set
+        // never holds more than the subscribed points, so a burst of
+        // changes is not a reason to give up on a client.
+        long idle = System.currentTimeMillis() - lastSeen;
+        if (waiting == 0 && idle > staleTime())
+        {
+            overflow(idle);
+        }
+
+        // only take the lock if a poll is waiting for a change
+        if (waiting > 0)
+        {
+            synchronized (this)
+            {
+                notifyAll();
             }
         }
     }
 
-////////////////////////////////////////////////////////////////
-// package-scope
-////////////////////////////////////////////////////////////////
+    private void overflow(long idle)
+    {
+        overflowed = true;
+        overflows.increment();
+        dirty.clear();
+        LOG.warning("Watch " + watchId + " has not been polled for " + idle + "ms, " +
+            "dropping its changes until the next poll.");
+    }
+
+    /**
+     * Return how long after the last poll, or the start of the last
+     * wait for changes, the client is taken to have stopped polling.
+     * A long poll waits at most half of the lease, so this leaves a
+     * quarter of the lease for the client to come back.
+     */
+    long staleTime()
+    {
+        return leaseInterval / 2 + leaseInterval / 4;
+    }
+
+    /**
+     * Called by WatchPollOp with the size of the response to a poll.
+     */
+    void polled(int bytes)
+    {
+        lastPollBytes = bytes;
+    }
+
+    /**
+     * Return the statistics shown by the showWatches op.
+     */
+    synchronized HDict stats()
+    {
+        long now = System.currentTimeMillis();
+        return new HDictBuilder()
+            .add("lastPoll", HNum.make(lastPoll, "ms"))
+            .add("watchCount", allSubscribed.size())
+            .add("dirty", overflowed ? allSubscribed.size() : dirty.size())
+            .add("changeRate", changeRate)
+            .add("pollInterval", HNum.make(pollInterval, "ms"))
+            .add("bytesPerPoll", lastPollBytes)
+            .add("sinceLastPoll", HNum.make(lastPoll == 0 ? 0 : now - lastPoll, "ms"))
+            .add("overflows", overflows.sum())
+            .add("degraded", overflowed)
+            .add("deadband", deadband)
+            .add("minInterval", HNum.make(minInterval, "ms"))
+            .add("published", published.sum())
+            .add("suppressed", suppressed.sum())
+            .toDict();
+    }
 
     synchronized HDict[] curSubscribed()
     {
         ArrayList<HDict> arr = new ArrayList<>();
-        for (BComponent point : allSubscribed.keySet())
+        for (BComponent point : allSubscribed)
         {
             HDict dict = server.getTagManager().createComponentCovTags(point);
             arr.add(dict);
@@ -335,26 +544,93 @@ class NHWatch extends HWatch
         return lastPoll;
     }
 
+    /**
+     * Return the time at which the next dirty point may be reported:
+     * now or earlier if one is ready, or Long.MAX_VALUE if there are
+     * no dirty points.
+     */
+    private long nextReady()
+    {
+        if (overflowed) return 0;
+        if (dirty.isEmpty()) return Long.MAX_VALUE;
+        if (minInterval <= 0) return 0;
+
+        long ready = Long.MAX_VALUE;
+        for (BComponent point : dirty)
+        {
+            PointState state = states.get(point);
+            ready = Math.min(ready, state == null ? 0 : state.readyAt(minInterval));
+        }
+        return ready;
+    }
+
 ////////////////////////////////////////////////////////////////
-// Timeout
+// PointState
 ////////////////////////////////////////////////////////////////
 
-    private void scheduleLeaseTimeout()
+    /**
+     * What was last reported for a point, to decide whether a
+     * change is worth reporting.
+     */
+    static final class PointState
     {
-        if (timeout != null)
-            timeout.cancel();
+        PointState(double deadband)
+        {
+            this.deadband = deadband;
+        }
 
-        timer.schedule(timeout = new Timeout(), leaseInterval);
-    }
+        /**
+         * Return whether the point has changed by more than the
+         * deadband, or changed status, since it was last reported.
+         * This is called on the engine thread, so it does not lock.
+         */
+        boolean isSignificant(BComponent point, double watchDeadband)
+        {
+            double db = Double.isNaN(deadband) ? watchDeadband : deadband;
+            if (db <= 0) return true;
 
-    private class Timeout extends TimerTask
-    {
-        @Override
-        public void run()
+            Object out = point.get("out");
+            if (!(out instanceof BStatusNumeric)) return true;
+
+            BStatusNumeric sn = (BStatusNumeric) out;
+            if (sn.getStatus().getBits() != status) return true;
+
+            double val = sn.getNumeric();
+            return Double.isNaN(val) || Double.isNaN(value) || Math.abs(val - value) >= db;
+        }
+
+        void published(BComponent point, long time)
+        {
+            Object out = point.get("out");
+            if (out instanceof BStatusValue)
+            {
+                status = ((BStatusValue) out).getStatus().getBits();
+                value = out instanceof BStatusNumeric ? ((BStatusNumeric) out).getNumeric() : Double.NaN;
+            }
+            this.time = time;
+        }
+
+        long readyAt(long minInterval)
         {
-            LOG.warning("Watch " + watchId + " timed out.");
-            close();
+            return time + minInterval;
         }
+
+        private final double deadband;
+        private volatile double value = Double.NaN;
+        private volatile int status;
+        private volatile long time;
+    }
+
+////////////////////////////////////////////////////////////////
+// Timeout
+////////////////////////////////////////////////////////////////
+
+    private synchronized void leaseExpired()
+    {
+        if (!open) return;
+
+        LOG.warning("Watch " + watchId + " timed out.");
+        close();
     }
 
 ////////////////////////////////////////////////////////////////
@@ -363,22 +639,39 @@ class NHWatch extends HWatch
 
     private static final Logger LOG = Logger.getLogger("nhaystack.watch");
 
-    private static final BComponent[] EMPTY_COMPONENT_ARRAY = new BComponent[0];
     private static final HDict[] EMPTY_HDICT_ARRAY = new HDict[0];
 
+    /** how long a waiting poll lingers after the first change arrives */
+    private static final long COALESCE_TIME = 50;
+
     private final NHServer server;
     private final String dis;
     private final String watchId;
     private final long leaseInterval;
 
-    private final Subscriber subscriber = new NSubscriber();
+    private final Set<BComponent> allSubscribed = new LinkedHashSet<>();
+    private final Set<BComponent> dirty = ConcurrentHashMap.newKeySet(); // points changed since the last poll
 
-    private final Map<BComponent, HDict> allSubscribed = new HashMap<>(); // point -> HDict (all tags)
-    private final Map<BComponent, HDict> nextPoll = new HashMap<>(); // point -> HDict (cov)
+    private final Map<BComponent, PointState> states = new ConcurrentHashMap<>();
+    private volatile double deadband;
+    private volatile long minInterval;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private volatile boolean overflowed;
+    private long changesAtLastPoll;
+    private long pollInterval;
+    private double changeRate;
+    private volatile int lastPollBytes;
 
     private boolean open;
-    private final Timer timer = new Timer();
-    private Timeout timeout;
-    private long lastPoll;
+    private volatile int waiting;
+    private final LeaseTimer.Lease lease;
+    private volatile long lastPoll;
+
+    /** the time of the last poll, or of the start of the last wait for changes */
+    private volatile long lastSeen;
 }
 
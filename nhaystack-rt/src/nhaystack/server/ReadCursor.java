@@ -0,0 +1,162 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.sys.BComponent;
+import javax.baja.sys.Sys;
+
+import org.projecthaystack.HDict;
+
+/**
+  * ReadCursor is the position at which a paged read resumes.  It is
+  * the record that the previous page ended with: a component, which is
+  * saved by its slot handle, or a history, which is saved by its id.
+  * <p>
+  * The records after the cursor are found by walking the component tree
+  * and the history database in the usual order, without making the tags
+  * of the records that are skipped.
+  * <p>
+  * The cursor of a page is taken from the Source which read its last
+  * record, rather than looked up from the record's id, so that a page
+  * always has a cursor if there are more records after it.
+  */
+final class ReadCursor
+{
+    /**
+      * An iterator over records which knows where each of them came from.
+      */
+    interface Source extends Iterator<HDict>
+    {
+        /**
+          * Return the cursor of the record which next() returned last.
+          */
+        ReadCursor cursor();
+    }
+
+    /**
+      * Return a Source which reads each of the sources in turn.
+      */
+    static Source concat(Source[] sources)
+    {
+        return new Source()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                while (index < sources.length && !sources[index].hasNext())
+                    index++;
+                return index < sources.length;
+            }
+
+            @Override
+            public HDict next()
+            {
+                if (!hasNext()) throw new NoSuchElementException();
+                last = sources[index];
+                return last.next();
+            }
+
+            @Override
+            public ReadCursor cursor()
+            {
+                return last.cursor();
+            }
+
+            private int index;
+            private Source last;
+        };
+    }
+
+    private ReadCursor(BComponent comp, BHistoryId historyId)
+    {
+        this.comp = comp;
+        this.historyId = historyId;
+    }
+
+    /**
+      * Make a cursor for the record, which is either a component
+      * or a BHistoryConfig.
+      */
+    static ReadCursor make(BComponent rec)
+    {
+        if (rec == null)
+            throw new IllegalStateException("No record has been read");
+
+        return rec instanceof BHistoryConfig ?
+            new ReadCursor(null, ((BHistoryConfig) rec).getId()) :
+            new ReadCursor(rec, null);
+    }
+
+    /**
+      * Decode a cursor that was made by encode().
+      *
+      * @throws IllegalArgumentException if the cursor is not valid,
+      * or if its component has been removed from the station.  The
+      * history of a cursor is looked up when the read resumes from it.
+      */
+    static ReadCursor decode(String cursor)
+    {
+        if (cursor.startsWith(COMPONENT))
+        {
+            String handle = cursor.substring(COMPONENT.length());
+            BComponent comp = Sys.getStation().getComponentSpace().findByHandle(handle);
+            if (comp == null || !comp.isMounted())
+                throw new IllegalArgumentException("Cursor is no longer valid: " + cursor);
+            return new ReadCursor(comp, null);
+        }
+
+        if (cursor.startsWith(HISTORY))
+            return new ReadCursor(null, BHistoryId.make(cursor.substring(HISTORY.length())));
+
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+
+    String encode()
+    {
+        return comp != null ?
+            COMPONENT + comp.getHandle() :
+            HISTORY + historyId;
+    }
+
+    /**
+      * Return the component the previous page ended with, or null
+      * if it ended in the history space.
+      */
+    BComponent getComponent()
+    {
+        return comp;
+    }
+
+    /**
+      * Return the id of the history the previous page ended with,
+      * or null if it ended in the component space.
+      */
+    BHistoryId getHistoryId()
+    {
+        return historyId;
+    }
+
+    public String toString()
+    {
+        return encode();
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private static final String COMPONENT = "c:";
+    private static final String HISTORY = "h:";
+
+    private final BComponent comp;
+    private final BHistoryId historyId;
+}
@@ -0,0 +1,266 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+  * SharedMap is a map which can be copied without copying its contents,
+  * so that a Cache update only costs as much as the changes it makes.
+  * <p>
+  * The entries are kept in layers of HashMaps, which are never changed
+  * once they are shared.  A copy shares the layers of the map it was made
+  * from, and puts its own changes in a new layer on top, where a removed
+  * key is marked with a tombstone.  A lookup goes through the layers from
+  * the top down.
+  * <p>
+  * Whenever a copy is made, the top layer is merged into the one below it
+  * for as long as it is at least half the size of that one.  So there are
+  * only a logarithmic number of layers, and each entry is copied a
+  * logarithmic number of times.  Layers are merged into new HashMaps,
+  * since the old ones may still be in use.
+  * <p>
+  * Once a map has been copied it must not be changed any more, though it
+  * can still be read from any thread.  Iterating over a map takes a copy
+  * of its entries first, so the map can be changed during the iteration,
+  * e.g. by values().removeIf().  Null keys and values are allowed.
+  */
+final class SharedMap<K, V> extends AbstractMap<K, V>
+{
+    SharedMap()
+    {
+        this(new ArrayList<>(), 0);
+    }
+
+    private SharedMap(List<HashMap<K, Object>> layers, int size)
+    {
+        this.layers = layers;
+        this.size = size;
+    }
+
+    /**
+      * Return a map with the same entries as this one, which shares
+      * them.  This map cannot be changed afterwards.
+      */
+    SharedMap<K, V> copy()
+    {
+        frozen = true;
+        if (delta.isEmpty()) return new SharedMap<>(layers, size);
+
+        List<HashMap<K, Object>> list = new ArrayList<>(layers);
+        list.add(delta);
+        merge(list);
+        return new SharedMap<>(list, size);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        Object val = lookup(key);
+        return val == ABSENT || val == TOMBSTONE ? null : (V) val;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        Object val = lookup(key);
+        return val != ABSENT && val != TOMBSTONE;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V val)
+    {
+        checkWritable();
+
+        Object old = lookup(key);
+        delta.put(key, val);
+        if (old == ABSENT || old == TOMBSTONE)
+        {
+            size++;
+            return null;
+        }
+        return (V) old;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        checkWritable();
+
+        Object old = lookup(key);
+        if (old == ABSENT || old == TOMBSTONE) return null;
+
+        if (inLayers(key))
+            delta.put((K) key, TOMBSTONE);
+        else
+            delta.remove(key);
+        size--;
+        return (V) old;
+    }
+
+    @Override
+    public void clear()
+    {
+        for (Object key : new ArrayList<>(keySet()))
+            remove(key);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<K, V>>()
+        {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return the value of the key, TOMBSTONE if it has been
+      * removed, or ABSENT if it was never there.
+      */
+    private Object lookup(Object key)
+    {
+        Object val = delta.getOrDefault(key, ABSENT);
+        for (int i = layers.size() - 1; val == ABSENT && i >= 0; i--)
+            val = layers.get(i).getOrDefault(key, ABSENT);
+        return val;
+    }
+
+    private boolean inLayers(Object key)
+    {
+        for (HashMap<K, Object> layer : layers)
+        {
+            if (layer.containsKey(key)) return true;
+        }
+        return false;
+    }
+
+    private void checkWritable()
+    {
+        if (frozen) throw new IllegalStateException("SharedMap has been copied");
+    }
+
+    /**
+      * Merge the top layer into the one below while it is at least
+      * half the size of that one.  Tombstones are dropped when they
+      * reach the bottom layer.
+      */
+    private static <K> void merge(List<HashMap<K, Object>> list)
+    {
+        int n = list.size();
+        while (n >= 2 && list.get(n - 1).size() * 2 >= list.get(n - 2).size())
+        {
+            HashMap<K, Object> merged = new HashMap<>(list.get(n - 2));
+            for (Map.Entry<K, Object> e : list.get(n - 1).entrySet())
+            {
+                if (e.getValue() == TOMBSTONE && n == 2)
+                    merged.remove(e.getKey());
+                else
+                    merged.put(e.getKey(), e.getValue());
+            }
+            list.remove(--n);
+            list.set(n - 1, merged);
+        }
+    }
+
+    /**
+      * Iterates over a copy of the entries, so that the map can be
+      * changed along the way.
+      */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>>
+    {
+        @SuppressWarnings("unchecked")
+        EntryIterator()
+        {
+            HashMap<K, Object> all = new HashMap<>();
+            for (HashMap<K, Object> layer : layers)
+                all.putAll(layer);
+            all.putAll(delta);
+
+            entries = new ArrayList<>(size);
+            for (Map.Entry<K, Object> e : all.entrySet())
+            {
+                if (e.getValue() != TOMBSTONE)
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), (V) e.getValue()));
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return index < entries.size();
+        }
+
+        @Override
+        public Map.Entry<K, V> next()
+        {
+            if (!hasNext()) throw new NoSuchElementException();
+            last = entries.get(index++);
+            return last;
+        }
+
+        @Override
+        public void remove()
+        {
+            if (last == null) throw new IllegalStateException();
+            SharedMap.this.remove(last.getKey());
+            last = null;
+        }
+
+        private final List<Map.Entry<K, V>> entries;
+        private int index;
+        private Map.Entry<K, V> last;
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private static final Object TOMBSTONE = new Object();
+    private static final Object ABSENT = new Object();
+
+    /** the shared layers, from the bottom up */
+    private final List<HashMap<K, Object>> layers;
+
+    /** the changes made to this map */
+    private final HashMap<K, Object> delta = new HashMap<>();
+
+    private int size;
+    private volatile boolean frozen;
+}
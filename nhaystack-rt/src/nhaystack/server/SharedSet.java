@@ -0,0 +1,120 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+  * SharedSet is a set which can be copied without copying its contents.
+  * It is a SharedMap of its elements, and has the same rules.
+  * <p>
+  * Like a LinkedHashSet, it iterates in the order that the elements were
+  * added.  Each element is mapped to the number of the add that put it
+  * there, and the iterator sorts by that number.
+  */
+final class SharedSet<E> extends AbstractSet<E>
+{
+    SharedSet()
+    {
+        this(new SharedMap<>(), 0);
+    }
+
+    private SharedSet(SharedMap<E, Long> map, long adds)
+    {
+        this.map = map;
+        this.adds = adds;
+    }
+
+    /**
+      * Return a set with the same elements as this one, which shares
+      * them.  This set cannot be changed afterwards.
+      */
+    SharedSet<E> copy()
+    {
+        return new SharedSet<>(map.copy(), adds);
+    }
+
+    @Override
+    public int size()
+    {
+        return map.size();
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return map.containsKey(o);
+    }
+
+    @Override
+    public boolean add(E e)
+    {
+        if (map.containsKey(e)) return false;
+
+        map.put(e, adds++);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if (!map.containsKey(o)) return false;
+
+        map.remove(o);
+        return true;
+    }
+
+    @Override
+    public Iterator<E> iterator()
+    {
+        List<Map.Entry<E, Long>> entries = new ArrayList<>(map.entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+
+        return new Iterator<E>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return index < entries.size();
+            }
+
+            @Override
+            public E next()
+            {
+                if (!hasNext()) throw new NoSuchElementException();
+                last = entries.get(index++);
+                return last.getKey();
+            }
+
+            @Override
+            public void remove()
+            {
+                if (last == null) throw new IllegalStateException();
+                map.remove(last.getKey());
+                last = null;
+            }
+
+            private int index;
+            private Map.Entry<E, Long> last;
+        };
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private final SharedMap<E, Long> map;
+
+    /** the number of adds so far, which orders the elements */
+    private long adds;
+}
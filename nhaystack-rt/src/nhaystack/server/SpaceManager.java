@@ -10,7 +10,10 @@
 //
 package nhaystack.server;
 
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.logging.Logger;
 import javax.baja.control.BControlPoint;
 import javax.baja.control.ext.BAbstractProxyExt;
@@ -18,6 +21,8 @@ import javax.baja.driver.BDevice;
 import javax.baja.driver.BDeviceNetwork;
 import javax.baja.driver.point.BPointDeviceExt;
 import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BIHistory;
 import javax.baja.history.HistorySpaceConnection;
 import javax.baja.history.ext.BHistoryExt;
 import javax.baja.naming.BOrd;
@@ -61,7 +66,17 @@ public class SpaceManager
       */
     Iterator<HDict> makeComponentSpaceIterator()
     {
-        return new CIterator();
+        return new CIterator(null, null);
+    }
+
+    /**
+      * Iterate through the components that the plan accepts,
+      * skipping the branches of the tree that it rules out.
+      * If 'after' is not null, start with the component after it.
+      */
+    ReadCursor.Source makeComponentSpaceIterator(FilterPlan plan, BComponent after)
+    {
+        return new CIterator(plan, after);
     }
 
     /**
@@ -75,6 +90,15 @@ public class SpaceManager
         if (!TypeUtil.canRead(comp, cx)) 
             return false;
 
+        return isHaystackComponent(comp);
+    }
+
+    /**
+      * Return whether the component would be visible to a user who is
+      * allowed to read it.
+      */
+    static boolean isHaystackComponent(BComponent comp)
+    {
         if (comp instanceof BHTagged)
             return true;
         if (comp instanceof BControlPoint)
@@ -187,10 +211,15 @@ public class SpaceManager
 // Iterator
 ////////////////////////////////////////////////////////////////
 
-    class CIterator implements Iterator<HDict>
+    class CIterator implements ReadCursor.Source
     {
-        CIterator()
+        CIterator(FilterPlan plan, BComponent after)
         {
+            this.plan = plan;
+            this.after = after;
+            for (BComponent c = after == null ? null : after.getParentComponent(); c != null; c = c.getParentComponent())
+                afterAncestors.add(c);
+
             this.iterator = new ComponentTreeIterator(
                 (BComponent) BOrd.make("slot:/").resolve(service, null).get());
             findNext();
@@ -208,10 +237,17 @@ public class SpaceManager
             if (nextDict == null) throw new IllegalStateException();
 
             HDict dict = nextDict;
+            lastComp = nextComp;
             findNext();
             return dict;
         }
 
+        @Override
+        public ReadCursor cursor()
+        {
+            return ReadCursor.make(lastComp);
+        }
+
         @Override
         public void remove()
         { 
@@ -221,20 +257,41 @@ public class SpaceManager
         private void findNext()
         {
             nextDict = null;
+            nextComp = null;
             while (iterator.hasNext())
             {
                 BComponent comp = iterator.next();
 
-                if (isVisibleComponent(comp))
+                // skip ahead to the component the last page ended with,
+                // only walking down the branch that it is in
+                if (after != null)
+                {
+                    if (comp == after)
+                        after = null;
+                    else if (!afterAncestors.contains(comp))
+                        iterator.skipChildren();
+                    continue;
+                }
+
+                if (plan != null && !plan.acceptChildren(comp))
+                    iterator.skipChildren();
+
+                if (isVisibleComponent(comp) && (plan == null || plan.acceptComponent(comp)))
                 {
                     nextDict = server.getTagManager().createComponentTags(comp);
+                    nextComp = comp;
                     break;
                 }
             }
         }
 
+        private final FilterPlan plan;
         private final ComponentTreeIterator iterator;
+        private final Set<BComponent> afterAncestors = new HashSet<>();
+        private BComponent after;
         private HDict nextDict;
+        private BComponent nextComp;
+        private BComponent lastComp;
     }
 
 ////////////////////////////////////////////////////////////////
@@ -246,7 +303,19 @@ public class SpaceManager
       */
     Iterator<HDict> makeHistorySpaceIterator()
     {
-        return new HIterator();
+        return new HIterator(null, null);
+    }
+
+    /**
+      * Iterate through the histories that the plan accepts.
+      * If 'after' is not null, start with the history after it.
+      *
+      * @throws IllegalArgumentException if the history of the cursor
+      * has been deleted.
+      */
+    ReadCursor.Source makeHistorySpaceIterator(FilterPlan plan, BHistoryId after)
+    {
+        return new HIterator(plan, after);
     }
 
     /**
@@ -333,6 +402,19 @@ public class SpaceManager
 // private
 ////////////////////////////////////////////////////////////////
 
+    /**
+      * Return the config of the history, or null if it is not
+      * in the history database.
+      */
+    private BHistoryConfig lookupHistoryConfig(BHistoryId id)
+    {
+        try (HistorySpaceConnection conn = service.getHistoryDb().getConnection(null))
+        {
+            BIHistory history = conn.getHistory(id);
+            return history == null ? null : history.getConfig();
+        }
+    }
+
     /**
       * Find the imported history that goes with an imported point, 
       * or return null.  
@@ -349,10 +431,16 @@ public class SpaceManager
 // HIterator
 ////////////////////////////////////////////////////////////////
 
-    class HIterator implements Iterator<HDict>
+    class HIterator implements ReadCursor.Source
     {
-        HIterator()
+        HIterator(FilterPlan plan, BHistoryId after)
         {
+            // otherwise the walk would skip every history looking for it
+            if (after != null && lookupHistoryConfig(after) == null)
+                throw new IllegalArgumentException("Cursor is no longer valid: " + after);
+
+            this.plan = plan;
+            this.after = after;
             this.iterator = new HistoryDbIterator(service.getHistoryDb());
             findNext();
         }
@@ -372,28 +460,160 @@ public class SpaceManager
             if (nextDict == null) throw new IllegalStateException();
 
             HDict dict = nextDict;
+            lastCfg = nextCfg;
             findNext();
             return dict;
         }
 
+        @Override
+        public ReadCursor cursor()
+        {
+            return ReadCursor.make(lastCfg);
+        }
+
         private void findNext()
         {
             nextDict = null;
+            nextCfg = null;
             while (iterator.hasNext())
             {
                 BHistoryConfig cfg = iterator.next();
 
-                if (isVisibleHistory(cfg))
+                // skip ahead to the history the last page ended with
+                if (after != null)
+                {
+                    if (cfg.getId().equals(after))
+                        after = null;
+                    continue;
+                }
+
+                if ((plan == null || plan.acceptHistory(cfg)) && isVisibleHistory(cfg))
                 {
                     nextDict = server.getTagManager().createHistoryTags(cfg);
+                    nextCfg = cfg;
                     break;
                 }
             }
         }
 
+        private final FilterPlan plan;
         private final HistoryDbIterator iterator;
+        private BHistoryId after;
+
+        private HDict nextDict;
+        private BHistoryConfig nextCfg;
+        private BHistoryConfig lastCfg;
+    }
+
+////////////////////////////////////////////////////////////////
+// Index
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Iterate through the records of the tag index which are in the
+      * plan's candidate set, in document order.  If 'after' is not null,
+      * start with the document after the one for its record.
+      *
+      * @throws IllegalArgumentException if the record of the cursor is
+      * no longer in the index.
+      */
+    ReadCursor.Source makeIndexIterator(TagIndex index, FilterPlan plan, ReadCursor after)
+    {
+        return new IIterator(index, plan, after);
+    }
+
+    class IIterator implements ReadCursor.Source
+    {
+        IIterator(TagIndex index, FilterPlan plan, ReadCursor after)
+        {
+            this.index = index;
+            this.plan = plan;
+            this.candidates = plan.getCandidates();
+
+            int start = 0;
+            if (after != null)
+            {
+                int afterDoc = index.docOf(after.getComponent() != null ?
+                    after.getComponent() : after.getHistoryId());
+                if (afterDoc < 0)
+                    throw new IllegalArgumentException("Cursor is no longer valid: " + after);
+                start = afterDoc + 1;
+            }
+            this.doc = candidates.nextSetBit(start);
+            findNext();
+        }
+
+        @Override
+        public boolean hasNext()
+        { 
+            return nextDict != null; 
+        }
+
+        @Override
+        public void remove() { throw new UnsupportedOperationException(); }
+
+        @Override
+        public HDict next()
+        {
+            if (nextDict == null) throw new IllegalStateException();
+
+            HDict dict = nextDict;
+            lastRec = nextRec;
+            findNext();
+            return dict;
+        }
+
+        @Override
+        public ReadCursor cursor()
+        {
+            return ReadCursor.make(lastRec);
+        }
+
+        private void findNext()
+        {
+            nextDict = null;
+            nextRec = null;
+            while (doc >= 0 && doc < index.size())
+            {
+                Object key = index.getKey(doc);
+                doc = candidates.nextSetBit(doc + 1);
+
+                if (key instanceof BHistoryId)
+                {
+                    if (!plan.readHistories()) continue;
+
+                    BHistoryConfig cfg = lookupHistoryConfig((BHistoryId) key);
+                    if (cfg != null && plan.acceptHistory(cfg) && isVisibleHistory(cfg))
+                    {
+                        nextDict = server.getTagManager().createHistoryTags(cfg);
+                        nextRec = cfg;
+                        break;
+                    }
+                }
+                else if (key != null)
+                {
+                    // the component may have been removed since the index was built
+                    BComponent comp = (BComponent) key;
+                    if (comp.isMounted() && plan.acceptComponent(comp) && isVisibleComponent(comp))
+                    {
+                        nextDict = server.getTagManager().createComponentTags(comp);
+                        nextRec = comp;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private final TagIndex index;
+        private final FilterPlan plan;
+        private final BitSet candidates;
+        private int doc;
 
         private HDict nextDict;
+
+        /** the component or BHistoryConfig of nextDict, and of the last dict returned */
+        private BComponent nextRec;
+        private BComponent lastRec;
     }
 
 ////////////////////////////////////////////////////////////////
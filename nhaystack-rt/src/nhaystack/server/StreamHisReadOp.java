@@ -0,0 +1,137 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.io.*;
+import org.projecthaystack.server.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replaces the standard 'hisRead' op.  When the result is asked for in
+ * zinc or json, each record is written to the response as it is read
+ * from the history, so that a long history is never held in memory.
+ * Other formats are passed on to HStdOps.hisRead.
+ * <p>
+ * If the request has a 'maxPoints' cell, the history is downsampled
+ * as it is read, so that no more than that many rows are returned.
+ * See HisDownsampler.
+ */
+public class StreamHisReadOp extends HOp
+{
+  public StreamHisReadOp()
+  {
+  }
+
+  @Override
+  public String name()
+  {
+    return "hisRead";
+  }
+
+  @Override
+  public String summary()
+  {
+    return "Read time series from historian";
+  }
+
+  @Override
+  public void onService(HServer db, HttpServletRequest req, HttpServletResponse res) throws Exception
+  {
+    HGrid reqGrid = null;
+    if (req.getMethod().equals("GET"))
+    {
+      reqGrid = StreamReadOp.getToGrid(req);
+    }
+    else if (req.getMethod().equals("POST"))
+    {
+      reqGrid = StreamReadOp.postToGrid(req, res);
+      if (reqGrid == null)
+      {
+        return;
+      }
+    }
+
+    HGridFormat format = StreamReadOp.toFormat(req);
+    StreamReadOp.startResponse(res, format);
+
+    GridStreamWriter stream = GridStreamWriter.make(format, res.getOutputStream());
+    if (stream != null && reqGrid != null && !reqGrid.isEmpty())
+    {
+      HRow row = reqGrid.row(0);
+      try
+      {
+        HRef id = WatchSubOp.valToId(db, row.get("id"));
+        ((NHServer) db).streamHisRead(id, row.getStr("range"), maxPoints(row), stream);
+        return;
+      }
+      catch (Throwable e)
+      {
+        // once the header has gone out there is no way to report
+        // the error, so the client will see a truncated grid
+        if (stream.isStarted())
+        {
+          LOG.log(Level.SEVERE, "Cannot finish hisRead of " + row.get("id", false), e);
+          throw e;
+        }
+        StreamReadOp.writeGrid(format, res, HGridBuilder.errToGrid(e));
+        return;
+      }
+    }
+
+    HGrid result;
+    try
+    {
+      if (reqGrid == null)
+      {
+        throw new Exception("Unsupported method " + req.getMethod());
+      }
+      result = onService(db, reqGrid);
+    }
+    catch (Throwable e)
+    {
+      result = HGridBuilder.errToGrid(e);
+    }
+    StreamReadOp.writeGrid(format, res, result);
+  }
+
+  @Override
+  public HGrid onService(HServer db, HGrid req) throws Exception
+  {
+    if (req.isEmpty() || !req.row(0).has("maxPoints"))
+    {
+      return HStdOps.hisRead.onService(db, req);
+    }
+
+    HRow row = req.row(0);
+    return ((NHServer) db).hisRead(
+      WatchSubOp.valToId(db, row.get("id")),
+      row.getStr("range"),
+      maxPoints(row));
+  }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+  private static int maxPoints(HRow row)
+  {
+    return row.has("maxPoints") ? row.getInt("maxPoints") : 0;
+  }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG = Logger.getLogger("nhaystack");
+}
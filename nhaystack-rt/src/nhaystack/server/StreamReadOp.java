@@ -0,0 +1,223 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.io.*;
+import org.projecthaystack.server.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replaces the standard 'read' op.  A filter read that is asked for in
+ * zinc or json is written straight to the response, one row at a time,
+ * so the result is never held in memory as an HGrid.  Reads by id are
+ * passed on to HStdOps.read.
+ * <p>
+ * A filter read may be paged.  If there are more than 'limit' records,
+ * the grid meta has a 'cursor' tag.  Passing it back as the 'cursor'
+ * parameter returns the next page.
+ */
+public class StreamReadOp extends HOp
+{
+  public StreamReadOp()
+  {
+  }
+
+  @Override
+  public String name()
+  {
+    return "read";
+  }
+
+  @Override
+  public String summary()
+  {
+    return "Read entity records in database";
+  }
+
+  @Override
+  public void onService(HServer db, HttpServletRequest req, HttpServletResponse res) throws Exception
+  {
+    HGrid reqGrid = null;
+    if (req.getMethod().equals("GET"))
+    {
+      reqGrid = getToGrid(req);
+    }
+    else if (req.getMethod().equals("POST"))
+    {
+      reqGrid = postToGrid(req, res);
+      if (reqGrid == null)
+      {
+        return;
+      }
+    }
+
+    HGridFormat format = toFormat(req);
+    startResponse(res, format);
+
+    GridStreamWriter stream = GridStreamWriter.make(format, res.getOutputStream());
+    if (stream != null && reqGrid != null && !reqGrid.isEmpty() && reqGrid.row(0).has("filter"))
+    {
+      HRow row = reqGrid.row(0);
+      String filter = row.getStr("filter");
+      int limit = row.has("limit") ? row.getInt("limit") : Integer.MAX_VALUE;
+      String cursor = row.has("cursor") ? row.getStr("cursor") : null;
+      try
+      {
+        ((NHServer) db).streamReadAll(filter, limit, cursor, stream);
+        return;
+      }
+      catch (Throwable e)
+      {
+        // once the header has gone out there is no way to report
+        // the error, so the client will see a truncated grid
+        if (stream.isStarted())
+        {
+          LOG.log(Level.SEVERE, "Cannot finish read of \"" + filter + "\"", e);
+          throw e;
+        }
+        writeGrid(format, res, HGridBuilder.errToGrid(e));
+        return;
+      }
+    }
+
+    HGrid result;
+    try
+    {
+      if (reqGrid == null)
+      {
+        throw new Exception("Unsupported method " + req.getMethod());
+      }
+      result = onService(db, reqGrid);
+    }
+    catch (Throwable e)
+    {
+      result = HGridBuilder.errToGrid(e);
+    }
+    writeGrid(format, res, result);
+  }
+
+  @Override
+  public HGrid onService(HServer db, HGrid req) throws Exception
+  {
+    if (req.isEmpty() || !req.row(0).has("filter"))
+    {
+      return HStdOps.read.onService(db, req);
+    }
+
+    HRow row = req.row(0);
+    return ((NHServer) db).readPage(
+      row.getStr("filter"),
+      row.has("limit") ? row.getInt("limit") : Integer.MAX_VALUE,
+      row.has("cursor") ? row.getStr("cursor") : null);
+  }
+
+////////////////////////////////////////////////////////////////
+// util
+////////////////////////////////////////////////////////////////
+
+  /**
+   * The same as HOp, which keeps these methods private.
+   * They are shared with the watch ops.
+   */
+  static HGrid getToGrid(HttpServletRequest req)
+  {
+    if (req.getParameterMap() == null)
+    {
+      return HGrid.EMPTY;
+    }
+
+    HDictBuilder b = new HDictBuilder();
+    for (Object o : req.getParameterMap().entrySet())
+    {
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      String name = (String) e.getKey();
+      String val = ((String[]) e.getValue())[0];
+      HVal hval;
+      try
+      {
+        hval = new HZincReader(val).readVal();
+      }
+      catch (Exception ex)
+      {
+        hval = HStr.make(val);
+      }
+      b.add(name, hval);
+    }
+    return HGridBuilder.dictToGrid(b.toDict());
+  }
+
+  static HGrid postToGrid(HttpServletRequest req, HttpServletResponse res) throws Exception
+  {
+    String mime = req.getHeader("Content-Type");
+    if (mime == null)
+    {
+      res.sendError(400, "Missing 'Content-Type' header");
+      return null;
+    }
+
+    HGridFormat format = HGridFormat.find(mime, false);
+    if (format == null || format.reader == null)
+    {
+      res.sendError(415, "No format reader available for MIME type: " + mime);
+      return null;
+    }
+
+    return format.makeReader(req.getInputStream()).readGrid();
+  }
+
+  static HGridFormat toFormat(HttpServletRequest req)
+  {
+    String accept = req.getHeader("Accept");
+    if (accept != null)
+    {
+      for (String mime : HStr.split(accept, ',', true))
+      {
+        HGridFormat format = HGridFormat.find(mime, false);
+        if (format != null && format.writer != null)
+        {
+          return format;
+        }
+      }
+    }
+    return HGridFormat.find("text/plain", true);
+  }
+
+  static void startResponse(HttpServletResponse res, HGridFormat format)
+  {
+    res.setStatus(200);
+    if (format.mime.startsWith("text/"))
+    {
+      res.setCharacterEncoding("UTF-8");
+      res.setContentType(format.mime + "; charset=utf-8");
+    }
+    else
+    {
+      res.setContentType(format.mime);
+    }
+  }
+
+  static void writeGrid(HGridFormat format, HttpServletResponse res, HGrid grid) throws Exception
+  {
+    HGridWriter out = format.makeWriter(res.getOutputStream());
+    out.writeGrid(grid);
+    out.flush();
+  }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG = Logger.getLogger("nhaystack");
+}
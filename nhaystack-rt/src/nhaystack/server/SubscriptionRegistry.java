@@ -0,0 +1,225 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.baja.spy.SpyWriter;
+import javax.baja.sys.BComponent;
+import javax.baja.sys.BComponentEvent;
+import javax.baja.sys.Subscriber;
+import org.projecthaystack.HDict;
+
+/**
+  * SubscriptionRegistry subscribes to the points of all the watches.
+  * <p>
+  * A point is subscribed once, no matter how many watches hold it.
+  * When it changes, the event only marks the point as dirty in each of
+  * the watches that hold it.  Its COV tags are made when a watch polls,
+  * and the dict is shared by all the watches that poll before the point
+  * changes again.
+  */
+class SubscriptionRegistry
+{
+    SubscriptionRegistry(TagManager tagMgr)
+    {
+        this.tagMgr = tagMgr;
+    }
+
+    /**
+      * Add the watch to the watchers of each of the points.
+      */
+    synchronized void subscribe(NHWatch watch, Collection<BComponent> points)
+    {
+        List<BComponent> added = new ArrayList<>();
+        for (BComponent point : points)
+        {
+            Entry entry = entries.get(point);
+            if (entry == null)
+            {
+                entries.put(point, new Entry(watch));
+                added.add(point);
+            }
+            else
+            {
+                entry.add(watch);
+            }
+        }
+
+        if (!added.isEmpty())
+            subscriber.subscribe(added.toArray(EMPTY_COMPONENT_ARRAY), 0, null);
+    }
+
+    /**
+      * Remove the watch from the watchers of each of the points.
+      * A point which has no watchers left is unsubscribed.
+      */
+    synchronized void unsubscribe(NHWatch watch, Collection<BComponent> points)
+    {
+        List<BComponent> removed = new ArrayList<>();
+        for (BComponent point : points)
+        {
+            Entry entry = entries.get(point);
+            if (entry != null && entry.remove(watch))
+            {
+                entries.remove(point);
+                removed.add(point);
+            }
+        }
+
+        if (!removed.isEmpty())
+            subscriber.unsubscribe(removed.toArray(EMPTY_COMPONENT_ARRAY), null);
+    }
+
+    /**
+      * Unsubscribe from everything.
+      */
+    synchronized void stop()
+    {
+        subscriber.unsubscribeAll();
+        entries.clear();
+    }
+
+    /**
+      * Return the COV tags of a point for a poll.  The dict is only
+      * made again if the point has changed since it was last made.
+      */
+    HDict getCovTags(BComponent point)
+    {
+        Entry entry = entries.get(point);
+        if (entry == null)
+            return tagMgr.createComponentCovTags(point);
+
+        int version = entry.version.get();
+        Cov cov = entry.cov;
+        if (cov != null && cov.version == version)
+            return cov.tags;
+
+        // if the point changes while this is being made, the version
+        // will have moved on, and it will be made again on the next poll
+        cov = new Cov(version, tagMgr.createComponentCovTags(point));
+        covsMade.increment();
+        entry.cov = cov;
+        return cov.tags;
+    }
+
+    void spy(SpyWriter out) throws Exception
+    {
+        out.startProps();
+        out.trTitle("Watch Subscriptions", 2);
+        out.prop("points", entries.size());
+        out.prop("changes", changes.sum());
+        out.prop("covsMade", covsMade.sum());
+        out.endProps();
+    }
+
+////////////////////////////////////////////////////////////////
+// Entry
+////////////////////////////////////////////////////////////////
+
+    /**
+      * The watches which hold a point.  The array is replaced rather
+      * than changed, so that events can read it without a lock.
+      */
+    private static final class Entry
+    {
+        Entry(NHWatch watch)
+        {
+            this.watchers = new NHWatch[] { watch };
+        }
+
+        void add(NHWatch watch)
+        {
+            for (NHWatch w : watchers)
+                if (w == watch) return;
+
+            NHWatch[] arr = Arrays.copyOf(watchers, watchers.length + 1);
+            arr[watchers.length] = watch;
+            watchers = arr;
+        }
+
+        /**
+          * Remove the watch, and return whether there are none left.
+          */
+        boolean remove(NHWatch watch)
+        {
+            List<NHWatch> list = new ArrayList<>(Arrays.asList(watchers));
+            list.remove(watch);
+            watchers = list.toArray(EMPTY_WATCH_ARRAY);
+            return watchers.length == 0;
+        }
+
+        volatile NHWatch[] watchers;
+
+        /** incremented every time the point changes */
+        final AtomicInteger version = new AtomicInteger();
+        volatile Cov cov;
+    }
+
+    /**
+      * The COV tags of a point, and the version they were made from.
+      */
+    private static final class Cov
+    {
+        Cov(int version, HDict tags)
+        {
+            this.version = version;
+            this.tags = tags;
+        }
+
+        final int version;
+        final HDict tags;
+    }
+
+////////////////////////////////////////////////////////////////
+// RSubscriber
+////////////////////////////////////////////////////////////////
+
+    private class RSubscriber extends Subscriber
+    {
+        @Override
+        public void event(BComponentEvent event)
+        {
+            // we only care about the "out" slot
+            if (!event.getSlotName().equals("out"))
+                return;
+
+            BComponent comp = event.getSourceComponent();
+            Entry entry = entries.get(comp);
+            if (entry == null)
+                return;
+
+            // the tags are not made here, so a point which changes many
+            // times between polls costs no more than one which changes once
+            entry.version.incrementAndGet();
+            changes.increment();
+            for (NHWatch watch : entry.watchers)
+                watch.markDirty(comp);
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private static final BComponent[] EMPTY_COMPONENT_ARRAY = new BComponent[0];
+    private static final NHWatch[] EMPTY_WATCH_ARRAY = new NHWatch[0];
+
+    private final TagManager tagMgr;
+    private final Subscriber subscriber = new RSubscriber();
+    private final Map<BComponent, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder covsMade = new LongAdder();
+}
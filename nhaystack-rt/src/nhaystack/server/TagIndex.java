@@ -0,0 +1,608 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.sys.BComponent;
+
+import org.projecthaystack.HDict;
+import org.projecthaystack.HRef;
+import org.projecthaystack.HStr;
+import org.projecthaystack.HVal;
+
+/**
+  * TagIndex is an inverted index from tags to the records that have them.
+  * It lets readAll visit only the records that could possibly match
+  * a filter, instead of creating the tags for every record in the station.
+  * <p>
+  * Each record is given a document number in iteration order, components
+  * first and then histories, so that walking the candidates in document
+  * order returns records in the same order as a full scan.  Records that
+  * are updated after the index is built are moved to the end.
+  * <p>
+  * Every tag name has a posting list of the documents that carry it.
+  * Ref tags (other than id), and a few low cardinality string tags, also
+  * have a posting list per value, so that equality tests can be answered.
+  * <p>
+  * Each component is indexed with the ComponentStamp it had when its tags
+  * were made, so that the CacheUpdater can find the points whose tags
+  * have been edited without an event, and index them again.
+  * <p>
+  * The candidates are always a superset of the real matches, and each
+  * candidate must still be checked against the HFilter.
+  * <p>
+  * A TagIndex made with the constructor can be changed.  Each Cache
+  * snapshot has a view() of it instead, which sees the documents that
+  * were there when the view was made, and is not changed by later
+  * updates.  Documents are only ever appended, and a removed document
+  * is only marked as deleted, so a view just needs the number of
+  * documents and its own copy of the deleted documents.  The next
+  * update starts from edit() of the published view.
+  * <p>
+  * TagIndex is thread-safe.
+  */
+final class TagIndex
+{
+    /**
+      * Make an empty index, which can be changed.
+      */
+    TagIndex()
+    {
+        this(new Store(), -1, null);
+    }
+
+    private TagIndex(Store store, int limit, BitSet mask)
+    {
+        this.store = store;
+        this.limit = limit;
+        this.mask = mask;
+    }
+
+    /**
+      * Return a view of the index as it is now, which does not see any
+      * later changes.  The view of a view is the view itself.
+      */
+    TagIndex view()
+    {
+        if (limit >= 0) return this;
+
+        synchronized (store)
+        {
+            return new TagIndex(store, store.keys.size(), (BitSet) store.deleted.clone());
+        }
+    }
+
+    /**
+      * Return an index which starts out the same as this view, and can
+      * be changed without changing the view.  If the index has been
+      * changed since the view was made, e.g. by an update which failed
+      * half way, the part which the view sees is copied.
+      */
+    TagIndex edit()
+    {
+        if (limit < 0) throw new IllegalStateException("Only a view can be edited");
+
+        synchronized (store)
+        {
+            if (store.keys.size() == limit && store.deleted.equals(mask))
+                return new TagIndex(store, -1, null);
+            return new TagIndex(store.copy(limit, mask), -1, null);
+        }
+    }
+
+    /**
+      * Index a component record.  The stamp must be made before the tags.
+      */
+    void addComponent(BComponent comp, HDict tags, ComponentStamp stamp)
+    {
+        synchronized (store)
+        {
+            store.stamps.set(add(comp, tags), stamp);
+        }
+    }
+
+    /**
+      * Index a history record.
+      */
+    void addHistory(BHistoryConfig cfg, HDict tags)
+    {
+        add(cfg.getId(), tags);
+    }
+
+    /**
+      * Add a record that could not be indexed.  It is returned as
+      * a candidate for every filter.
+      */
+    void addUnindexed(Object key)
+    {
+        synchronized (store)
+        {
+            store.unindexed.set(append(key));
+        }
+    }
+
+    /**
+      * Index a record, and return its document number.  The key is either
+      * a BComponent, or a BHistoryId.  If the record is already in the
+      * index, its old document is removed first.
+      */
+    int add(Object key, HDict tags)
+    {
+        synchronized (store)
+        {
+            int doc = append(key);
+
+            Iterator<Map.Entry<String, HVal>> it = tags.iterator();
+            while (it.hasNext())
+            {
+                Map.Entry<String, HVal> e = it.next();
+                String name = e.getKey();
+                HVal val = e.getValue();
+
+                store.names.computeIfAbsent(name, k -> new BitSet()).set(doc);
+
+                if (isValueIndexed(name, val))
+                {
+                    store.values
+                        .computeIfAbsent(name, k -> new HashMap<>())
+                        .computeIfAbsent(val, k -> new Postings())
+                        .add(doc);
+                }
+            }
+            return doc;
+        }
+    }
+
+    /**
+      * Remove a record from the index, if it is present.
+      */
+    void remove(Object key)
+    {
+        synchronized (store)
+        {
+            checkWritable();
+
+            // The posting lists are left alone, since deleted documents
+            // are masked out of the candidates.
+            Integer doc = store.docs.get(key);
+            if (doc != null) store.deleted.set(doc);
+        }
+    }
+
+    /**
+      * Return the key of the given document: either a BComponent,
+      * or a BHistoryId.  Returns null if the document has been removed.
+      */
+    Object getKey(int doc)
+    {
+        synchronized (store)
+        {
+            return isLive(doc) ? store.keys.get(doc) : null;
+        }
+    }
+
+    /**
+      * Return the stamp that the component of the given document was
+      * indexed with, or null if the document is not an indexed component.
+      */
+    ComponentStamp getStamp(int doc)
+    {
+        synchronized (store)
+        {
+            return isLive(doc) ? store.stamps.get(doc) : null;
+        }
+    }
+
+    /**
+      * Put the indexed components of the documents from 'from' up to,
+      * but not including, 'to' in the map, with the stamps they were
+      * indexed with.  The whole range is read under one lock.
+      */
+    void getStamps(int from, int to, Map<BComponent, ComponentStamp> stamps)
+    {
+        synchronized (store)
+        {
+            for (int doc = from; doc < to; doc++)
+            {
+                if (!isLive(doc)) continue;
+                ComponentStamp stamp = store.stamps.get(doc);
+                if (stamp != null)
+                    stamps.put((BComponent) store.keys.get(doc), stamp);
+            }
+        }
+    }
+
+    /**
+      * Return the document number of a record, or -1 if
+      * it is not in the index.
+      */
+    int docOf(Object key)
+    {
+        synchronized (store)
+        {
+            // go back to the document that this view sees
+            Integer latest = store.docs.get(key);
+            int doc = latest == null ? -1 : latest;
+            while (doc >= limit())
+                doc = store.prev[doc];
+            return doc >= 0 && !deleted().get(doc) ? doc : -1;
+        }
+    }
+
+    /**
+      * Return the number of documents in the index,
+      * including removed ones.
+      */
+    int size()
+    {
+        synchronized (store)
+        {
+            return limit();
+        }
+    }
+
+    /**
+      * Return the number of removed documents.
+      */
+    int garbage()
+    {
+        synchronized (store)
+        {
+            return deleted().cardinality();
+        }
+    }
+
+    /**
+      * Return the documents that might match the filter, or null
+      * if the index cannot narrow down the search.
+      * The returned BitSet belongs to the caller.
+      */
+    BitSet candidates(FilterNode filter)
+    {
+        synchronized (store)
+        {
+            BitSet bits = plan(filter);
+            if (bits != null)
+            {
+                bits.or(store.unindexed);
+                bits.andNot(deleted());
+                clip(bits);
+            }
+            return bits;
+        }
+    }
+
+    /**
+      * Return how many documents might match the filter.
+      */
+    int estimate(FilterNode filter)
+    {
+        synchronized (store)
+        {
+            BitSet bits = plan(filter);
+            if (bits == null) return limit() - deleted().cardinality();
+
+            bits.andNot(deleted());
+            clip(bits);
+            return bits.cardinality();
+        }
+    }
+
+    /**
+      * Count the components and the histories among the documents.
+      * Returns { components, histories }.
+      */
+    int[] countSpaces(BitSet bits)
+    {
+        synchronized (store)
+        {
+            int[] counts = new int[2];
+            for (int doc = bits.nextSetBit(0); doc >= 0 && doc < limit(); doc = bits.nextSetBit(doc + 1))
+            {
+                if (!isLive(doc)) continue;
+
+                if (store.keys.get(doc) instanceof BHistoryId) counts[1]++;
+                else counts[0]++;
+            }
+            return counts;
+        }
+    }
+
+    /**
+      * Return the names of the tags that any of the documents carry,
+      * with id first and the others in alphabetical order.  If bits is
+      * null, every document is counted.  Returns null if any of the
+      * documents is unindexed, since its tags are not known.
+      */
+    String[] tagNames(BitSet bits)
+    {
+        synchronized (store)
+        {
+            BitSet live = new BitSet();
+            if (bits == null)
+                live.set(0, limit());
+            else
+                live.or(bits);
+            live.andNot(deleted());
+            clip(live);
+
+            if (live.intersects(store.unindexed)) return null;
+
+            ArrayList<String> acc = new ArrayList<>();
+            for (Map.Entry<String, BitSet> e : store.names.entrySet())
+            {
+                if (!e.getKey().equals("id") && e.getValue().intersects(live))
+                    acc.add(e.getKey());
+            }
+            acc.sort(null);
+            if (!live.isEmpty())
+                acc.add(0, "id");
+            return acc.toArray(new String[acc.size()]);
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Remove the key's document, and add a new one at the end.
+      * Return its document number.
+      */
+    private int append(Object key)
+    {
+        remove(key);
+
+        Integer prev = store.docs.get(key);
+        int doc = store.keys.size();
+        store.keys.add(key);
+        store.stamps.add(null);
+        store.addPrev(prev == null ? -1 : prev);
+        store.docs.put(key, doc);
+        return doc;
+    }
+
+    /**
+      * The number of documents that this index sees.
+      */
+    private int limit()
+    {
+        return limit < 0 ? store.keys.size() : limit;
+    }
+
+    /**
+      * The documents that this index sees as removed.
+      */
+    private BitSet deleted()
+    {
+        return mask == null ? store.deleted : mask;
+    }
+
+    private boolean isLive(int doc)
+    {
+        return doc < limit() && !deleted().get(doc);
+    }
+
+    /**
+      * Clear the documents which were added after this view was made.
+      */
+    private void clip(BitSet bits)
+    {
+        int end = bits.length();
+        if (end > limit()) bits.clear(limit(), end);
+    }
+
+    private void checkWritable()
+    {
+        if (limit >= 0) throw new IllegalStateException("A view cannot be changed");
+    }
+
+    /**
+      * Evaluate the filter against the posting lists.
+      * A null return means "all documents".
+      */
+    private BitSet plan(FilterNode node)
+    {
+        if (node instanceof FilterNode.Has)
+        {
+            return withTag(((FilterNode.Has) node).tagName());
+        }
+        else if (node instanceof FilterNode.Cmp)
+        {
+            FilterNode.Cmp cmp = (FilterNode.Cmp) node;
+            String name = cmp.tagName();
+            if (cmp.isEq() && cmp.isSimple() && isValueIndexed(name, cmp.val))
+                return withValue(name, cmp.val);
+
+            // every comparison requires the tag to be present
+            return withTag(name);
+        }
+        else if (node instanceof FilterNode.And)
+        {
+            FilterNode.And and = (FilterNode.And) node;
+            BitSet a = plan(and.a);
+            BitSet b = plan(and.b);
+            if (a == null) return b;
+            if (b == null) return a;
+            a.and(b);
+            return a;
+        }
+        else if (node instanceof FilterNode.Or)
+        {
+            FilterNode.Or or = (FilterNode.Or) node;
+            BitSet a = plan(or.a);
+            if (a == null) return null;
+            BitSet b = plan(or.b);
+            if (b == null) return null;
+            a.or(b);
+            return a;
+        }
+
+        // 'not' can match any document
+        return null;
+    }
+
+    private BitSet withTag(String name)
+    {
+        if (isVolatile(name)) return null;
+
+        BitSet bits = store.names.get(name);
+        return bits == null ? new BitSet() : (BitSet) bits.clone();
+    }
+
+    private BitSet withValue(String name, HVal val)
+    {
+        BitSet bits = new BitSet();
+
+        Map<HVal, Postings> byVal = store.values.get(name);
+        if (byVal == null) return bits;
+
+        Postings postings = byVal.get(val);
+        if (postings == null) return bits;
+
+        for (int i = 0; i < postings.size; i++)
+            bits.set(postings.docs[i]);
+        return bits;
+    }
+
+    /**
+      * Volatile tags change from one read to the next, so the index
+      * cannot say anything about them.
+      */
+    private static boolean isVolatile(String name)
+    {
+        return Arrays.binarySearch(VOLATILE_TAGS, name) >= 0;
+    }
+
+    private static boolean isValueIndexed(String name, HVal val)
+    {
+        if (val instanceof HRef)
+            return !name.equals("id");
+
+        if (val instanceof HStr)
+            return Arrays.binarySearch(VALUE_TAGS, name) >= 0;
+
+        return false;
+    }
+
+////////////////////////////////////////////////////////////////
+// Postings
+////////////////////////////////////////////////////////////////
+
+    /**
+      * A sorted, growable list of document numbers.
+      */
+    private static final class Postings
+    {
+        void add(int doc)
+        {
+            if (size == docs.length)
+                docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+
+        int[] docs = new int[4];
+        int size;
+    }
+
+////////////////////////////////////////////////////////////////
+// Store
+////////////////////////////////////////////////////////////////
+
+    /**
+      * The documents and the posting lists, which an index and its views
+      * share.  Everything is guarded by the Store's lock.
+      */
+    private static final class Store
+    {
+        void addPrev(int doc)
+        {
+            int n = keys.size() - 1;
+            if (n == prev.length)
+                prev = Arrays.copyOf(prev, Math.max(16, n * 2));
+            prev[n] = doc;
+        }
+
+        /**
+          * Copy the part of the store which a view sees.
+          */
+        Store copy(int limit, BitSet mask)
+        {
+            Store copy = new Store();
+            for (int doc = 0; doc < limit; doc++)
+            {
+                Object key = keys.get(doc);
+                copy.keys.add(key);
+                copy.stamps.add(stamps.get(doc));
+                copy.addPrev(prev[doc]);
+                copy.docs.put(key, doc);
+            }
+            copy.unindexed.or(unindexed.get(0, limit));
+            copy.deleted.or(mask);
+
+            for (Map.Entry<String, BitSet> e : names.entrySet())
+                copy.names.put(e.getKey(), e.getValue().get(0, limit));
+
+            for (Map.Entry<String, Map<HVal, Postings>> e : values.entrySet())
+            {
+                Map<HVal, Postings> byVal = new HashMap<>();
+                for (Map.Entry<HVal, Postings> v : e.getValue().entrySet())
+                {
+                    Postings postings = new Postings();
+                    Postings old = v.getValue();
+                    for (int i = 0; i < old.size && old.docs[i] < limit; i++)
+                        postings.add(old.docs[i]);
+                    byVal.put(v.getKey(), postings);
+                }
+                copy.values.put(e.getKey(), byVal);
+            }
+            return copy;
+        }
+
+        final ArrayList<Object> keys = new ArrayList<>();
+        final ArrayList<ComponentStamp> stamps = new ArrayList<>();
+
+        /** the previous document of the same key, or -1 */
+        int[] prev = new int[16];
+
+        /** the latest document of each key, even if it has been removed */
+        final Map<Object, Integer> docs = new HashMap<>();
+
+        final BitSet unindexed = new BitSet();
+        final BitSet deleted = new BitSet();
+        final Map<String, BitSet> names = new HashMap<>();
+        final Map<String, Map<HVal, Postings>> values = new HashMap<>();
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    // sorted
+    private static final String[] VOLATILE_TAGS = {
+        "curErr", "curStatus", "curVal",
+        "writeErr", "writeLevel", "writeStatus", "writeVal" };
+
+    // sorted
+    private static final String[] VALUE_TAGS = { "axType", "kind", "tz", "unit" };
+
+    private final Store store;
+
+    /** the number of documents a view sees, or -1 if this is not a view */
+    private final int limit;
+
+    /** the documents a view sees as removed, or null if this is not a view */
+    private final BitSet mask;
+}
@@ -18,7 +18,9 @@ package nhaystack.server;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -29,6 +31,7 @@ import javax.baja.control.BControlPoint;
 import javax.baja.control.BEnumPoint;
 import javax.baja.control.BNumericPoint;
 import javax.baja.control.BStringPoint;
+import javax.baja.category.BCategoryMask;
 import javax.baja.data.BIDataValue;
 import javax.baja.driver.BDevice;
 import javax.baja.history.BBooleanTrendRecord;
@@ -49,6 +52,7 @@ import javax.baja.schedule.BEnumSchedule;
 import javax.baja.schedule.BNumericSchedule;
 import javax.baja.schedule.BStringSchedule;
 import javax.baja.schedule.BWeeklySchedule;
+import javax.baja.spy.SpyWriter;
 import javax.baja.status.BStatus;
 import javax.baja.status.BStatusBoolean;
 import javax.baja.status.BStatusEnum;
@@ -70,7 +74,9 @@ import javax.baja.sys.BNumber;
 import javax.baja.sys.BObject;
 import javax.baja.sys.BString;
 import javax.baja.sys.BValue;
+import javax.baja.sys.Context;
 import javax.baja.sys.Flags;
+import javax.baja.sys.Sys;
 import javax.baja.sys.Type;
 import javax.baja.tag.Relation;
 import javax.baja.tag.Tag;
@@ -86,6 +92,7 @@ import nhaystack.res.Unit;
 import nhaystack.site.BHTagged;
 import nhaystack.util.NHaystackConst;
 import nhaystack.util.SlotUtil;
+import nhaystack.util.TypeUtil;
 import org.projecthaystack.HBool;
 import org.projecthaystack.HCoord;
 import org.projecthaystack.HDict;
@@ -212,6 +219,101 @@ public class TagManager implements NHaystackConst
         }
     }
 
+    /**
+      * Look up many components at once, returning null for each id
+      * that cannot be found or is not visible, as lookupComponent() does.
+      *
+      * Component ids are resolved by walking down from the station,
+      * remembering each parent on the way, so that ids which share
+      * a parent only resolve it once.  A component's read permission
+      * only depends on its categories, so it is only checked once
+      * for each set of categories, which in practice means once per
+      * subtree.  Other ids are looked up one at a time.
+      */
+    BComponent[] lookupComponents(HRef[] ids)
+    {
+        Context cx = ThreadContext.getContext(Thread.currentThread());
+        Map<String, BComponent> paths = new HashMap<>();
+        Map<BCategoryMask, Boolean> canRead = new HashMap<>();
+
+        BComponent[] comps = new BComponent[ids.length];
+        for (int i = 0; i < ids.length; i++)
+        {
+            try
+            {
+                comps[i] = lookupComponent(ids[i], paths, canRead, cx);
+            }
+            catch (Exception e)
+            {
+                LOG.warning("Cannot look up " + ids[i] + ": " + e.getMessage());
+            }
+        }
+        return comps;
+    }
+
+    private BComponent lookupComponent(
+        HRef id,
+        Map<String, BComponent> paths,
+        Map<BCategoryMask, Boolean> canRead,
+        Context cx)
+    {
+        NHRef nh = NHRef.make(id);
+        String ord = null;
+        if (nh.getSpace().equals(NHRef.COMP))
+            ord = "slot:" + SlotUtil.toNiagara(nh.getPath());
+        else if (nh.getSpace().equals(NHRef.COMP_BASE64))
+            ord = Base64.URI.decodeUTF8(nh.getPath());
+
+        if (ord == null)
+            return doLookupComponent(id, true);
+
+        BComponent comp;
+        if (ord.startsWith("slot:/"))
+            comp = resolveSlotPath(ord.substring("slot:".length()), paths);
+        else if (ord.startsWith("h:"))
+            comp = Sys.getStation().getComponentSpace().findByHandle(ord.substring("h:".length()));
+        else
+            comp = (BComponent) BOrd.make("station:|" + ord).get(service, null);
+
+        if (comp == null || !SpaceManager.isHaystackComponent(comp))
+            return null;
+
+        BCategoryMask mask = comp.getAppliedCategoryMask();
+        Boolean readable = canRead.get(mask);
+        if (readable == null)
+        {
+            readable = TypeUtil.canRead(comp, cx);
+            canRead.put(mask, readable);
+        }
+        return readable ? comp : null;
+    }
+
+    /**
+      * Resolve a slot path such as /Drivers/Net/Dev/points/pt,
+      * or return null if there is nothing there.
+      */
+    private static BComponent resolveSlotPath(String path, Map<String, BComponent> paths)
+    {
+        if (path.equals("/"))
+            return Sys.getStation();
+
+        BComponent comp = paths.get(path);
+        if (comp != null || paths.containsKey(path))
+            return comp;
+
+        int n = path.lastIndexOf('/');
+        BComponent parent = resolveSlotPath(n == 0 ? "/" : path.substring(0, n), paths);
+        if (parent != null)
+        {
+            BValue child = parent.get(path.substring(n + 1));
+            if (child instanceof BComponent)
+                comp = (BComponent) child;
+        }
+
+        paths.put(path, comp);
+        return comp;
+    }
+
     /**
       * Make an ID from a BComponent.  
       */
@@ -458,8 +560,53 @@ public class TagManager implements NHaystackConst
       * This method never returns null.
       */
     public HDict createComponentTags(BComponent comp)
+    {
+        long generation = cache.generation();
+        TagMemo.Entry entry = memo.get(comp, generation);
+        if (entry == null)
+        {
+            ComponentStamp stamp = ComponentStamp.make(comp);
+            HDict tags = BHDict.findTagAnnotation(comp);
+            if (tags == null) tags = HDict.EMPTY;
+            entry = memo.put(comp, createStaticTags(comp), tags, generation, stamp);
+        }
+
+        if (!(comp instanceof BControlPoint || comp instanceof BWeeklySchedule))
+            return entry.tags;
+
+        return new LazyDict(entry.tags, makeCurTags(comp, entry.annotation));
+    }
+
+    /**
+      * Forget the tags that were remembered for the component, e.g. because
+      * they have just been changed.
+      */
+    void invalidateTags(BComponent comp)
+    {
+        memo.remove(comp);
+    }
+
+    void spy(SpyWriter out) throws Exception
+    {
+        out.startProps();
+        out.trTitle("Tag Memo", 2);
+        out.prop("size", memo.size());
+        out.prop("hits", memo.getHits());
+        out.prop("misses", memo.getMisses());
+        out.endProps();
+    }
+
+    /**
+      * Create all the tags of a component, except for the ones
+      * that change with the value of a point.
+      *
+      * The tags which are expensive to make -- dis, id, actions and
+      * hisInterpolate -- are left in a LazyDict until they are asked for.
+      */
+    private HDict createStaticTags(BComponent comp)
     {
         HDictBuilder hdb = new HDictBuilder();
+        Map<String, LazyDict.Tag> lazy = new LinkedHashMap<>();
         hdb.add(generateComponentTags(comp));
         hdb.add(convertRelationsToRefTags(comp));
 
@@ -489,25 +636,33 @@ public class TagManager implements NHaystackConst
 
             // points get special treatment
             if (comp instanceof BControlPoint)
-                createPointTags((BControlPoint) comp, hdb, tags);
+                createPointTags((BControlPoint) comp, hdb, lazy, tags);
 
             // schedules get special treatment as 'points'
             else if (comp instanceof BWeeklySchedule)
                 createScheduleTags((BWeeklySchedule) comp, hdb, tags);
 
-            // dis
-            String dis = createDis(comp, tags, hdb);
+            // dis, which looks up the names of the equip and site
+            HDict annotation = tags;
+            boolean point = hdb.has("point");
+            boolean equip = hdb.has("equip");
+            HRef equipRef = hdb.has(EQUIP_REF) ? (HRef) hdb.get(EQUIP_REF) : null;
+            HRef siteRef  = hdb.has(SITE_REF)  ? (HRef) hdb.get(SITE_REF)  : null;
+            LazyDict.Tag dis = LazyDict.once(dict -> HStr.make(
+                createDis(comp, annotation, point, equip, equipRef, siteRef)));
+
             // if the dis tag wasn't converted from niagara tags, add it the nhaystack way.
             if (!hdb.has("dis"))
             {
-                hdb.add("dis", dis);
+                lazy.put("dis", dis);
             }
 
             // add id if it doesn't exist
             if (!hdb.has("id"))
             {
-                HRef id = makeComponentRef(comp).getHRef();
-                hdb.add("id", HRef.make(id.val, dis));
+                lazy.put("id", dict -> HRef.make(
+                    makeComponentRef(comp).getHRef().val,
+                    ((HStr) dis.make(dict)).val));
             }
 
             // add device if it doesn't exist
@@ -521,7 +676,7 @@ public class TagManager implements NHaystackConst
         hdb.add(server.createCustomTags(comp));
 
         // done
-        return hdb.toDict();
+        return lazy.isEmpty() ? hdb.toDict() : new LazyDict(hdb.toDict(), lazy);
     }
 
     /**
@@ -723,16 +878,18 @@ public class TagManager implements NHaystackConst
     /**
       * create the 'dis' tag
       */
-    private String createDis(BComponent comp, HDict tags, HDictBuilder hdb)
+    private String createDis(
+        BComponent comp, HDict tags,
+        boolean point, boolean equip, HRef equipRef, HRef siteRef)
     {
         String dis = makeDisName(comp, tags);
 
-        if (hdb.has("point"))
+        if (point)
         {
-            String equipDis = lookupDisName(hdb, EQUIP_REF);
+            String equipDis = lookupDisName(equipRef);
             if (equipDis != null)
             {
-                String siteDis = lookupDisName(hdb, SITE_REF);
+                String siteDis = lookupDisName(siteRef);
                 if (siteDis != null)
                 {
                     dis = siteDis + ' ' + equipDis + ' ' + dis;
@@ -743,9 +900,9 @@ public class TagManager implements NHaystackConst
                 }
             }
         }
-        else if (hdb.has("equip"))
+        else if (equip)
         {
-            String siteDis = lookupDisName(hdb, SITE_REF);
+            String siteDis = lookupDisName(siteRef);
             if (siteDis != null)
                 dis = siteDis + ' ' + dis;
         }
@@ -754,13 +911,13 @@ public class TagManager implements NHaystackConst
     }
 
     /**
-      * look up the 'dis' associated with the given tag name
+      * look up the 'dis' of the component the ref points to
       */
-    private String lookupDisName(HDictBuilder hdb, String tagName)
+    private String lookupDisName(HRef ref)
     {
-        if (hdb.has(tagName))
+        if (ref != null)
         {
-            BComponent comp = lookupComponent((HRef) hdb.get(tagName));
+            BComponent comp = lookupComponent(ref);
             if (comp != null)
             {
                 HDict compTags = BHDict.findTagAnnotation(comp);
@@ -776,6 +933,7 @@ public class TagManager implements NHaystackConst
     private void createPointTags(
         BControlPoint point, 
         HDictBuilder hdb,
+        Map<String, LazyDict.Tag> lazy,
         HDict tags)
     {
         // ensure there is a point marker tag
@@ -797,12 +955,12 @@ public class TagManager implements NHaystackConst
                 if (tz != null) hdb.add("tz", tz.name);
             }
 
-            // hisInterpolate 
+            // hisInterpolate, which has to open the history space
             if (!tags.has("hisInterpolate"))
             {
-                BHistoryExt historyExt = spaceMgr.lookupHistoryExt(point);
-                if (historyExt instanceof BCovHistoryExt)
-                    hdb.add("hisInterpolate", "cov");
+                lazy.put("hisInterpolate", dict ->
+                    spaceMgr.lookupHistoryExt(point) instanceof BCovHistoryExt ?
+                        HStr.make("cov") : null);
             }
         }
 
@@ -816,15 +974,6 @@ public class TagManager implements NHaystackConst
         BFacets facets = (BFacets) point.get("facets");
         addPointKindTags(pointKind, facets, tags, hdb);
 
-        // curVal
-        HVal curVal = makeCurVal(point, pointKind, facets, point.getStatusValue(), tags);
-        if (curVal != null) hdb.add("curVal", curVal);
-
-        // curStatus
-        HStr curStatus = makeCurStatus(point.getStatus());
-        if (curStatus != null) hdb.add("curStatus", curStatus);
-        hdb.add("axStatus", axStatus(point.getStatus()));
-
         // minVal, maxVal, precision
         BNumber minVal    = getNumberFacet(facets, BFacets.MIN);
         BNumber maxVal    = getNumberFacet(facets, BFacets.MAX);
@@ -836,15 +985,57 @@ public class TagManager implements NHaystackConst
         // actions tag
         if (point.isWritablePoint() || tags.has("writable"))
         {
-            HGrid actionsGrid = createPointActions(point, pointKind);
-            if (actionsGrid != null)
-                hdb.add("actions", HStr.make(HZincWriter.gridToString(actionsGrid)));
+            lazy.put("actions", dict ->
+            {
+                HGrid actionsGrid = createPointActions(point, pointKind);
+                return actionsGrid == null ? null :
+                    HStr.make(HZincWriter.gridToString(actionsGrid));
+            });
         }
 
         // siteRef, equipRef
         addSiteEquipTags(point, hdb, tags);
     }
 
+    /**
+      * Make the tags that change with the value of a point:
+      * curVal, curStatus, and axStatus for control points.
+      * They are only read from the point when they are asked for.
+      */
+    private Map<String, LazyDict.Tag> makeCurTags(BComponent comp, HDict tags)
+    {
+        Map<String, LazyDict.Tag> lazy = new LinkedHashMap<>();
+        if (comp instanceof BControlPoint)
+        {
+            BControlPoint point = (BControlPoint) comp;
+
+            // curVal
+            lazy.put("curVal", dict -> makeCurVal(
+                point, getControlPointKind(point), (BFacets) point.get("facets"),
+                point.getStatusValue(), tags));
+
+            // curStatus
+            lazy.put("curStatus", dict -> makeCurStatus(point.getStatus()));
+            lazy.put("axStatus", dict -> HStr.make(axStatus(point.getStatus())));
+        }
+        else if (comp instanceof BWeeklySchedule)
+        {
+            BWeeklySchedule sched = (BWeeklySchedule) comp;
+            BValue val = sched.get("out");
+            if (!(val instanceof BStatusValue)) return lazy;
+            BStatusValue out = (BStatusValue) val;
+
+            // curVal
+            lazy.put("curVal", dict -> makeCurVal(
+                sched, getControlPointKind(sched), (BFacets) sched.get("facets"),
+                sched.getStatusValue(), tags));
+
+            // curStatus
+            lazy.put("curStatus", dict -> makeCurStatus(out.getStatus()));
+        }
+        return lazy;
+    }
+
     private static String axStatus(BStatus status)
     {
         if (status.isOk()) return "ok";
@@ -871,10 +1062,8 @@ public class TagManager implements NHaystackConst
         HDictBuilder hdb,
         HDict tags)
     {
-        BValue val = point.get("out");
-        if (!(val instanceof BStatusValue)) return;
-        BStatusValue out = (BStatusValue) val;
-        
+        if (!(point.get("out") instanceof BStatusValue)) return;
+
         hdb.add("point");
         hdb.add("cur");
 
@@ -886,14 +1075,6 @@ public class TagManager implements NHaystackConst
         BFacets facets = (BFacets) point.get("facets");
         addPointKindTags(pointKind, facets, tags, hdb);
 
-        // curVal
-        HVal curVal = makeCurVal(point, pointKind, facets, point.getStatusValue(), tags);
-        if (curVal != null) hdb.add("curVal", curVal);
-
-        // curStatus
-        HStr curStatus = makeCurStatus(out.getStatus());
-        if (curStatus != null) hdb.add("curStatus", curStatus);
-
         // minVal, maxVal, precision
         BNumber minVal    = getNumberFacet(facets, BFacets.MIN);
         BNumber maxVal    = getNumberFacet(facets, BFacets.MAX);
@@ -1311,6 +1492,9 @@ public class TagManager implements NHaystackConst
 
     private static final HDict[] EMPTY_HDICT_ARRAY = new HDict[0];
 
+    /** the number of components whose tags are remembered */
+    private static final int MEMO_SIZE = 10000;
+
     // point kinds
     private static final int UNKNOWN_KIND = -1;
     private static final int NUMERIC_KIND =  0;
@@ -1322,5 +1506,6 @@ public class TagManager implements NHaystackConst
     private final BNHaystackService service;
     private final SpaceManager spaceMgr;
     private final Cache cache;
+    private final TagMemo memo = new TagMemo(MEMO_SIZE);
 }
 
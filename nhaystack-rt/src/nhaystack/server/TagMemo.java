@@ -0,0 +1,144 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+package nhaystack.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.baja.sys.BComponent;
+
+import org.projecthaystack.HDict;
+
+/**
+  * TagMemo remembers the tags of recently used components, apart from
+  * the tags which change with the value of a point (curVal, curStatus
+  * and axStatus).  It holds at most a fixed number of components, and
+  * forgets the least recently used one first.
+  * <p>
+  * An entry is only valid for the cache generation it was made in, so
+  * every rebuild or update of the Cache throws away all the entries.
+  * Nothing is remembered while a new generation is being made.  An
+  * entry is also dropped if the component no longer matches the
+  * ComponentStamp it was made with, e.g. because a tag or a relation
+  * was edited on a point, or if the component is passed to remove().
+  * <p>
+  * TagMemo is thread-safe.
+  */
+final class TagMemo
+{
+    TagMemo(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+      * Return the entry for the component, or null if there isn't one
+      * that is valid for the given cache generation.  A negative
+      * generation is never valid.
+      */
+    Entry get(BComponent comp, long generation)
+    {
+        if (generation < 0) return null;
+
+        Entry entry;
+        synchronized (this)
+        {
+            entry = map.get(comp);
+        }
+
+        if (entry == null)
+        {
+            misses.increment();
+            return null;
+        }
+
+        if (entry.generation != generation || !entry.stamp.matches(comp))
+        {
+            remove(comp);
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry;
+    }
+
+    /**
+      * Remember the tags for the component.  The generation and the stamp
+      * must be made before the tags are, so that tags which were made from
+      * an older snapshot, or from a component which was being edited, are
+      * never taken as current.  If the generation is negative the entry is
+      * returned, but not remembered.
+      */
+    Entry put(BComponent comp, HDict tags, HDict annotation, long generation, ComponentStamp stamp)
+    {
+        Entry entry = new Entry(tags, annotation, generation, stamp);
+        if (generation < 0) return entry;
+
+        synchronized (this)
+        {
+            map.put(comp, entry);
+        }
+        return entry;
+    }
+
+    synchronized void remove(BComponent comp)
+    {
+        map.remove(comp);
+    }
+
+    synchronized int size()
+    {
+        return map.size();
+    }
+
+    long getHits() { return hits.sum(); }
+    long getMisses() { return misses.sum(); }
+
+////////////////////////////////////////////////////////////////
+// Entry
+////////////////////////////////////////////////////////////////
+
+    static final class Entry
+    {
+        private Entry(HDict tags, HDict annotation, long generation, ComponentStamp stamp)
+        {
+            this.tags = tags;
+            this.annotation = annotation;
+            this.generation = generation;
+            this.stamp = stamp;
+        }
+
+        /** the tags, without curVal, curStatus or axStatus */
+        final HDict tags;
+
+        /** the component's tag annotation, or HDict.EMPTY */
+        final HDict annotation;
+
+        private final long generation;
+        private final ComponentStamp stamp;
+    }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+    private final int maxSize;
+
+    private final Map<BComponent, Entry> map = new LinkedHashMap<BComponent, Entry>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BComponent, Entry> eldest)
+        {
+            return size() > maxSize;
+        }
+    };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+}
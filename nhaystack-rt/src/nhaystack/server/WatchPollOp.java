@@ -0,0 +1,100 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.io.*;
+import org.projecthaystack.server.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Replaces the standard 'watchPoll' op.  If the request meta has a
+ * 'wait' tag, such as 30s, a poll for changes does not return until
+ * one of the watched points has changed or the wait is over, so that
+ * clients do not have to keep polling a watch that has not changed.
+ * <p>
+ * The response is written to a buffer first, so that its size can be
+ * shown by the showWatches op.
+ */
+public class WatchPollOp extends HOp
+{
+  public WatchPollOp()
+  {
+  }
+
+  @Override
+  public String name()
+  {
+    return "watchPoll";
+  }
+
+  @Override
+  public String summary()
+  {
+    return "Watch poll cov or refresh";
+  }
+
+  @Override
+  public void onService(HServer db, HttpServletRequest req, HttpServletResponse res) throws Exception
+  {
+    HGrid reqGrid = req.getMethod().equals("POST") ?
+      StreamReadOp.postToGrid(req, res) :
+      StreamReadOp.getToGrid(req);
+    if (reqGrid == null)
+    {
+      return;
+    }
+
+    HGridFormat format = StreamReadOp.toFormat(req);
+    HGrid result;
+    try
+    {
+      result = onService(db, reqGrid);
+    }
+    catch (Throwable e)
+    {
+      result = HGridBuilder.errToGrid(e);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HGridWriter out = format.makeWriter(bytes);
+    out.writeGrid(result);
+    out.flush();
+
+    HWatch watch = reqGrid.meta().has("watchId") ?
+      db.watch(reqGrid.meta().getStr("watchId"), false) : null;
+    if (watch instanceof NHWatch)
+    {
+      ((NHWatch) watch).polled(bytes.size());
+    }
+
+    StreamReadOp.startResponse(res, format);
+    bytes.writeTo(res.getOutputStream());
+  }
+
+  @Override
+  public HGrid onService(HServer db, HGrid req) throws Exception
+  {
+    HDict meta = req.meta();
+    HWatch watch = db.watch(meta.getStr("watchId"));
+    if (meta.has("refresh"))
+    {
+      return watch.pollRefresh();
+    }
+
+    if (meta.has("wait") && watch instanceof NHWatch)
+    {
+      ((NHWatch) watch).awaitChanges(((HNum) meta.get("wait")).millis());
+    }
+    return watch.pollChanges();
+  }
+}
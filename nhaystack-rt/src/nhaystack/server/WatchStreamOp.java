@@ -0,0 +1,210 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.io.*;
+import org.projecthaystack.server.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The 'watchStream' op pushes the changes of an open watch to the client
+ * as server-sent events, over one long-lived response, until the watch
+ * is closed or the client goes away.
+ * <p>
+ * The parameters are:
+ * <ul>
+ *   <li>watchId: the watch to stream</li>
+ *   <li>format: the mime type of each grid, text/zinc (the default) or
+ *   application/json</li>
+ *   <li>batch: how long to gather changes before they are sent,
+ *   100ms by default</li>
+ *   <li>heartbeat: how often to send a heartbeat when nothing has changed,
+ *   10s by default</li>
+ * </ul>
+ * Each batch of changes is sent as a 'cov' event, whose data is a grid
+ * in the same form as a watchPoll response.  Every batch and heartbeat
+ * renews the watch's lease.  A 'close' event is sent if the watch closes.
+ */
+public class WatchStreamOp extends HOp
+{
+  public WatchStreamOp()
+  {
+  }
+
+  @Override
+  public String name()
+  {
+    return "watchStream";
+  }
+
+  @Override
+  public String summary()
+  {
+    return "Stream watch changes as server-sent events";
+  }
+
+  @Override
+  public void onService(HServer db, HttpServletRequest req, HttpServletResponse res) throws Exception
+  {
+    HGrid reqGrid = req.getMethod().equals("POST") ?
+      StreamReadOp.postToGrid(req, res) :
+      StreamReadOp.getToGrid(req);
+    if (reqGrid == null)
+    {
+      return;
+    }
+
+    NHWatch watch;
+    HGridFormat format;
+    long batch;
+    long heartbeat;
+    try
+    {
+      format = HGridFormat.find(param(reqGrid, "format", HStr.make("text/zinc")).toString(), true);
+      if (format.writer == null)
+      {
+        throw new IllegalArgumentException("No format writer available for " + format.mime);
+      }
+
+      watch = (NHWatch) db.watch(param(reqGrid, "watchId", null).toString());
+      batch = ((HNum) param(reqGrid, "batch", DEFAULT_BATCH)).millis();
+      heartbeat = ((HNum) param(reqGrid, "heartbeat", DEFAULT_HEARTBEAT)).millis();
+    }
+    catch (Throwable e)
+    {
+      res.setStatus(200);
+      res.setCharacterEncoding("UTF-8");
+      res.setContentType("text/plain; charset=utf-8");
+      HGridWriter out = HGridFormat.find("text/plain", true).makeWriter(res.getOutputStream());
+      out.writeGrid(HGridBuilder.errToGrid(e));
+      out.flush();
+      return;
+    }
+
+    res.setStatus(200);
+    res.setCharacterEncoding("UTF-8");
+    res.setContentType("text/event-stream; charset=utf-8");
+    res.setHeader("Cache-Control", "no-cache");
+
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(res.getOutputStream(), StandardCharsets.UTF_8));
+    try
+    {
+      while (watch.isOpen())
+      {
+        watch.awaitChanges(heartbeat, batch);
+
+        HGrid grid = watch.pollChanges();
+        if (grid.isEmpty())
+        {
+          out.print(": heartbeat\n\n");
+        }
+        else
+        {
+          writeEvent(out, "cov", format, grid);
+        }
+
+        // the client has gone away
+        if (out.checkError())
+        {
+          return;
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    catch (RuntimeException e)
+    {
+      // the watch was closed while we were waiting on it
+      if (watch.isOpen())
+      {
+        LOG.log(Level.SEVERE, "Cannot stream watch " + watch.id(), e);
+        return;
+      }
+    }
+
+    out.print("event: close\ndata: " + watch.id() + "\n\n");
+    out.flush();
+  }
+
+  /**
+   * Not used, since onService(HServer, HttpServletRequest, HttpServletResponse)
+   * is overridden.
+   */
+  @Override
+  public HGrid onService(HServer db, HGrid req) throws Exception
+  {
+    throw new UnsupportedOperationException("watchStream must be called over HTTP");
+  }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+  /**
+   * Look for the parameter in the meta, as the other watch ops do,
+   * and then in the first row.
+   */
+  private static HVal param(HGrid req, String name, HVal def)
+  {
+    HVal val = req.meta().get(name, false);
+    if (val == null && !req.isEmpty())
+    {
+      val = req.row(0).get(name, false);
+    }
+    if (val == null)
+    {
+      val = def;
+    }
+    if (val == null)
+    {
+      throw new IllegalArgumentException("Missing '" + name + "' parameter");
+    }
+    return val;
+  }
+
+  /**
+   * Write the grid as the data of an event, one line at a time.
+   */
+  private static void writeEvent(PrintWriter out, String event, HGridFormat format, HGrid grid)
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HGridWriter writer = format.makeWriter(bytes);
+    writer.writeGrid(grid);
+    writer.flush();
+
+    out.print("event: " + event + '\n');
+    for (String line : new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n"))
+    {
+      out.print("data: " + line + '\n');
+    }
+    out.print('\n');
+    out.flush();
+  }
+
+////////////////////////////////////////////////////////////////
+// attribs
+////////////////////////////////////////////////////////////////
+
+  private static final Logger LOG = Logger.getLogger("nhaystack.watch");
+
+  private static final HNum DEFAULT_BATCH = HNum.make(100, "ms");
+  private static final HNum DEFAULT_HEARTBEAT = HNum.make(10, "s");
+}
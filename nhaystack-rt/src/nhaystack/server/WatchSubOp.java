@@ -0,0 +1,91 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.*;
+import org.projecthaystack.server.*;
+
+/**
+ * Replaces the standard 'watchSub' op, to let a watch drop changes
+ * which are too small, or which come too often, to be worth sending.
+ * <p>
+ * The request meta may have a 'deadband' tag, which is the smallest
+ * change of a numeric point that is reported, and a 'minInterval' tag,
+ * such as 5s, which is the shortest time between two reports of the
+ * same point.  They apply to the whole watch.  A row may also have a
+ * 'deadband' cell, which overrides the watch's deadband for that point.
+ * A change of status is always reported.
+ */
+public class WatchSubOp extends HOp
+{
+  public WatchSubOp()
+  {
+  }
+
+  @Override
+  public String name()
+  {
+    return "watchSub";
+  }
+
+  @Override
+  public String summary()
+  {
+    return "Watch subscription";
+  }
+
+  @Override
+  public HGrid onService(HServer db, HGrid req) throws Exception
+  {
+    HDict meta = req.meta();
+    HWatch watch = meta.has("watchId") ?
+      db.watch(meta.getStr("watchId")) :
+      db.watchOpen(meta.getStr("watchDis"), meta.has("lease") ? (HNum) meta.get("lease") : null);
+
+    HRef[] ids = new HRef[req.numRows()];
+    HNum[] deadbands = new HNum[req.numRows()];
+    for (int i = 0; i < ids.length; i++)
+    {
+      HRow row = req.row(i);
+      ids[i] = valToId(db, row.get("id"));
+      deadbands[i] = (HNum) row.get("deadband", false);
+    }
+
+    if (!(watch instanceof NHWatch))
+    {
+      return watch.sub(ids);
+    }
+
+    NHWatch nhWatch = (NHWatch) watch;
+    if (meta.has("deadband") || meta.has("minInterval"))
+    {
+      nhWatch.setThrottle(
+        (HNum) meta.get("deadband", false),
+        (HNum) meta.get("minInterval", false));
+    }
+    return nhWatch.sub(ids, deadbands, true);
+  }
+
+////////////////////////////////////////////////////////////////
+// util
+////////////////////////////////////////////////////////////////
+
+  /**
+   * The same as HOp, which keeps this method package-private.
+   */
+  static HRef valToId(HServer db, HVal val)
+  {
+    if (val instanceof HUri)
+    {
+      HDict rec = db.navReadByUri((HUri) val, false);
+      return rec == null ? HRef.nullRef : rec.id();
+    }
+    return (HRef) val;
+  }
+}
@@ -0,0 +1,164 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.BitSet;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HRef;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.history.BHistoryId;
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BFilterPlanTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BFilterPlanTest.class);
+
+    @Test
+    public void testSpaces()
+    {
+        assertSpaces("point", true, true);
+        assertSpaces("equip and point", true, false);
+        assertSpaces("point and axSlotPath==\"slot:/a\"", true, false);
+        assertSpaces("his and axHistoryId==\"/a/b\"", false, true);
+        assertSpaces("site and axHistoryId", false, false);
+
+        // only tags that every record must have decide the spaces
+        assertSpaces("equip or axHistoryId", true, true);
+        assertSpaces("(equip and ahu) or (equip and vav)", true, false);
+        assertSpaces("not equip", true, true);
+    }
+
+    @Test
+    public void testAxType()
+    {
+        BComponent comp = new BComponent();
+        String type = comp.getType().toString();
+
+        FilterPlan plan = FilterPlan.make("point and axType==\"" + type + "\"", null);
+        Assert.assertTrue(plan.acceptComponent(comp));
+        Assert.assertEquals(plan.toGrid().meta().getStr("axType"), type);
+
+        plan = FilterPlan.make("point and axType==\"none:Type\"", null);
+        Assert.assertFalse(plan.acceptComponent(comp));
+
+        // an axType which is not required is not pushed down
+        plan = FilterPlan.make("point or axType==\"none:Type\"", null);
+        Assert.assertTrue(plan.acceptComponent(comp));
+        Assert.assertFalse(plan.toGrid().meta().has("axType"));
+    }
+
+    @Test
+    public void testSlotPath()
+    {
+        FilterPlan.SlotPathRange range = new FilterPlan.SlotPathRange();
+        range.narrow(">=", "slot:/Drivers/a");
+        range.narrow("<", "slot:/Drivers/b");
+        range.narrow(">", "slot:/Drivers");
+        Assert.assertEquals(range.toString(), ">= \"slot:/Drivers/a\" and < \"slot:/Drivers/b\"");
+
+        Assert.assertTrue(range.contains("slot:/Drivers/a"));
+        Assert.assertTrue(range.contains("slot:/Drivers/a/point"));
+        Assert.assertFalse(range.contains("slot:/Drivers/b"));
+        Assert.assertFalse(range.contains("slot:/Drivers"));
+
+        // the walk goes down through the ancestors of the range only
+        Assert.assertTrue(range.containsBelow("slot:/"));
+        Assert.assertTrue(range.containsBelow("slot:/Drivers"));
+        Assert.assertTrue(range.containsBelow("slot:/Drivers/a"));
+        Assert.assertFalse(range.containsBelow("slot:/Drivers/b"));
+        Assert.assertFalse(range.containsBelow("slot:/Drivers/0"));
+        Assert.assertFalse(range.containsBelow("slot:/Services"));
+        Assert.assertFalse(range.containsBelow("slot:/Apps"));
+
+        range = new FilterPlan.SlotPathRange();
+        range.narrow("==", "slot:/Drivers/a");
+        Assert.assertTrue(range.containsBelow("slot:/Drivers"));
+        Assert.assertFalse(range.containsBelow("slot:/Drivers/a"));
+        Assert.assertTrue(range.contains("slot:/Drivers/a"));
+        Assert.assertFalse(range.contains("slot:/Drivers/a/b"));
+
+        HDict meta = FilterPlan.make("point and axSlotPath>=\"slot:/a\"", null).toGrid().meta();
+        Assert.assertEquals(meta.getStr("axSlotPath"), ">= \"slot:/a\"");
+    }
+
+    @Test
+    public void testIndex()
+    {
+        TagIndex index = new TagIndex();
+        index.add("site", new HDictBuilder().add("site").toDict());
+        index.add("p1", point("Number"));
+        index.add("p2", point("Bool"));
+        index.add("p3", point("Number"));
+        index.add(BHistoryId.make("/test/h1"), new HDictBuilder().add("his").add("kind", "Bool").toDict());
+
+        // the cheap tests come first, the most selective first of all
+        FilterPlan plan = FilterPlan.make("equipRef->siteRef==@site and curVal > 3 and point and kind==\"Bool\"", index);
+        HGrid grid = plan.toGrid();
+        Assert.assertEquals(grid.meta().getStr("plan"), "kind==\"Bool\" and (point and (curVal>3 and equipRef->siteRef==@site))");
+        Assert.assertEquals(grid.meta().getStr("strategy"), "index");
+        Assert.assertEquals(grid.numRows(), 4);
+        Assert.assertEquals(grid.row(0).getStr("cost"), "tag");
+        Assert.assertEquals(grid.row(2).getStr("cost"), "lazy");
+        Assert.assertEquals(grid.row(3).getStr("cost"), "path");
+        Assert.assertEquals(plan.getCandidates(), bits(2));
+
+        plan = FilterPlan.make("kind==\"Bool\"", index);
+        Assert.assertEquals(plan.getCandidates(), bits(2, 4));
+        Assert.assertEquals(plan.toGrid().meta().getDouble("componentEstimate"), 1.0);
+        Assert.assertEquals(plan.toGrid().meta().getDouble("historyEstimate"), 1.0);
+
+        // 'not' cannot be narrowed down
+        plan = FilterPlan.make("not point", index);
+        Assert.assertNull(plan.getCandidates());
+        Assert.assertEquals(plan.toGrid().meta().getStr("strategy"), "scan");
+
+        // the filter which is evaluated is the same one, reordered
+        HDict p2 = point("Bool");
+        Assert.assertTrue(FilterPlan.make("kind==\"Bool\" and point", index).getFilter().include(p2, null));
+        Assert.assertFalse(FilterPlan.make("point and kind==\"Number\"", index).getFilter().include(p2, null));
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static void assertSpaces(String filter, boolean components, boolean histories)
+    {
+        FilterPlan plan = FilterPlan.make(filter, null);
+        Assert.assertEquals(plan.readComponents(), components, filter);
+        Assert.assertEquals(plan.readHistories(), histories, filter);
+    }
+
+    private static HDict point(String kind)
+    {
+        return new HDictBuilder()
+            .add("point")
+            .add("equipRef", HRef.make("ahu"))
+            .add("kind", kind)
+            .toDict();
+    }
+
+    private static BitSet bits(int... docs)
+    {
+        BitSet bits = new BitSet();
+        for (int doc : docs)
+            bits.set(doc);
+        return bits;
+    }
+}
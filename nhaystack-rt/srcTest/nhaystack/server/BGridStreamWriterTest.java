@@ -0,0 +1,130 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.projecthaystack.*;
+import org.projecthaystack.io.HGridFormat;
+import org.projecthaystack.io.HJsonWriter;
+import org.projecthaystack.io.HZincWriter;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BGridStreamWriterTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BGridStreamWriterTest.class);
+
+    @Test
+    public void testZinc()
+    {
+        Assert.assertEquals(stream("text/zinc"), HZincWriter.gridToString(grid()));
+        Assert.assertEquals(streamEmpty("text/zinc"), HZincWriter.gridToString(emptyGrid()));
+    }
+
+    @Test
+    public void testJson()
+    {
+        Assert.assertEquals(stream("application/json"), HJsonWriter.gridToString(grid()));
+        Assert.assertEquals(streamEmpty("application/json"), HJsonWriter.gridToString(emptyGrid()));
+    }
+
+    @Test
+    public void testUnsupported()
+    {
+        Assert.assertNull(GridStreamWriter.make(HGridFormat.find("text/csv", true), new ByteArrayOutputStream()));
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Write the rows of grid(), the first two as dicts and the last
+      * as cells.
+      */
+    private static String stream(String mime)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GridStreamWriter out = GridStreamWriter.make(HGridFormat.find(mime, true), bytes);
+        Assert.assertFalse(out.isStarted());
+
+        out.begin(META, COLS, COL_META);
+        Assert.assertTrue(out.isStarted());
+        out.row(new HDictBuilder()
+            .add("id", HRef.make("a", "Point A"))
+            .add("val", HNum.make(72.5, "°F"))
+            .add("ignored", "not a column")
+            .toDict());
+        out.row(new HDictBuilder()
+            .add("id", HRef.make("b"))
+            .add("tags", new HDictBuilder().add("point").add("kind", "Bool").toDict())
+            .add("list", HList.make(new HVal[] { HNum.make(1), HStr.make("two") }))
+            .toDict());
+        out.row(new HVal[] { HRef.make("c"), null, HBool.TRUE, null, HStr.make("line\nbreak") });
+        out.end();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String streamEmpty(String mime)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GridStreamWriter out = GridStreamWriter.make(HGridFormat.find(mime, true), bytes);
+        out.begin(HDict.EMPTY, new String[] { "empty" });
+        out.end();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static HGrid grid()
+    {
+        HGridBuilder b = new HGridBuilder();
+        b.meta().add(META);
+        for (int i = 0; i < COLS.length; i++)
+        {
+            HDict meta = COL_META[i];
+            b.addCol(COLS[i]).add(meta == null ? HDict.EMPTY : meta);
+        }
+        b.addRow(new HVal[] { HRef.make("a", "Point A"), HNum.make(72.5, "°F"), null, null, null });
+        b.addRow(new HVal[] {
+            HRef.make("b"), null, null,
+            new HDictBuilder().add("point").add("kind", "Bool").toDict(),
+            HList.make(new HVal[] { HNum.make(1), HStr.make("two") }) });
+        b.addRow(new HVal[] { HRef.make("c"), null, HBool.TRUE, null, HStr.make("line\nbreak") });
+        return b.toGrid();
+    }
+
+    private static HGrid emptyGrid()
+    {
+        HGridBuilder b = new HGridBuilder();
+        b.addCol("empty");
+        return b.toGrid();
+    }
+
+    private static final HDict META = new HDictBuilder()
+        .add("hisStart", HDateTime.make(0, HTimeZone.UTC))
+        .add("more")
+        .toDict();
+
+    private static final String[] COLS = { "id", "val", "bool", "tags", "list" };
+
+    private static final HDict[] COL_META = {
+        null,
+        new HDictBuilder().add("unit", "°F").add("his").toDict(),
+        HDict.EMPTY,
+        null,
+        null };
+}
@@ -0,0 +1,199 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BNumericTrendRecord;
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BHisCacheTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BHisCacheTest.class);
+
+    @Test
+    public void testAppend()
+    {
+        HisCache.Ring ring = new HisCache.Ring(0, 0);
+        append(ring, 1, 10);
+        Assert.assertEquals(ring.size(), 10);
+        Assert.assertEquals(ring.coveredTo, 10);
+        Assert.assertEquals(ring.windowStart, 0);
+
+        // records which are not later than the ring's are ignored
+        append(ring, 5, 10);
+        Assert.assertEquals(ring.size(), 10);
+        assertRecords(ring, 0, 1, 10);
+    }
+
+    @Test
+    public void testIndexAfter()
+    {
+        HisCache.Ring ring = new HisCache.Ring(0, 0);
+        Assert.assertEquals(ring.indexAfter(5), 0);
+
+        append(ring, 1, 10);
+        Assert.assertEquals(ring.indexAfter(-1), 0);
+        Assert.assertEquals(ring.indexAfter(0), 0);
+        Assert.assertEquals(ring.indexAfter(1), 1);
+        Assert.assertEquals(ring.indexAfter(5), 5);
+        Assert.assertEquals(ring.indexAfter(10), 10);
+        Assert.assertEquals(ring.indexAfter(11), 10);
+    }
+
+    @Test
+    public void testGrow()
+    {
+        HisCache.Ring ring = new HisCache.Ring(0, 0);
+        int initial = ring.capacity();
+        append(ring, 1, initial);
+        Assert.assertEquals(ring.capacity(), initial);
+
+        append(ring, initial + 1, initial + 1);
+        Assert.assertEquals(ring.capacity(), initial * 2);
+        Assert.assertEquals(ring.size(), initial + 1);
+        assertRecords(ring, 0, 1, initial + 1);
+
+        append(ring, initial + 2, HisCache.MAX_RECORDS * 3);
+        Assert.assertEquals(ring.capacity(), HisCache.MAX_RECORDS);
+    }
+
+    @Test
+    public void testWindowShift()
+    {
+        int max = HisCache.MAX_RECORDS;
+        HisCache.Ring ring = new HisCache.Ring(0, 0);
+        append(ring, 1, max);
+        Assert.assertEquals(ring.size(), max);
+        Assert.assertEquals(ring.windowStart, 0);
+
+        // the oldest records are dropped, and the window starts at the
+        // last one which was dropped
+        append(ring, max + 1, max + 10);
+        Assert.assertEquals(ring.size(), max);
+        Assert.assertEquals(ring.capacity(), max);
+        Assert.assertEquals(ring.windowStart, 10);
+        Assert.assertEquals(ring.coveredTo, max + 10);
+        assertRecords(ring, 0, 11, max + 10);
+    }
+
+    @Test
+    public void testWraparound()
+    {
+        int max = HisCache.MAX_RECORDS;
+        HisCache.Ring ring = new HisCache.Ring(0, 0);
+        append(ring, 1, max + max / 2);
+
+        // the records now wrap around the end of the buffers
+        long first = max / 2 + 1;
+        Assert.assertEquals(ring.windowStart, first - 1);
+        Assert.assertEquals(ring.indexAfter(first - 1), 0);
+        Assert.assertEquals(ring.indexAfter(max), max - first + 1);
+        Assert.assertEquals(ring.indexAfter(max + 1), max - first + 2);
+        Assert.assertEquals(ring.indexAfter(max + max / 2), max);
+
+        // a copy from the middle spans the end of the buffers
+        int from = ring.indexAfter(max - 10);
+        assertRecords(ring, from, max - 9, max + 10);
+    }
+
+    @Test
+    public void testCatchUp()
+    {
+        int max = HisCache.MAX_RECORDS;
+        BHistoryConfig cfg = new BHistoryConfig(BHistoryId.make("/test/his"), BNumericTrendRecord.TYPE.getTypeSpec());
+        HisDecoder decoder = HisDecoder.make(cfg, null);
+        HisCache.Ring ring = new HisCache.Ring(0, 0);
+        append(ring, 1, max);
+
+        // a full ring takes the new records by dropping the oldest, so it
+        // no longer holds the range that the read started in
+        Assert.assertFalse(ring.catchUp(cfg, decoder, 5, max + 10, scanner(max + 10)));
+        Assert.assertEquals(ring.windowStart, 10);
+        Assert.assertEquals(ring.coveredTo, max + 10);
+
+        // a range after the dropped records is still held
+        Assert.assertTrue(ring.catchUp(cfg, decoder, 20, max + 15, scanner(max + 15)));
+        Assert.assertEquals(ring.windowStart, 15);
+        assertRecords(ring, ring.indexAfter(20), 21, max + 15);
+
+        // the database is not read for a range that the ring does not hold
+        Assert.assertFalse(ring.catchUp(cfg, decoder, 5, max + 20, (c, d, after, end, sink) ->
+        {
+            throw new IllegalStateException("scanned");
+        }));
+        Assert.assertEquals(ring.coveredTo, max + 15);
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return a Scanner which reads a record at each time after the
+      * one it is asked for, up to last, whose value is half its time.
+      */
+    private static HisCache.Scanner scanner(long last)
+    {
+        return (cfg, decoder, after, end, sink) ->
+        {
+            int n = (int) (last - after);
+            for (int i = 0; i < n; i++)
+            {
+                decoder.times[i] = after + 1 + i;
+                decoder.nums[i] = (after + 1 + i) / 2.0;
+            }
+            sink.chunk(decoder, n);
+            return n;
+        };
+    }
+
+    /**
+      * Append a record at each time from first to last, whose value is
+      * half its time.
+      */
+    private static void append(HisCache.Ring ring, long first, long last)
+    {
+        int n = (int) (last - first + 1);
+        long[] t = new long[n];
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            t[i] = first + i;
+            v[i] = (first + i) / 2.0;
+        }
+        ring.append(t, v, n);
+    }
+
+    /**
+      * Check that the ring holds a record at each time from first to
+      * last, starting at the position.
+      */
+    private static void assertRecords(HisCache.Ring ring, int from, long first, long last)
+    {
+        int n = (int) (last - first + 1);
+        long[] t = new long[n];
+        double[] v = new double[n];
+        ring.copy(from, t, v);
+        for (int i = 0; i < n; i++)
+        {
+            Assert.assertEquals(t[i], first + i);
+            Assert.assertEquals(v[i], (first + i) / 2.0);
+        }
+    }
+}
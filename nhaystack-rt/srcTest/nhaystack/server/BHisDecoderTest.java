@@ -0,0 +1,151 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.projecthaystack.HBool;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HStr;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.history.BBooleanTrendRecord;
+import javax.baja.history.BEnumTrendRecord;
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BNumericTrendRecord;
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.status.BStatus;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BHisDecoderTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BHisDecoderTest.class);
+
+    @Test
+    public void testNumeric()
+    {
+        HisDecoder decoder = HisDecoder.make(config(BNumericTrendRecord.TYPE), HStr.make("kW"));
+        Assert.assertTrue(decoder.isNumeric());
+        Assert.assertTrue(decoder.isCached());
+
+        Assert.assertEquals(decoder.read(new BNumericTrendRecord().set(BAbsTime.make(1000), 2.5, BStatus.ok), 3), 1000);
+        Assert.assertEquals(decoder.times[3], 1000);
+        Assert.assertEquals(decoder.nums[3], 2.5);
+        Assert.assertEquals(decoder.val(3), HNum.make(2.5, "kW"));
+        Assert.assertEquals(decoder.toVal(4), HNum.make(4, "kW"));
+
+        decoder = HisDecoder.make(config(BNumericTrendRecord.TYPE), null);
+        decoder.read(new BNumericTrendRecord().set(BAbsTime.make(1000), 2.5, BStatus.ok), 0);
+        Assert.assertEquals(decoder.val(0), HNum.make(2.5));
+    }
+
+    @Test
+    public void testBoolean()
+    {
+        HisDecoder decoder = HisDecoder.make(config(BBooleanTrendRecord.TYPE), null);
+        Assert.assertTrue(decoder.isNumeric());
+
+        decoder.read(new BBooleanTrendRecord().set(BAbsTime.make(1000), true, BStatus.ok), 0);
+        decoder.read(new BBooleanTrendRecord().set(BAbsTime.make(2000), false, BStatus.ok), 1);
+        Assert.assertEquals(decoder.nums[0], 1.0);
+        Assert.assertEquals(decoder.nums[1], 0.0);
+        Assert.assertEquals(decoder.val(0), HBool.TRUE);
+        Assert.assertEquals(decoder.val(1), HBool.FALSE);
+    }
+
+    @Test
+    public void testEnum()
+    {
+        BEnumRange range = BEnumRange.make(new String[] { "off", "low", "high" });
+        BHistoryConfig cfg = config(BEnumTrendRecord.TYPE);
+        cfg.add("valueFacets", BFacets.makeEnum(range));
+
+        HisDecoder decoder = HisDecoder.make(cfg, null);
+        Assert.assertFalse(decoder.isNumeric());
+        Assert.assertTrue(decoder.isCached());
+
+        decoder.read(new BEnumTrendRecord().set(BAbsTime.make(1000), BDynamicEnum.make(2, range), BStatus.ok), 0);
+        decoder.read(new BEnumTrendRecord().set(BAbsTime.make(2000), BDynamicEnum.make(0, range), BStatus.ok), 1);
+        decoder.read(new BEnumTrendRecord().set(BAbsTime.make(3000), BDynamicEnum.make(2, range), BStatus.ok), 2);
+        Assert.assertEquals(decoder.nums[0], 2.0);
+        Assert.assertEquals(decoder.val(0), HStr.make("high"));
+        Assert.assertEquals(decoder.val(1), HStr.make("off"));
+
+        // the tag of each ordinal is only made once
+        Assert.assertSame(decoder.val(2), decoder.val(0));
+        Assert.assertSame(decoder.toVal(2), decoder.val(0));
+    }
+
+    @Test
+    public void testChunks()
+    {
+        HisDecoder decoder = HisDecoder.make(config(BNumericTrendRecord.TYPE), null);
+        List<Integer> chunks = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        HisDecoder.Sink sink = (d, n) ->
+        {
+            chunks.add(n);
+            for (int i = 0; i < n; i++)
+            {
+                times.add(d.times[i]);
+                Assert.assertEquals(d.nums[i], d.times[i] / 10.0);
+            }
+        };
+
+        // the record at the start of the range is left out
+        int count = HisDecoder.CHUNK * 2 + 5;
+        Assert.assertFalse(decoder.add(record(100), 100, sink));
+        for (int i = 1; i <= count; i++)
+            Assert.assertTrue(decoder.add(record(100 + i), 100, sink));
+
+        // full chunks are passed on as soon as they are full
+        Assert.assertEquals(chunks.size(), 2);
+        Assert.assertEquals((int) chunks.get(0), HisDecoder.CHUNK);
+        Assert.assertEquals((int) chunks.get(1), HisDecoder.CHUNK);
+
+        decoder.flush(sink);
+        Assert.assertEquals(chunks.size(), 3);
+        Assert.assertEquals((int) chunks.get(2), 5);
+        Assert.assertEquals(times.size(), count);
+        for (int i = 0; i < count; i++)
+            Assert.assertEquals((long) times.get(i), 101 + i);
+
+        // nothing is left to flush
+        decoder.flush(sink);
+        Assert.assertEquals(chunks.size(), 3);
+
+        // a chunk which is exactly full is not passed on twice
+        for (int i = 1; i <= HisDecoder.CHUNK; i++)
+            decoder.add(record(10000 + i), 0, sink);
+        decoder.flush(sink);
+        Assert.assertEquals(chunks.size(), 4);
+        Assert.assertEquals(times.size(), count + HisDecoder.CHUNK);
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static BHistoryConfig config(Type recordType)
+    {
+        return new BHistoryConfig(BHistoryId.make("/test/history"), recordType.getTypeSpec());
+    }
+
+    private static BNumericTrendRecord record(long millis)
+    {
+        return new BNumericTrendRecord().set(BAbsTime.make(millis), millis / 10.0, BStatus.ok);
+    }
+}
@@ -0,0 +1,103 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.projecthaystack.HBool;
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HHisItem;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HTimeZone;
+import org.projecthaystack.HVal;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BHisDownsamplerTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BHisDownsamplerTest.class);
+
+    @Test
+    public void testMinMax()
+    {
+        // two buckets of 500ms
+        List<HHisItem> out = new ArrayList<>();
+        HisDownsampler ds = new HisDownsampler(0, 1000, 4, out::add);
+        double[] vals = { 5, 9, 1, 3, 4, 2, 8, 0, 6, 7, 10 };
+        for (int i = 0; i < vals.length; i++)
+            ds.accept(item(i * 100, HNum.make(vals[i])));
+        ds.flush();
+
+        // the max comes before the min in the first bucket, and the
+        // item at the end of the range goes in the last bucket
+        Assert.assertEquals(times(out), new long[] { 100, 200, 700, 1000 });
+        Assert.assertEquals(out.get(0).val, HNum.make(9));
+        Assert.assertEquals(out.get(1).val, HNum.make(1));
+        Assert.assertEquals(out.get(2).val, HNum.make(0));
+        Assert.assertEquals(out.get(3).val, HNum.make(10));
+    }
+
+    @Test
+    public void testFirstLast()
+    {
+        List<HHisItem> out = new ArrayList<>();
+        HisDownsampler ds = new HisDownsampler(0, 1000, 4, out::add);
+        for (long ts : new long[] { 0, 100, 200, 600, 700, 900 })
+            ds.accept(item(ts, HBool.make(ts % 200 == 0)));
+        ds.flush();
+
+        Assert.assertEquals(times(out), new long[] { 0, 200, 600, 900 });
+    }
+
+    @Test
+    public void testSparse()
+    {
+        // ten buckets of 100ms, with an item before the range
+        List<HHisItem> out = new ArrayList<>();
+        HisDownsampler ds = new HisDownsampler(1000, 2000, 20, out::add);
+        ds.accept(item(900, HNum.make(1)));
+        ds.accept(item(1050, HNum.make(2)));
+        ds.accept(item(1550, HNum.make(3)));
+        ds.flush();
+        ds.flush();
+
+        Assert.assertEquals(times(out), new long[] { 900, 1050, 1550 });
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxPoints()
+    {
+        new HisDownsampler(0, 1000, 1, item -> {});
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static HHisItem item(long millis, HVal val)
+    {
+        return HHisItem.make(HDateTime.make(millis, HTimeZone.UTC), val);
+    }
+
+    private static long[] times(List<HHisItem> items)
+    {
+        long[] times = new long[items.size()];
+        for (int i = 0; i < times.length; i++)
+            times[i] = items.get(i).ts.millis();
+        return times;
+    }
+}
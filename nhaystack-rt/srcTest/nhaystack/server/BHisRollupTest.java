@@ -0,0 +1,112 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.HDateTime;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HTimeZone;
+import org.projecthaystack.HVal;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BHisRollupTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BHisRollupTest.class);
+
+    @Test
+    public void testAvg()
+    {
+        HGrid grid = rollup("avg", "kW");
+        Assert.assertEquals(grid.numRows(), 3);
+        Assert.assertEquals(grid.row(0).get("ts"), HDateTime.make(0, HTimeZone.UTC));
+        Assert.assertEquals(grid.row(2).get("ts"), HDateTime.make(2000, HTimeZone.UTC));
+
+        // a record on an interval's start belongs to that interval, and
+        // the record at the end of the range to the last interval
+        Assert.assertEquals(vals(grid), new HVal[] { HNum.make(11, "kW"), HNum.make(15.5, "kW"), HNum.make(20, "kW") });
+    }
+
+    @Test
+    public void testDelta()
+    {
+        // the change since the end of the interval before
+        Assert.assertEquals(vals(rollup("delta", null)), new HVal[] { HNum.make(2), HNum.make(4), HNum.make(4) });
+
+        // an interval with no records is skipped over
+        HisRollup r = new HisRollup("delta", 0, 3000, 1000, HTimeZone.UTC, null);
+        r.add(0, 10);
+        r.add(500, 12);
+        r.add(2500, 17);
+        Assert.assertEquals(vals(r.toGrid(HDict.EMPTY)), new HVal[] { HNum.make(2), null, HNum.make(5) });
+    }
+
+    @Test
+    public void testFolds()
+    {
+        Assert.assertEquals(vals(rollup("min", null)), new HVal[] { HNum.make(10), HNum.make(15), HNum.make(20) });
+        Assert.assertEquals(vals(rollup("max", null)), new HVal[] { HNum.make(12), HNum.make(16), HNum.make(20) });
+        Assert.assertEquals(vals(rollup("sum", null)), new HVal[] { HNum.make(22), HNum.make(31), HNum.make(20) });
+        Assert.assertEquals(vals(rollup("first", null)), new HVal[] { HNum.make(10), HNum.make(15), HNum.make(20) });
+        Assert.assertEquals(vals(rollup("last", null)), new HVal[] { HNum.make(12), HNum.make(16), HNum.make(20) });
+
+        // a count has no unit
+        Assert.assertEquals(vals(rollup("count", "kW")), new HVal[] { HNum.make(2), HNum.make(2), HNum.make(1) });
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownFold()
+    {
+        new HisRollup("median", 0, 1000, 100, HTimeZone.UTC, null);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTooManyIntervals()
+    {
+        new HisRollup("avg", 0, HisRollup.MAX_INTERVALS + 1, 1, HTimeZone.UTC, null);
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Roll up 0..3000 into intervals of 1000ms.  The records before the
+      * range, and the NaN, are ignored.
+      */
+    private static HGrid rollup(String fold, String unit)
+    {
+        HisRollup r = new HisRollup(fold, 0, 3000, 1000, HTimeZone.UTC, unit);
+        r.add(-1, 100);
+        r.add(0, 10);
+        r.add(500, 12);
+        r.add(999, Double.NaN);
+        r.add(1000, 15);
+        r.add(1999, 16);
+        r.add(3000, 20);
+        return r.toGrid(HDict.EMPTY);
+    }
+
+    private static HVal[] vals(HGrid grid)
+    {
+        HVal[] vals = new HVal[grid.numRows()];
+        for (int i = 0; i < vals.length; i++)
+            vals[i] = grid.row(i).get("val", false);
+        return vals;
+    }
+}
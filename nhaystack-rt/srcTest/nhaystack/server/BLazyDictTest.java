@@ -0,0 +1,138 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HStr;
+import org.projecthaystack.UnknownNameException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BLazyDictTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BLazyDictTest.class);
+
+    @Test
+    public void testGet()
+    {
+        int[] made = new int[1];
+        Map<String, LazyDict.Tag> lazy = new LinkedHashMap<>();
+        lazy.put("curVal", dict -> { made[0]++; return HNum.make(72); });
+        lazy.put("curStatus", dict -> { made[0]++; return HStr.make("ok"); });
+        LazyDict dict = new LazyDict(new HDictBuilder().add("point").toDict(), lazy);
+
+        // cheap tags do not make any lazy ones
+        Assert.assertTrue(dict.has("point"));
+        Assert.assertFalse(dict.has("foo"));
+        Assert.assertEquals(made[0], 0);
+
+        // a lazy tag is made once
+        Assert.assertEquals(dict.get("curVal"), HNum.make(72));
+        Assert.assertEquals(dict.get("curVal"), HNum.make(72));
+        Assert.assertEquals(made[0], 1);
+    }
+
+    @Test
+    public void testCheapWins()
+    {
+        int[] made = new int[1];
+        Map<String, LazyDict.Tag> lazy = new LinkedHashMap<>();
+        lazy.put("dis", dict -> { made[0]++; return HStr.make("lazy"); });
+        LazyDict dict = new LazyDict(new HDictBuilder().add("dis", "cheap").toDict(), lazy);
+
+        Assert.assertEquals(dict.get("dis"), HStr.make("cheap"));
+        Assert.assertEquals(dict.size(), 1);
+        Assert.assertEquals(made[0], 0);
+    }
+
+    @Test
+    public void testMissing()
+    {
+        Map<String, LazyDict.Tag> lazy = new LinkedHashMap<>();
+        lazy.put("curErr", dict -> null);
+        LazyDict dict = new LazyDict(HDict.EMPTY, lazy);
+
+        Assert.assertFalse(dict.has("curErr"));
+        Assert.assertNull(dict.get("curErr", false));
+        Assert.assertEquals(dict.size(), 0);
+        Assert.assertTrue(dict.isEmpty());
+    }
+
+    @Test(expectedExceptions = UnknownNameException.class)
+    public void testMissingChecked()
+    {
+        Map<String, LazyDict.Tag> lazy = new LinkedHashMap<>();
+        lazy.put("curErr", dict -> null);
+        new LazyDict(HDict.EMPTY, lazy).get("curErr");
+    }
+
+    @Test
+    public void testIterator()
+    {
+        Map<String, LazyDict.Tag> lazy = new LinkedHashMap<>();
+        lazy.put("b", dict -> HNum.make(2));
+        lazy.put("none", dict -> null);
+        lazy.put("a", dict -> HNum.make(((HNum) dict.get("b")).val + 1));
+        LazyDict dict = new LazyDict(new HDictBuilder().add("id", "x").add("point").toDict(), lazy);
+
+        // a lazy tag with no value is left out
+        Assert.assertEquals(dict.size(), 4);
+        Assert.assertEquals(names(dict), new String[] { "a", "b", "id", "point" });
+        Assert.assertEquals(dict.get("a"), HNum.make(3));
+    }
+
+    @Test
+    public void testOnce()
+    {
+        int[] made = new int[1];
+        LazyDict.Tag shared = LazyDict.once(dict -> { made[0]++; return HNum.make(1); });
+        Map<String, LazyDict.Tag> lazy = new LinkedHashMap<>();
+        lazy.put("x", shared);
+        lazy.put("y", shared);
+        LazyDict dict = new LazyDict(HDict.EMPTY, lazy);
+
+        Assert.assertEquals(dict.get("x"), HNum.make(1));
+        Assert.assertEquals(dict.get("y"), HNum.make(1));
+        Assert.assertEquals(made[0], 1);
+
+        LazyDict.Tag none = LazyDict.once(d -> { made[0]++; return null; });
+        Assert.assertNull(none.make(dict));
+        Assert.assertNull(none.make(dict));
+        Assert.assertEquals(made[0], 2);
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static String[] names(HDict dict)
+    {
+        List<String> names = new ArrayList<>();
+        Iterator<?> it = dict.iterator();
+        while (it.hasNext())
+            names.add((String) ((Map.Entry<?, ?>) it.next()).getKey());
+        names.sort(null);
+        return names.toArray(new String[names.size()]);
+    }
+}
@@ -0,0 +1,120 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BLeaseTimerTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BLeaseTimerTest.class);
+
+    @Test
+    public void testExpire() throws Exception
+    {
+        LeaseTimer timer = new LeaseTimer();
+        try
+        {
+            CountDownLatch expired = new CountDownLatch(1);
+            LeaseTimer.Lease lease = timer.add("test", 50, expired::countDown);
+            Assert.assertEquals(timer.getActiveCount(), 1);
+
+            Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(timer.getActiveCount(), 0);
+            Assert.assertEquals(timer.getExpiredCount(), 1);
+
+            // an expired lease cannot be renewed
+            Assert.assertFalse(lease.renew());
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testRenew() throws Exception
+    {
+        LeaseTimer timer = new LeaseTimer();
+        try
+        {
+            CountDownLatch expired = new CountDownLatch(1);
+            LeaseTimer.Lease lease = timer.add("test", 300, expired::countDown);
+
+            // renewed well within the interval, for three intervals
+            for (int i = 0; i < 18; i++)
+            {
+                Thread.sleep(50);
+                Assert.assertTrue(lease.renew());
+            }
+            Assert.assertEquals(expired.getCount(), 1);
+            Assert.assertEquals(timer.getActiveCount(), 1);
+
+            // and expires once it is no longer renewed
+            Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(timer.getExpiredCount(), 1);
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception
+    {
+        LeaseTimer timer = new LeaseTimer();
+        try
+        {
+            CountDownLatch expired = new CountDownLatch(1);
+            LeaseTimer.Lease lease = timer.add("test", 50, expired::countDown);
+            lease.cancel();
+            lease.cancel();
+            Assert.assertEquals(timer.getActiveCount(), 0);
+
+            Assert.assertFalse(expired.await(300, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(timer.getExpiredCount(), 0);
+            Assert.assertFalse(lease.renew());
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testFailedExpiry() throws Exception
+    {
+        LeaseTimer timer = new LeaseTimer();
+        try
+        {
+            // a lease whose expiry throws does not stop the others
+            CountDownLatch expired = new CountDownLatch(1);
+            timer.add("broken", 10, () -> { throw new IllegalStateException("test"); });
+            timer.add("test", 100, expired::countDown);
+
+            Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(timer.getExpiredCount(), 2);
+        }
+        finally
+        {
+            timer.stop();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.HDict;
+import org.projecthaystack.HNum;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.control.BBooleanWritable;
+import javax.baja.control.BNumericWritable;
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.status.BStatus;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BNHWatchTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BNHWatchTest.class);
+
+    @Test
+    public void testDeadband()
+    {
+        BNumericWritable point = new BNumericWritable();
+        point.getOut().setValue(10);
+        NHWatch.PointState state = new NHWatch.PointState(1);
+        state.published(point, 1000);
+
+        // the point's own deadband wins over the watch's
+        point.getOut().setValue(10.5);
+        Assert.assertFalse(state.isSignificant(point, 0));
+        point.getOut().setValue(9);
+        Assert.assertTrue(state.isSignificant(point, 5));
+
+        // a change of status is always significant
+        point.getOut().setValue(10);
+        point.getOut().setStatus(BStatus.fault);
+        Assert.assertTrue(state.isSignificant(point, 0));
+
+        // a change is measured from the value that was last reported
+        state.published(point, 2000);
+        point.getOut().setValue(10.9);
+        Assert.assertFalse(state.isSignificant(point, 0));
+        point.getOut().setValue(Double.NaN);
+        Assert.assertTrue(state.isSignificant(point, 0));
+    }
+
+    @Test
+    public void testWatchDeadband()
+    {
+        BNumericWritable point = new BNumericWritable();
+        point.getOut().setValue(10);
+        NHWatch.PointState state = new NHWatch.PointState(Double.NaN);
+        state.published(point, 1000);
+
+        point.getOut().setValue(10.5);
+        Assert.assertFalse(state.isSignificant(point, 1));
+        Assert.assertTrue(state.isSignificant(point, 0));
+
+        // only numeric points have a deadband
+        BBooleanWritable bool = new BBooleanWritable();
+        state = new NHWatch.PointState(1);
+        state.published(bool, 1000);
+        Assert.assertTrue(state.isSignificant(bool, 1));
+    }
+
+    @Test
+    public void testMinInterval()
+    {
+        BNumericWritable point = new BNumericWritable();
+        NHWatch.PointState state = new NHWatch.PointState(Double.NaN);
+        state.published(point, 1000);
+        Assert.assertEquals(state.readyAt(0), 1000);
+        Assert.assertEquals(state.readyAt(500), 1500);
+
+        NHServer server = new NHServer(new BNHaystackService());
+        NHWatch watch = new NHWatch(server, "test", 60000);
+        try
+        {
+            watch.setThrottle(HNum.make(0.5), HNum.make(2, "s"));
+            watch.setThrottle(null, null);
+            HDict stats = watch.stats();
+            Assert.assertEquals(stats.getDouble("deadband"), 0.5);
+            Assert.assertEquals(stats.get("minInterval"), HNum.make(2000, "ms"));
+        }
+        finally
+        {
+            watch.close();
+            server.getLeaseTimer().stop();
+        }
+    }
+
+    @Test
+    public void testOverflow() throws Exception
+    {
+        NHServer server = new NHServer(new BNHaystackService());
+        NHWatch watch = new NHWatch(server, "test", 2000);
+        try
+        {
+            Assert.assertEquals(watch.staleTime(), 1500);
+            BNumericWritable point = new BNumericWritable();
+
+            // a watch which has just been opened or polled keeps its
+            // changes for the next poll
+            watch.markDirty(point);
+            HDict stats = watch.stats();
+            Assert.assertFalse(stats.getBool("degraded"));
+            Assert.assertEquals(stats.getDouble("dirty"), 1.0);
+            watch.pollChanges();
+            Assert.assertEquals(watch.stats().getDouble("dirty"), 0.0);
+
+            // a watch which has not been polled for most of its lease
+            // drops its changes, and the next poll sends everything
+            Thread.sleep(1600);
+            watch.markDirty(point);
+            watch.markDirty(point);
+            stats = watch.stats();
+            Assert.assertTrue(stats.getBool("degraded"));
+            Assert.assertEquals(stats.getDouble("overflows"), 1.0);
+
+            watch.pollChanges();
+            stats = watch.stats();
+            Assert.assertFalse(stats.getBool("degraded"));
+            Assert.assertEquals(stats.getDouble("overflows"), 1.0);
+        }
+        finally
+        {
+            watch.close();
+            server.getLeaseTimer().stop();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.NoSuchElementException;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.history.BHistoryConfig;
+import javax.baja.history.BHistoryId;
+import javax.baja.history.BNumericTrendRecord;
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BReadCursorTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BReadCursorTest.class);
+
+    @Test
+    public void testHistory()
+    {
+        BHistoryConfig cfg = new BHistoryConfig(BHistoryId.make("/test/his"), BNumericTrendRecord.TYPE.getTypeSpec());
+        ReadCursor cursor = ReadCursor.make(cfg);
+        Assert.assertNull(cursor.getComponent());
+        Assert.assertEquals(cursor.getHistoryId(), cfg.getId());
+        Assert.assertEquals(cursor.encode(), "h:/test/his");
+
+        ReadCursor decoded = ReadCursor.decode(cursor.encode());
+        Assert.assertNull(decoded.getComponent());
+        Assert.assertEquals(decoded.getHistoryId(), cfg.getId());
+        Assert.assertEquals(decoded.toString(), "h:/test/his");
+    }
+
+    @Test
+    public void testComponent()
+    {
+        BComponent comp = new BComponent();
+        ReadCursor cursor = ReadCursor.make(comp);
+        Assert.assertSame(cursor.getComponent(), comp);
+        Assert.assertNull(cursor.getHistoryId());
+        Assert.assertTrue(cursor.encode().startsWith("c:"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalid()
+    {
+        ReadCursor.decode("x:/test/his");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testNoRecord()
+    {
+        ReadCursor.make(null);
+    }
+
+    @Test
+    public void testConcat()
+    {
+        BHistoryConfig a = new BHistoryConfig(BHistoryId.make("/test/a"), BNumericTrendRecord.TYPE.getTypeSpec());
+        BHistoryConfig b = new BHistoryConfig(BHistoryId.make("/test/b"), BNumericTrendRecord.TYPE.getTypeSpec());
+        ReadCursor.Source source = ReadCursor.concat(new ReadCursor.Source[] {
+            source(), source(a), source(), source(b), source() });
+
+        // the cursor comes from the source of the last record
+        Assert.assertTrue(source.hasNext());
+        Assert.assertEquals(source.next().getStr("id"), "/test/a");
+        Assert.assertEquals(source.cursor().encode(), "h:/test/a");
+        Assert.assertTrue(source.hasNext());
+        Assert.assertEquals(source.cursor().encode(), "h:/test/a");
+        Assert.assertEquals(source.next().getStr("id"), "/test/b");
+        Assert.assertEquals(source.cursor().encode(), "h:/test/b");
+        Assert.assertFalse(source.hasNext());
+
+        try
+        {
+            source.next();
+            Assert.fail();
+        }
+        catch (NoSuchElementException e)
+        {
+            // expected
+        }
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    /**
+      * Return a Source over the histories, whose records are just their ids.
+      */
+    private static ReadCursor.Source source(BHistoryConfig... cfgs)
+    {
+        return new ReadCursor.Source()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return index < cfgs.length;
+            }
+
+            @Override
+            public HDict next()
+            {
+                if (!hasNext()) throw new NoSuchElementException();
+                last = cfgs[index++];
+                return new HDictBuilder().add("id", last.getId().toString()).toDict();
+            }
+
+            @Override
+            public ReadCursor cursor()
+            {
+                return ReadCursor.make(last);
+            }
+
+            private int index;
+            private BHistoryConfig last;
+        };
+    }
+}
@@ -0,0 +1,143 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BSharedMapTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BSharedMapTest.class);
+
+    @Test
+    public void testCopy()
+    {
+        SharedMap<String, Integer> a = new SharedMap<>();
+        a.put("x", 1);
+        a.put("y", 2);
+
+        SharedMap<String, Integer> b = a.copy();
+        b.put("x", 10);
+        b.remove("y");
+        b.put("z", 3);
+
+        Assert.assertEquals(a, map("x", 1, "y", 2));
+        Assert.assertEquals(b, map("x", 10, "z", 3));
+        Assert.assertEquals(b.size(), 2);
+        Assert.assertFalse(b.containsKey("y"));
+        Assert.assertNull(b.remove("y"));
+
+        // a removed key can be put back
+        SharedMap<String, Integer> c = b.copy();
+        c.put("y", 20);
+        Assert.assertEquals(c, map("x", 10, "y", 20, "z", 3));
+        Assert.assertEquals(b, map("x", 10, "z", 3));
+    }
+
+    @Test
+    public void testNulls()
+    {
+        SharedMap<String, Integer> a = new SharedMap<>();
+        a.put(null, 1);
+        a.put("x", null);
+
+        SharedMap<String, Integer> b = a.copy();
+        Assert.assertTrue(b.containsKey(null));
+        Assert.assertTrue(b.containsKey("x"));
+        Assert.assertNull(b.get("x"));
+        Assert.assertEquals(b.remove(null), Integer.valueOf(1));
+        Assert.assertFalse(b.containsKey(null));
+        Assert.assertEquals(b.size(), 1);
+        Assert.assertEquals(a.get(null), Integer.valueOf(1));
+    }
+
+    @Test
+    public void testManyCopies()
+    {
+        Map<Integer, Integer> expected = new HashMap<>();
+        SharedMap<Integer, Integer> map = new SharedMap<>();
+        for (int i = 0; i < 1000; i++)
+        {
+            map.put(i % 97, i);
+            expected.put(i % 97, i);
+            if (i % 3 == 0)
+            {
+                map.remove(i % 89);
+                expected.remove(i % 89);
+            }
+            map = map.copy();
+        }
+        Assert.assertEquals(map, expected);
+        Assert.assertEquals(map.size(), expected.size());
+    }
+
+    @Test
+    public void testIteratorRemove()
+    {
+        SharedMap<String, Integer> a = new SharedMap<>();
+        a.put("x", 1);
+        a.put("y", 2);
+        a.put("z", 1);
+
+        SharedMap<String, Integer> b = a.copy();
+        b.values().removeIf(v -> v == 1);
+        Assert.assertEquals(b, map("y", 2));
+        Assert.assertEquals(a.size(), 3);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testCopiedIsReadOnly()
+    {
+        SharedMap<String, Integer> a = new SharedMap<>();
+        a.copy();
+        a.put("x", 1);
+    }
+
+    @Test
+    public void testSet()
+    {
+        SharedSet<String> a = new SharedSet<>();
+        a.add("c");
+        a.add("a");
+        a.add("b");
+        Assert.assertFalse(a.add("a"));
+
+        // the elements come back in the order they were added
+        SharedSet<String> b = a.copy();
+        b.remove("a");
+        b.add("d");
+        b.add("a");
+        Assert.assertEquals(a.toArray(), new String[] { "c", "a", "b" });
+        Assert.assertEquals(b.toArray(), new String[] { "c", "b", "d", "a" });
+        Assert.assertTrue(b.contains("d"));
+        Assert.assertFalse(a.contains("d"));
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static Map<String, Integer> map(Object... pairs)
+    {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2)
+            map.put((String) pairs[i], (Integer) pairs[i + 1]);
+        return map;
+    }
+}
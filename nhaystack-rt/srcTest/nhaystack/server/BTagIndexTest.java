@@ -0,0 +1,256 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.projecthaystack.HGrid;
+import org.projecthaystack.HNum;
+import org.projecthaystack.HRef;
+import org.projecthaystack.ParseException;
+import org.projecthaystack.io.HGridFormat;
+import org.projecthaystack.io.HZincReader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BTagIndexTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BTagIndexTest.class);
+
+    @Test
+    public void testParse()
+    {
+        Assert.assertEquals(FilterNode.parse("point").toString(), "point");
+        Assert.assertEquals(FilterNode.parse("not point").toString(), "not point");
+        Assert.assertEquals(FilterNode.parse("point and his").toString(), "point and his");
+        Assert.assertEquals(FilterNode.parse("a or b and c").toString(), "a or (b and c)");
+        Assert.assertEquals(FilterNode.parse("(a or b) and c").toString(), "(a or b) and c");
+        Assert.assertEquals(FilterNode.parse("equipRef->siteRef==@s").toString(), "equipRef->siteRef==@s");
+        Assert.assertEquals(FilterNode.parse("curVal >= 3").toString(), "curVal>=3");
+        Assert.assertEquals(FilterNode.parse("x == true").toString(), "x==true");
+    }
+
+    @Test(expectedExceptions = ParseException.class)
+    public void testParseError()
+    {
+        FilterNode.parse("point and");
+    }
+
+    @Test
+    public void testCandidates()
+    {
+        TagIndex index = new TagIndex();
+        index.add("site", new HDictBuilder().add("site").toDict());
+        index.add("ahu", new HDictBuilder().add("equip").add("siteRef", HRef.make("site")).toDict());
+        index.add("p1", point("ahu", "Number"));
+        index.add("p2", point("ahu", "Bool"));
+        index.add("p3", point("vav", "Number"));
+
+        Assert.assertEquals(docs(index, "point"), bits(2, 3, 4));
+        Assert.assertEquals(docs(index, "equip or site"), bits(0, 1));
+        Assert.assertEquals(docs(index, "point and equipRef==@ahu"), bits(2, 3));
+        Assert.assertEquals(docs(index, "point and kind==\"Number\""), bits(2, 4));
+        Assert.assertEquals(docs(index, "equipRef->siteRef==@site"), bits(2, 3, 4));
+        Assert.assertEquals(docs(index, "foo"), bits());
+
+        // cannot be narrowed down
+        Assert.assertNull(index.candidates(FilterNode.parse("not point")));
+        Assert.assertNull(index.candidates(FilterNode.parse("curVal > 3")));
+        Assert.assertNull(index.candidates(FilterNode.parse("point or not his")));
+        Assert.assertEquals(docs(index, "point and curVal > 3"), bits(2, 3, 4));
+
+        index.addUnindexed("broken");
+        Assert.assertEquals(docs(index, "site"), bits(0, 5));
+    }
+
+    @Test
+    public void testTagNames()
+    {
+        TagIndex index = new TagIndex();
+        index.add("site", new HDictBuilder().add("id", HRef.make("site")).add("site").toDict());
+        index.add("p1", new HDictBuilder().add("id", HRef.make("p1")).add("point").add("kind", "Number").toDict());
+        index.add("p2", new HDictBuilder().add("id", HRef.make("p2")).add("point").add("unit", "kW").toDict());
+
+        Assert.assertEquals(index.tagNames(null), new String[] { "id", "kind", "point", "site", "unit" });
+        Assert.assertEquals(index.tagNames(bits(1)), new String[] { "id", "kind", "point" });
+        Assert.assertEquals(index.tagNames(docs(index, "point")), new String[] { "id", "kind", "point", "unit" });
+        Assert.assertEquals(index.tagNames(bits()), new String[0]);
+
+        // the tags of removed records are left out
+        index.remove("p2");
+        Assert.assertEquals(index.tagNames(null), new String[] { "id", "kind", "point", "site" });
+
+        // the tags of unindexed records are not known
+        index.addUnindexed("broken");
+        Assert.assertNull(index.tagNames(null));
+        Assert.assertEquals(index.tagNames(bits(0)), new String[] { "id", "site" });
+    }
+
+    @Test
+    public void testStreamCols()
+    {
+        TagIndex index = new TagIndex();
+        index.add("p1", new HDictBuilder().add("id", HRef.make("p1")).add("point").add("kind", "Number").toDict());
+
+        // a point which gains curVal after it was indexed still streams it
+        String[] cols = NHServer.streamCols(index.tagNames(null));
+        Assert.assertEquals(cols, new String[] {
+            "id", "actions", "curErr", "curStatus", "curVal", "hisInterpolate", "kind", "point",
+            "writeErr", "writeLevel", "writeStatus", "writeVal" });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GridStreamWriter out = GridStreamWriter.make(HGridFormat.find("text/zinc", true), bytes);
+        out.begin(HDict.EMPTY, cols);
+        out.row(new HDictBuilder()
+            .add("id", HRef.make("p1"))
+            .add("point")
+            .add("kind", "Number")
+            .add("curVal", HNum.make(72))
+            .toDict());
+        out.end();
+        HGrid grid = new HZincReader(new String(bytes.toByteArray(), StandardCharsets.UTF_8)).readGrid();
+        Assert.assertEquals(grid.row(0).get("curVal"), HNum.make(72));
+
+        Assert.assertNull(NHServer.streamCols(null));
+        Assert.assertEquals(NHServer.streamCols(new String[0]), new String[0]);
+    }
+
+    @Test
+    public void testStamps()
+    {
+        TagIndex index = new TagIndex();
+        BComponent point = new BComponent();
+        point.add("hs$3apoint", BString.make("a"));
+        ComponentStamp stamp = ComponentStamp.make(point);
+        index.addComponent(point, point("ahu", "Number"), stamp);
+        index.add("history", new HDictBuilder().add("his").toDict());
+        index.addUnindexed("broken");
+
+        Assert.assertSame(index.getStamp(0), stamp);
+        Assert.assertNull(index.getStamp(1));
+        Assert.assertNull(index.getStamp(2));
+        Assert.assertTrue(index.getStamp(0).matches(point));
+
+        // a tag edited on the point is noticed
+        point.add("hs$3asensor", BString.make("a"));
+        Assert.assertFalse(index.getStamp(0).matches(point));
+
+        // indexing the point again moves it, with its new stamp
+        index.addComponent(point, point("ahu", "Number"), ComponentStamp.make(point));
+        Assert.assertNull(index.getStamp(0));
+        Assert.assertTrue(index.getStamp(3).matches(point));
+
+        // properties which are not tags are not part of the stamp
+        point.add("haystackLastWrite", BString.make("a"));
+        point.add("note", BString.make("a"));
+        Assert.assertTrue(index.getStamp(3).matches(point));
+        point.set("haystackLastWrite", BString.make("b"));
+        Assert.assertTrue(index.getStamp(3).matches(point));
+
+        Map<BComponent, ComponentStamp> stamps = new HashMap<>();
+        index.getStamps(0, 3, stamps);
+        Assert.assertTrue(stamps.isEmpty());
+        index.getStamps(0, 4, stamps);
+        Assert.assertSame(stamps.get(point), index.getStamp(3));
+    }
+
+    @Test
+    public void testViews()
+    {
+        TagIndex index = new TagIndex();
+        index.add("site", new HDictBuilder().add("site").toDict());
+        index.add("p1", point("ahu", "Number"));
+        index.add("p2", point("ahu", "Number"));
+        TagIndex first = index.view();
+        Assert.assertSame(first.view(), first);
+
+        // an update edits the published view
+        TagIndex edit = first.edit();
+        edit.remove("p1");
+        edit.add("p2", point("ahu", "Bool"));
+        edit.add("p3", point("vav", "Number"));
+        Assert.assertEquals(docs(edit, "point"), bits(3, 4));
+        Assert.assertEquals(docs(edit, "kind==\"Bool\""), bits(3));
+        Assert.assertEquals(edit.docOf("p2"), 3);
+        Assert.assertNull(edit.getKey(1));
+
+        // the view does not see the update
+        Assert.assertEquals(first.size(), 3);
+        Assert.assertEquals(first.garbage(), 0);
+        Assert.assertEquals(docs(first, "point"), bits(1, 2));
+        Assert.assertEquals(docs(first, "kind==\"Bool\""), bits());
+        Assert.assertEquals(first.docOf("p2"), 2);
+        Assert.assertEquals(first.docOf("p3"), -1);
+        Assert.assertEquals(first.getKey(1), "p1");
+        Assert.assertNull(first.getKey(3));
+        Assert.assertEquals(first.tagNames(null), new String[] { "id", "equipRef", "kind", "point", "site" });
+
+        TagIndex second = edit.view();
+        Assert.assertEquals(second.size(), 5);
+        Assert.assertEquals(second.garbage(), 2);
+        Assert.assertEquals(second.estimate(FilterNode.parse("point")), 2);
+
+        // an update which is never published leaves the view alone,
+        // and the next update starts again from the view
+        TagIndex failed = second.edit();
+        failed.add("p4", point("vav", "Number"));
+        failed.remove("p3");
+
+        TagIndex next = second.edit();
+        Assert.assertEquals(docs(next, "point"), bits(3, 4));
+        Assert.assertEquals(next.docOf("p4"), -1);
+        next.add("p5", point("vav", "Number"));
+        Assert.assertEquals(docs(next, "equipRef==@vav"), bits(4, 5));
+        Assert.assertEquals(docs(second, "equipRef==@vav"), bits(4));
+        Assert.assertEquals(docs(failed, "equipRef==@vav"), bits(5));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testViewIsReadOnly()
+    {
+        TagIndex index = new TagIndex();
+        index.add("p1", point("ahu", "Number"));
+        index.view().remove("p1");
+    }
+
+    private static HDict point(String equip, String kind)
+    {
+        return new HDictBuilder()
+            .add("point")
+            .add("equipRef", HRef.make(equip))
+            .add("kind", kind)
+            .toDict();
+    }
+
+    private static BitSet docs(TagIndex index, String filter)
+    {
+        return index.candidates(FilterNode.parse(filter));
+    }
+
+    private static BitSet bits(int... docs)
+    {
+        BitSet bits = new BitSet();
+        for (int doc : docs)
+            bits.set(doc);
+        return bits;
+    }
+}
@@ -0,0 +1,145 @@
+//
+// Copyright (c) 2026, Project Haystack Corporation
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   17 Oct 2026  Creation
+//
+
+package nhaystack.server;
+
+import org.projecthaystack.HDict;
+import org.projecthaystack.HDictBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.baja.nre.annotations.NiagaraType;
+import javax.baja.sys.*;
+import javax.baja.test.BTestNg;
+
+@NiagaraType
+@Test
+public class BTagMemoTest extends BTestNg
+{
+    @Override
+    public Type getType() { return TYPE; }
+    public static final Type TYPE = Sys.loadType(BTagMemoTest.class);
+
+    @Test
+    public void testGeneration()
+    {
+        TagMemo memo = new TagMemo(10);
+        BComponent comp = new BComponent();
+        TagMemo.Entry entry = put(memo, comp, 1);
+
+        Assert.assertSame(memo.get(comp, 1), entry);
+        Assert.assertEquals(memo.getHits(), 1);
+
+        // an entry from another generation is dropped
+        Assert.assertNull(memo.get(comp, 2));
+        Assert.assertEquals(memo.size(), 0);
+
+        // nothing is remembered while a generation is being made
+        Assert.assertNotNull(put(memo, comp, -1));
+        Assert.assertEquals(memo.size(), 0);
+        Assert.assertNull(memo.get(comp, -1));
+    }
+
+    @Test
+    public void testLeastRecentlyUsed()
+    {
+        TagMemo memo = new TagMemo(2);
+        BComponent a = new BComponent();
+        BComponent b = new BComponent();
+        BComponent c = new BComponent();
+        put(memo, a, 1);
+        put(memo, b, 1);
+
+        // reading a makes b the least recently used
+        Assert.assertNotNull(memo.get(a, 1));
+        put(memo, c, 1);
+        Assert.assertEquals(memo.size(), 2);
+        Assert.assertNotNull(memo.get(a, 1));
+        Assert.assertNull(memo.get(b, 1));
+        Assert.assertNotNull(memo.get(c, 1));
+
+        memo.remove(a);
+        Assert.assertNull(memo.get(a, 1));
+    }
+
+    @Test
+    public void testTagEdit()
+    {
+        TagMemo memo = new TagMemo(10);
+        BComponent folder = new BComponent();
+        BComponent point = new BComponent();
+        folder.add("point", point);
+        point.add("facets", BFacets.make("units", BString.make("kW")));
+        point.add("hs$3apoint", BString.make("a"));
+
+        Assert.assertEquals(read(memo, point), tags(point));
+        Assert.assertSame(read(memo, point), read(memo, point));
+
+        // a direct tag is added, as the Workbench tag dialog does
+        point.add("hs$3asensor", BString.make("a"));
+        Assert.assertEquals(read(memo, point), tags(point));
+
+        // a tag is given a new value
+        point.set("hs$3apoint", BString.make("b"));
+        HDict tags = read(memo, point);
+        Assert.assertEquals(memo.getMisses(), 3);
+        Assert.assertSame(read(memo, point), tags);
+
+        // a tag is removed
+        point.remove("hs$3asensor");
+        Assert.assertEquals(read(memo, point), tags(point));
+
+        // the facets are replaced
+        tags = read(memo, point);
+        point.set("facets", BFacets.make("units", BString.make("W")));
+        Assert.assertNotSame(read(memo, point), tags);
+
+        // the point is renamed
+        tags = read(memo, point);
+        folder.rename(folder.getProperty("point"), "renamed");
+        Assert.assertNotSame(read(memo, point), tags);
+    }
+
+////////////////////////////////////////////////////////////////
+// private
+////////////////////////////////////////////////////////////////
+
+    private static TagMemo.Entry put(TagMemo memo, BComponent comp, long generation)
+    {
+        return memo.put(comp, HDict.EMPTY, HDict.EMPTY, generation, ComponentStamp.make(comp));
+    }
+
+    /**
+      * Return the tags of the point from the memo, making them
+      * the way TagManager does if they are not there.
+      */
+    private static HDict read(TagMemo memo, BComponent point)
+    {
+        TagMemo.Entry entry = memo.get(point, 1);
+        if (entry == null)
+        {
+            ComponentStamp stamp = ComponentStamp.make(point);
+            entry = memo.put(point, tags(point), HDict.EMPTY, 1, stamp);
+        }
+        return entry.tags;
+    }
+
+    /**
+      * Make a marker tag for each direct tag of the point.
+      */
+    private static HDict tags(BComponent point)
+    {
+        HDictBuilder hdb = new HDictBuilder();
+        for (Property prop : point.getDynamicPropertiesArray())
+        {
+            if (prop.getName().startsWith("hs$3a"))
+                hdb.add(prop.getName().substring(5));
+        }
+        return hdb.toDict();
+    }
+}